@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Fills SalesAnalytics with a long history of random bills, then compares the report kept up to date as bills arrive
+ * with a full parallel scan of the columns, and checks that both give the same figures.
+ * Arguments: [order lines 50000000] [members 1000000]
+ */
+public class AnalyticsBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        long targetLines = args.length > 0 ? Long.parseLong(args[0]) : 50_000_000L;
+        int members = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        Restaurant restaurant = new Restaurant("res/Menu.csv", "res/Members.csv", null);
+        PricingEngine pricing = restaurant.getPricing();
+        SalesAnalytics analytics = new SalesAnalytics(restaurant);
+        SplittableRandom random = new SplittableRandom(42);
+        Order order = Order.obtain();
+        Bench results = new Bench();
+
+        long start = System.nanoTime();
+        long lines=0;
+        long bills=0;
+        while(lines<targetLines){
+            lines += addBill(analytics, pricing, order, random, members);
+            bills++;
+        }
+        long addNanos = System.nanoTime()-start;
+        double seconds = addNanos/1e9;
+        results.record("analyticsAddLine", members, lines, addNanos);
+        System.out.printf("added %,d bills with %,d lines in %.1f s, %,.0f lines/s, columns %,d MB%n", bills, lines,
+                seconds, lines/seconds, analytics.memoryBytes() >> 20);
+
+        long reportsNanos=0;
+        long scansNanos=0;
+        for(int round=0; round<3; round++){
+            // A few seconds of a busy restaurant arrive between two reports
+            for(int i=0; i<10_000; i++){
+                addBill(analytics, pricing, order, random, members);
+            }
+            start = System.nanoTime();
+            SalesReport report = analytics.report(10);
+            long reportNanos = System.nanoTime()-start;
+
+            start = System.nanoTime();
+            SalesReport scanned = analytics.scan(10);
+            long scanNanos = System.nanoTime()-start;
+            if(!report.sameFigures(scanned)){
+                throw new AssertionError("The running totals and the scan disagree");
+            }
+            reportsNanos+=reportNanos;
+            scansNanos+=scanNanos;
+            System.out.printf("round %d: report from running totals %8.1f ms, full parallel scan %8.1f ms%n", round,
+                    reportNanos/1e6, scanNanos/1e6);
+        }
+        System.out.println(analytics.report(5));
+        results.record("analyticsReport", members, 3, reportsNanos);
+        results.record("analyticsScan", members, 3, scansNanos);
+        results.writeRequestedJson();
+    }
+
+    /**
+     * Method which adds a random bill of 1 to 6 dishes at a random time of day, priced by the restaurant's rules, two
+     * thirds of them from members with up to 40 visits
+     * @return how many lines the bill has
+     */
+    private static int addBill(SalesAnalytics analytics, PricingEngine pricing, Order order, SplittableRandom random,
+                               int members){
+        Menu menu = pricing.getMenu();
+        order.clear();
+        int dishes = 1 + random.nextInt(6);
+        for(int i=0; i<dishes; i++){
+            order.add(random.nextInt(menu.size()), 1 + random.nextInt(3));
+        }
+        int minute = random.nextInt(24*60);
+        PricingEngine.PriceTable prices = pricing.table(0, minute);
+        long total = pricing.total(order, prices);
+        long member = random.nextInt(3)==0 ? 0 : 1 + random.nextInt(members);
+        int visits = 1 + random.nextInt(40);
+        if(member!=0 && pricing.discounts(visits)){
+            prices = pricing.table(visits, minute);
+        }
+        analytics.add(member, total, pricing.total(order, prices), order, menu, prices);
+        return order.size();
+    }
+}
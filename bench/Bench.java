@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Small benchmark harness: warms a piece of code up, then times it over several fixed-length iterations and records
+ * the throughput, the spread between iterations and the bytes the calling thread allocated per operation. Results
+ * are kept in memory and written as JSON, one result per line, so runs can be compared with BenchCompare.
+ *
+ * Benchmarks which time their own runs, such as those running many threads, keep their figures with record instead
+ * and write them with writeRequestedJson, to the file the Gradle task of the benchmark names.
+ */
+public class Bench {
+
+    /**
+     * The code being measured, returning any value so that the work cannot be optimised away
+     */
+    public interface Body {
+        long run() throws Exception;
+    }
+
+    private final int warmups;
+    private final int iterations;
+    private final long iterationNanos;
+    // The system property naming the file writeRequestedJson writes to
+    public static final String OUT_PROPERTY = "bench.out";
+
+    private final List<Result> results = new ArrayList<>();
+    private long sink;
+
+    /**
+     * Constructor for a harness which only keeps the results benchmarks timed themselves
+     */
+    public Bench(){
+        this(0, 1, 0);
+    }
+
+    /**
+     * Constructor for this class
+     * @param warmups: How many iterations are run and thrown away first
+     * @param iterations: How many iterations are measured
+     * @param iterationMillis: How long each iteration keeps calling the code, it is always called at least once
+     */
+    public Bench(int warmups, int iterations, long iterationMillis){
+        this.warmups=warmups;
+        this.iterations=iterations;
+        this.iterationNanos=iterationMillis*1_000_000;
+    }
+
+    /**
+     * Method which measures a piece of code and keeps the result
+     * @param benchmark: Name of what is measured
+     * @param members: Size of the members data set used
+     * @param body: The code, where one call is one operation
+     */
+    public Result measure(String benchmark, long members, Body body) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for(int i=0; i<warmups; i++){
+            iteration(body);
+        }
+        double[] rates = new double[iterations];
+        long totalOps=0;
+        long totalNanos=0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        for(int i=0; i<iterations; i++){
+            long[] opsAndNanos = iteration(body);
+            totalOps+=opsAndNanos[0];
+            totalNanos+=opsAndNanos[1];
+            rates[i] = opsAndNanos[0] / (opsAndNanos[1]/1e9);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        Arrays.sort(rates);
+        double opsPerSecond = totalOps / (totalNanos/1e9);
+        double spread = iterations>1 ? 100*(rates[iterations-1]-rates[0])/2/opsPerSecond : 0;
+        Result result = new Result(benchmark, members, opsPerSecond, (double) totalNanos/totalOps,
+                (double) allocated/totalOps, spread);
+        results.add(result);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Method which keeps the result of a benchmark which timed itself, without the bytes allocated
+     * @param benchmark: Name of what is measured
+     * @param size: Size of the data set or the load used, such as the number of members or diners
+     * @param ops: How many operations were done
+     * @param nanos: How long they took together
+     */
+    public Result record(String benchmark, long size, long ops, long nanos){
+        return record(new Result(benchmark, size, ops/(nanos/1e9), (double) nanos/ops, Double.NaN, 0));
+    }
+
+    public Result record(Result result){
+        results.add(result);
+        return result;
+    }
+
+    private long[] iteration(Body body) throws Exception {
+        long ops=0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink+=body.run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while(elapsed<iterationNanos);
+        return new long[]{ops, elapsed};
+    }
+
+    /**
+     * Method which writes every result so far as JSON
+     */
+    public void writeJson(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if(parent!=null){
+            Files.createDirectories(parent);
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("{\"results\":[");
+            for(int i=0; i<results.size(); i++){
+                out.println(results.get(i).toJson() + (i<results.size()-1 ? "," : ""));
+            }
+            out.println("],\"sink\":" + sink + "}");
+        }
+    }
+
+    /**
+     * Method which writes every result so far as JSON to the file named by the bench.out system property, and
+     * nothing when it is not set
+     */
+    public void writeRequestedJson() throws IOException {
+        String file = System.getProperty(OUT_PROPERTY);
+        if(file != null){
+            writeJson(Path.of(file));
+            System.out.println("Results written to " + file);
+        }
+    }
+
+    /**
+     * The measurement of one benchmark on one data set. Figures which were not measured are NaN, written as null.
+     */
+    public static class Result {
+        private final String benchmark;
+        private final long members;
+        private final double opsPerSecond;
+        private final double nsPerOp;
+        private final double bytesPerOp;
+        private final double errorPercent;
+
+        public Result(String benchmark, long members, double opsPerSecond, double nsPerOp, double bytesPerOp,
+                      double errorPercent){
+            this.benchmark=benchmark;
+            this.members=members;
+            this.opsPerSecond=opsPerSecond;
+            this.nsPerOp=nsPerOp;
+            this.bytesPerOp=bytesPerOp;
+            this.errorPercent=errorPercent;
+        }
+
+        public String getKey() {
+            return benchmark + "@" + members;
+        }
+
+        public double getOpsPerSecond() {
+            return opsPerSecond;
+        }
+
+        public String toJson(){
+            return String.format(Locale.ROOT, "{\"benchmark\":\"%s\",\"members\":%d,\"opsPerSecond\":%s," +
+                    "\"nsPerOp\":%s,\"bytesPerOp\":%s,\"errorPercent\":%.2f}", benchmark, members,
+                    json(opsPerSecond, "%.3f"), json(nsPerOp, "%.3f"), json(bytesPerOp, "%.1f"), errorPercent);
+        }
+
+        private static String json(double figure, String format){
+            return Double.isNaN(figure) ? "null" : String.format(Locale.ROOT, format, figure);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-16s %,11d members %,16.1f ops/s %,14.1f ns/op %,12.1f B/op  +-%.1f%%",
+                    benchmark, members, opsPerSecond, nsPerOp, bytesPerOp, errorPercent);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares two JSON result files written by Bench and fails when a benchmark got slower by more than the allowed
+ * percentage, so a regression is caught before it is deployed.
+ *
+ * Arguments: baseline.json candidate.json [allowed slowdown in percent, 10 by default]
+ */
+public class BenchCompare {
+
+    private static final Pattern RESULT = Pattern.compile(
+            "\"benchmark\":\"([^\"]+)\",\"members\":(\\d+),\"opsPerSecond\":([0-9.]+)");
+
+    public static void main(String[] args) throws IOException {
+        if(args.length<2){
+            System.err.println("Usage: BenchCompare baseline.json candidate.json [allowed slowdown %]");
+            System.exit(2);
+        }
+        Map<String, Double> baseline = read(Path.of(args[0]));
+        Map<String, Double> candidate = read(Path.of(args[1]));
+        double allowed = args.length>2 ? Double.parseDouble(args[2]) : 10;
+
+        boolean regressed=false;
+        for(Map.Entry<String, Double> entry:candidate.entrySet()){
+            Double before = baseline.get(entry.getKey());
+            if(before==null){
+                System.out.println(String.format("%-32s new", entry.getKey()));
+                continue;
+            }
+            double change = 100*(entry.getValue()-before)/before;
+            boolean slower = change < -allowed;
+            regressed |= slower;
+            System.out.println(String.format("%-32s %,16.1f -> %,16.1f ops/s %+7.1f%% %s", entry.getKey(), before,
+                    entry.getValue(), change, slower ? "REGRESSION" : ""));
+        }
+        if(regressed){
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Double> read(Path file) throws IOException {
+        Map<String, Double> results = new LinkedHashMap<>();
+        Matcher matcher = RESULT.matcher(Files.readString(file));
+        while(matcher.find()){
+            results.put(matcher.group(1) + "@" + matcher.group(2), Double.parseDouble(matcher.group(3)));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Keeps thousands of customers connected to a ConsoleServer at once and reports the visits per second, how long a
+ * whole visit took and how long the waiter took to answer each line. Every customer plays a random visit from the
+ * DialogueGenerator, typing the next line as soon as the waiter asks for it, and a new customer connects whenever one
+ * leaves. All the customers are driven by one thread with a Selector.
+ *
+ * The server runs in the same program, on a copy of the res folder with its own members journal.
+ * Arguments: [connections 2000] [seconds 10]
+ */
+public class ConsoleServerBenchmark {
+
+    private static final byte[] FAREWELL = "again!\n".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+
+        Path folder = Files.createTempDirectory("console-server");
+        for(String file:new String[]{"Menu.csv", "Pricing.csv", "Members.csv"}){
+            Files.copy(Path.of("res", file), folder.resolve(file));
+        }
+        Restaurant restaurant = new Restaurant(folder.resolve("Menu.csv").toString(),
+                folder.resolve("Members.csv").toString(), folder.resolve("Members.journal").toString());
+        ConsoleServer server = new ConsoleServer(restaurant, 0);
+        Customers customers = new Customers(server.getAddress(), new DialogueGenerator(restaurant, 42));
+
+        // A short run first so the server is compiled before it is measured
+        customers.run(Math.min(connections, 200), 2_000_000_000L);
+        customers = new Customers(server.getAddress(), new DialogueGenerator(restaurant, 7));
+        long servedBefore = server.getServed();
+        long abandonedBefore = server.getAbandoned();
+        customers.run(connections, seconds*1_000_000_000L);
+        customers.report(connections);
+        Bench results = new Bench();
+        results.record("consoleServerVisit", connections, customers.completed, customers.elapsedNanos);
+        System.out.printf("server: %,d visits served, %,d abandoned%n", server.getServed()-servedBefore,
+                server.getAbandoned()-abandonedBefore);
+        server.close();
+        results.writeRequestedJson();
+    }
+
+    /**
+     * The customers of one run and what they measured
+     */
+    private static final class Customers {
+        private final InetSocketAddress address;
+        private final DialogueGenerator dialogues;
+        private final LatencyHistogram visits = new LatencyHistogram();
+        private final LatencyHistogram answers = new LatencyHistogram();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        private long completed=0;
+        private long failed=0;
+        private long peakConnected=0;
+        private long elapsedNanos;
+
+        private Customers(InetSocketAddress address, DialogueGenerator dialogues){
+            this.address=address;
+            this.dialogues=dialogues;
+        }
+
+        /**
+         * Method which keeps the given number of customers connected until the time is up, then waits for the ones
+         * still inside to finish their visit
+         */
+        private void run(int connections, long durationNanos) throws IOException {
+            long begin = System.nanoTime();
+            long deadline = begin + durationNanos;
+            try (Selector selector = Selector.open()) {
+                int connected=0;
+                for(int i=0; i<connections; i++){
+                    connect(selector);
+                    connected++;
+                }
+                peakConnected=connected;
+                while(connected>0){
+                    selector.select(100);
+                    for(SelectionKey key:selector.selectedKeys()){
+                        Customer customer = (Customer) key.attachment();
+                        if(!customer.handle(key)){
+                            connected--;
+                            if(System.nanoTime()<deadline){
+                                connect(selector);
+                                connected++;
+                            }
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            }
+            elapsedNanos = System.nanoTime() - begin;
+        }
+
+        private void connect(Selector selector) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Customer customer = new Customer(channel, dialogues.nextVisit());
+            if(channel.connect(address)){
+                channel.register(selector, SelectionKey.OP_READ, customer);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, customer);
+            }
+        }
+
+        private void report(int connections){
+            LatencyHistogram.Snapshot visit = visits.snapshot();
+            LatencyHistogram.Snapshot answer = answers.snapshot();
+            System.out.printf("%,d connections: %,d visits in %.1f s, %,.0f visits/s, %,d failed%n", connections,
+                    completed, elapsedNanos/1e9, completed/(elapsedNanos/1e9), failed);
+            System.out.printf("  visit   p50 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms  max %8.2f ms%n",
+                    visit.percentile(50)/1e6, visit.percentile(99)/1e6, visit.percentile(99.9)/1e6,
+                    visit.getMax()/1e6);
+            System.out.printf("  answer  p50 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms  max %8.2f ms  (%,d lines)%n",
+                    answer.percentile(50)/1e6, answer.percentile(99)/1e6, answer.percentile(99.9)/1e6,
+                    answer.getMax()/1e6, answer.getCount());
+        }
+
+        /**
+         * One customer: a connection and the lines of their visit
+         */
+        private final class Customer {
+            private final SocketChannel channel;
+            private final List<String> lines;
+            private final long start = System.nanoTime();
+            private int next=0;
+            private long asked = start;
+            private byte last=0;
+            private boolean farewell=false;
+
+            private Customer(SocketChannel channel, List<String> lines){
+                this.channel=channel;
+                this.lines=lines;
+            }
+
+            /**
+             * Method which reacts to the socket being ready
+             * @return false once the visit is over and the connection closed
+             */
+            private boolean handle(SelectionKey key) throws IOException {
+                try {
+                    if(key.isConnectable()){
+                        channel.finishConnect();
+                        key.interestOps(SelectionKey.OP_READ);
+                        return true;
+                    }
+                    buffer.clear();
+                    int count = channel.read(buffer);
+                    if(count<0){
+                        finish();
+                        return false;
+                    }
+                    buffer.flip();
+                    int end = buffer.limit();
+                    farewell = endsWith(buffer, end, FAREWELL);
+                    byte secondLast = end>=2 ? buffer.get(end-2) : last;
+                    byte lastByte = end>=1 ? buffer.get(end-1) : last;
+                    last = lastByte;
+                    // The waiter asks for every line with a prompt ending in ": "
+                    if(secondLast==':' && lastByte==' ' && next<lines.size()){
+                        long now = System.nanoTime();
+                        answers.record(now-asked);
+                        ByteBuffer line = ByteBuffer.wrap((lines.get(next++) + "\n")
+                                .getBytes(StandardCharsets.UTF_8));
+                        while(line.hasRemaining()){
+                            channel.write(line);
+                        }
+                        asked = now;
+                    }
+                    return true;
+                } catch (IOException e) {
+                    failed++;
+                    key.cancel();
+                    channel.close();
+                    return false;
+                }
+            }
+
+            private void finish() throws IOException {
+                channel.close();
+                if(farewell){
+                    completed++;
+                    visits.record(System.nanoTime()-start);
+                } else {
+                    failed++;
+                }
+            }
+        }
+
+        private static boolean endsWith(ByteBuffer buffer, int end, byte[] suffix){
+            if(end<suffix.length){
+                return false;
+            }
+            for(int i=0; i<suffix.length; i++){
+                if(buffer.get(end-suffix.length+i)!=suffix[i]){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
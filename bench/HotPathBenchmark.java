@@ -0,0 +1,111 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Benchmarks of the simulator's hot paths on members data sets from the 7 rows of res/Members.csv up to millions of
+ * generated members: loading the menu and the members, drawing the menu and the bills, applying the discount,
+ * writing the members list and looking a member up. The results are printed and written as JSON for BenchCompare.
+ *
+ * Run from the project folder, or with ./gradlew bench, which builds the simulator and writes bench-results.json.
+ * Arguments: [--members 7,10000,1000000] [--warmup 2] [--iterations 5] [--time 500] [--out bench-results.json]
+ * Use --members 7,100000,10000000 with a large heap (-Xmx8g) for the biggest data set.
+ */
+public class HotPathBenchmark {
+
+    private static final String MENU = "res/Menu.csv";
+    private static final String MEMBERS = "res/Members.csv";
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws Exception {
+        String sizes = "7,10000,1000000";
+        int warmup = 2;
+        int iterations = 5;
+        long time = 500;
+        String out = "bench-results.json";
+        for(int i=0; i+1<args.length; i+=2){
+            switch (args[i]) {
+                case "--members" -> sizes = args[i+1];
+                case "--warmup" -> warmup = Integer.parseInt(args[i+1]);
+                case "--iterations" -> iterations = Integer.parseInt(args[i+1]);
+                case "--time" -> time = Long.parseLong(args[i+1]);
+                case "--out" -> out = args[i+1];
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Bench bench = new Bench(warmup, iterations, time);
+        for(String size:sizes.split(",")){
+            run(bench, Integer.parseInt(size.trim()));
+        }
+        bench.writeJson(Path.of(out));
+        System.out.println("Results written to " + out);
+    }
+
+    private static void run(Bench bench, int members) throws Exception {
+        Path dir = Files.createTempDirectory("bench");
+        Path membersFile;
+        long[] nums;
+        if(members==7){
+            membersFile = Path.of(MEMBERS);
+            nums = new long[]{1166498, 1166456, 1166114, 1166479, 1166998, 1166756, 1166280};
+        } else {
+            membersFile = dir.resolve("Members.csv");
+            LoaderBenchmark.writeMembers(membersFile, members);
+            nums = new long[members];
+            for(int i=0; i<members; i++){
+                nums[i] = 1_000_000 + i;
+            }
+        }
+        Path written = dir.resolve("Written.csv");
+
+        bench.measure("loadMembers", members,
+                () -> new Restaurant(MENU, membersFile.toString(), null).getMenu().size());
+
+        Restaurant restaurant = new Restaurant(MENU, membersFile.toString(), null);
+        bench.measure("loadMenu", members, () -> {
+            restaurant.loadMenu(MENU);
+            return restaurant.getMenu().size();
+        });
+
+        Session session = new Session(restaurant, new ScriptedInput("steak", "no", "sushi", "no", "siomay", "yes"),
+                DISCARD);
+        session.customerOrder();
+        bench.measure("displayFood", members, () -> {
+            session.displayFood(restaurant.getMenu());
+            return 1;
+        });
+        bench.measure("printBill", members, () -> {
+            session.printBill(false);
+            return 1;
+        });
+        bench.measure("discountBill", members, () -> {
+            session.discountBill();
+            return 1;
+        });
+
+        String[] lookups = new String[4096];
+        Random random = new Random(42);
+        for(int i=0; i<lookups.length; i++){
+            lookups[i] = Long.toString(nums[random.nextInt(nums.length)]);
+        }
+        int[] next = {0};
+        bench.measure("membership", members, () -> {
+            Member member = restaurant.checkIn(lookups[next[0]++ & (lookups.length-1)]);
+            return member == null ? 0 : 1;
+        });
+
+        bench.measure("writeToMembers", members, () -> {
+            restaurant.writeToMembers(written.toString());
+            return 1;
+        });
+
+        Files.deleteIfExists(written);
+        if(members!=7){
+            Files.deleteIfExists(membersFile);
+        }
+        Files.deleteIfExists(dir);
+    }
+}
@@ -0,0 +1,45 @@
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Shows how the number of cooks per station and the batch limit change the kitchen's throughput and how long a ticket
+ * takes, with many diners ordering at the same time. Cooking runs at a ten thousandth of real time, so a ten minute
+ * steak takes 60 milliseconds.
+ * Arguments: [seconds per run] [concurrent diners]
+ */
+public class KitchenBenchmark {
+
+    private static final double TIME_SCALE = 0.0001;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        int diners = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        Restaurant restaurant = new Restaurant("res/Menu.csv", "res/Members.csv", null);
+        Bench results = new Bench();
+        System.out.printf("%5s %5s %12s %12s %12s %12s %10s  %s%n", "cooks", "batch", "tickets/s", "portions/s",
+                "p50 ms", "p99 ms", "per batch", "busiest station");
+        for(int cooks : new int[]{1, 2, 4}){
+            for(int batch : new int[]{1, 4, 16}){
+                Kitchen kitchen = new Kitchen("res/Kitchen.csv", cooks, batch, 256, TIME_SCALE);
+                restaurant.setKitchen(kitchen);
+                LoadGenerator load = new LoadGenerator(restaurant, diners, 0, null, 42);
+                LoadGenerator.Report report = load.run(0, seconds * 1_000_000_000L);
+                kitchen.close();
+
+                double elapsed = report.getElapsedNanos() / 1e9;
+                LatencyHistogram.Snapshot tickets = kitchen.ticketLatency();
+                results.record("kitchen" + cooks + "Cooks" + batch + "Batch", diners, tickets.getCount(),
+                        report.getElapsedNanos());
+                Map.Entry<String, Double> busiest = kitchen.utilisation(report.getElapsedNanos()).entrySet()
+                        .stream().max(Map.Entry.comparingByValue()).orElseThrow();
+                System.out.printf("%5d %5d %12.1f %12.1f %12.1f %12.1f %10.2f  %s %.0f%%%n", cooks, batch,
+                        tickets.getCount() / elapsed, kitchen.getPortions() / elapsed, tickets.percentile(50) / 1e6,
+                        tickets.percentile(99) / 1e6, (double) kitchen.getPortions() / kitchen.getBatches(),
+                        busiest.getKey(), busiest.getValue() * 100);
+            }
+        }
+        restaurant.setKitchen(null);
+        results.writeRequestedJson();
+    }
+}
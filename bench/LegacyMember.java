@@ -0,0 +1,37 @@
+/**
+ * The Member class as it was before the MemberStore, one object per member with a String key and name, kept so the
+ * benchmarks can compare against the old layout.
+ */
+public class LegacyMember {
+    private final String name;
+    private final String num;
+    private int freq;
+    private final int phoneNum;
+
+    public LegacyMember(String num, String name, int freq, int phoneNum){
+        this.num=num;
+        this.name=name;
+        this.freq=freq;
+        this.phoneNum=phoneNum;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getFreq() {
+        return freq;
+    }
+
+    public String getNum() {
+        return num;
+    }
+
+    public int getPhoneNum() {
+        return phoneNum;
+    }
+
+    public void setFreq(){
+        this.freq+=1;
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Compares the start-up time of loading a large generated Members.csv with the old BufferedReader and split loader
+ * against Restaurant.loadMembers, which goes through the parallel memory-mapped CsvLoader.
+ *
+ * Arguments: [members] [rounds]
+ */
+public class LoaderBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path file = Files.createTempFile("members", ".csv");
+        file.toFile().deleteOnExit();
+        writeMembers(file, members);
+        System.out.println(String.format("%,d members, %,d bytes", members, Files.size(file)));
+        Bench results = new Bench();
+        long legacyTotal=0;
+        long loaderTotal=0;
+
+        for(int round=0; round<rounds; round++){
+            long start = System.nanoTime();
+            HashMap<String, LegacyMember> legacy = loadMembersLegacy(file.toString());
+            long legacyNanos = System.nanoTime() - start;
+
+            Restaurant restaurant = new Restaurant("res/Menu.csv", "res/Members.csv", null);
+            start = System.nanoTime();
+            restaurant.loadMembers(file.toString());
+            long loaderNanos = System.nanoTime() - start;
+
+            legacyTotal+=legacyNanos;
+            loaderTotal+=loaderNanos;
+            System.out.println(String.format("round %d: BufferedReader %,8.1f ms   CsvLoader %,8.1f ms   (%d rows)",
+                    round+1, legacyNanos/1e6, loaderNanos/1e6, legacy.size()));
+        }
+        // One operation is one member loaded
+        results.record("loadBufferedReader", members, (long) members*rounds, legacyTotal);
+        results.record("loadCsvLoader", members, (long) members*rounds, loaderTotal);
+        results.writeRequestedJson();
+    }
+
+    /**
+     * Writes rows shaped like Members.csv with unique membership numbers
+     */
+    static void writeMembers(Path file, int members) throws IOException {
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for(int i=0; i<members; i++){
+                writer.write(Integer.toString(1_000_000 + i));
+                writer.write(",Member ");
+                writer.write(Integer.toString(random.nextInt(1_000_000)));
+                writer.write(',');
+                writer.write(Integer.toString(1 + random.nextInt(60)));
+                writer.write(',');
+                writer.write(Integer.toString(40_000_000 + random.nextInt(9_000_000)));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * The loader as it was before CsvLoader
+     */
+    static HashMap<String, LegacyMember> loadMembersLegacy(String filename) throws IOException {
+        HashMap<String, LegacyMember> membership = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] info = line.split(",");
+                String num = info[0];
+                String name = info[1];
+                String freq = info[2];
+                String phone = info[3];
+
+                membership.put(num, new LegacyMember(num, name,Integer.parseInt(freq), Integer.parseInt(phone)));
+            }
+        }
+        return membership;
+    }
+}
@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Reports the heap used per member by the old HashMap of String keys and Member objects against the MemberStore, for
+ * the same generated Members.csv.
+ *
+ * Arguments: [members]
+ */
+public class MemberMemoryBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        Path file = Files.createTempFile("members", ".csv");
+        file.toFile().deleteOnExit();
+        LoaderBenchmark.writeMembers(file, members);
+
+        long before = usedHeap();
+        HashMap<String, LegacyMember> legacy = LoaderBenchmark.loadMembersLegacy(file.toString());
+        long legacyBytes = usedHeap() - before;
+        int legacySize = legacy.size();
+        legacy = null;
+
+        before = usedHeap();
+        Restaurant restaurant = new Restaurant("res/Menu.csv", "res/Members.csv", null);
+        restaurant.loadMembers(file.toString());
+        long storeBytes = usedHeap() - before;
+
+        System.out.println(String.format("%,d members", legacySize));
+        System.out.println(String.format("HashMap<String, Member> %,14d bytes %8.1f bytes/member",
+                legacyBytes, (double) legacyBytes/legacySize));
+        System.out.println(String.format("MemberStore             %,14d bytes %8.1f bytes/member",
+                storeBytes, (double) storeBytes/legacySize));
+        // Keep the restaurant reachable until it has been measured
+        System.out.println(restaurant.getMenu().size() > 0 ? "" : "empty menu");
+
+        // Only the bytes per member are measured here
+        Bench results = new Bench();
+        results.record(new Bench.Result("memoryHashMap", legacySize, Double.NaN, Double.NaN,
+                (double) legacyBytes/legacySize, 0));
+        results.record(new Bench.Result("memoryMemberStore", legacySize, Double.NaN, Double.NaN,
+                (double) storeBytes/legacySize, 0));
+        results.writeRequestedJson();
+    }
+
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        for(int i=0; i<5; i++){
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures finding members by phone number and by the start of their name in a large membership list, against
+ * scanning every member, and how much keeping the indexes up to date adds to registering a new member.
+ * Arguments: [members] [lookups]
+ */
+public class MemberSearchBenchmark {
+
+    private static final String[] SYLLABLES = {"an", "ben", "ca", "de", "el", "fi", "ga", "ho", "is", "jo", "ka",
+            "li", "mo", "na", "or", "pe", "qui", "ra", "so", "ta", "ul", "vi", "wa", "xe", "ya", "zu"};
+
+    public static void main(String[] args) throws IOException {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Random random = new Random(42);
+
+        MemberStore store = new MemberStore(members);
+        Bench results = new Bench();
+        for(int i=0; i<members; i++){
+            store.add(1_000_000L + i, name(random), 1, phone(random));
+        }
+
+        long start = System.nanoTime();
+        store.buildIndexes();
+        System.out.printf("%,d members, indexes built in %.1f ms, store now %,d bytes%n", members,
+                (System.nanoTime()-start)/1e6, store.memoryBytes());
+
+        // Queries are taken from members picked at random, so every one of them finds someone
+        long[] phones = new long[lookups];
+        String[] prefixes = new String[lookups];
+        for(int i=0; i<lookups; i++){
+            int row = random.nextInt(members);
+            phones[i] = store.phone(row);
+            String name = store.name(row);
+            prefixes[i] = name.substring(0, 3 + random.nextInt(name.length()-2)).toLowerCase(Locale.ROOT);
+        }
+        check(store, prefixes, phones, random);
+
+        int[] rows = new int[10];
+        long found=0;
+        long phonesNanos=0;
+        long namesNanos=0;
+        for(int round=0; round<3; round++){
+            start = System.nanoTime();
+            for(long phone:phones){
+                found += store.findByPhone(phone, rows);
+            }
+            long phoneNanos = System.nanoTime()-start;
+
+            start = System.nanoTime();
+            for(String prefix:prefixes){
+                found += store.findByName(prefix, rows);
+            }
+            long nameNanos = System.nanoTime()-start;
+            phonesNanos+=phoneNanos;
+            namesNanos+=nameNanos;
+            System.out.printf("round %d: by phone %6.0f ns/op, by name %6.0f ns/op%n", round,
+                    (double) phoneNanos/lookups, (double) nameNanos/lookups);
+        }
+
+        results.record("findByPhone", members, 3L*lookups, phonesNanos);
+        results.record("findByName", members, 3L*lookups, namesNanos);
+
+        int scans = 20;
+        start = System.nanoTime();
+        for(int i=0; i<scans; i++){
+            found += scanByName(store, prefixes[i], rows);
+        }
+        long scanNanos = System.nanoTime()-start;
+        results.record("scanByName", members, scans, scanNanos);
+        System.out.printf("scanning every member: %,.0f ns/op%n", (double) scanNanos/scans);
+
+        int added = Math.max(1, members/10);
+        start = System.nanoTime();
+        for(int i=0; i<added; i++){
+            store.add(5_000_000_000L + i, name(random), 1, phone(random));
+        }
+        long addNanos = System.nanoTime()-start;
+        results.record("registerIndexed", members, added, addNanos);
+        System.out.printf("registering %,d more members with the indexes live: %,.0f ns/op%n", added,
+                (double) addNanos/added);
+        check(store, prefixes, phones, random);
+        System.out.println("(" + found + " rows found)");
+        results.writeRequestedJson();
+    }
+
+    /**
+     * Makes sure the indexes find exactly what scanning finds, for a sample of the queries
+     */
+    private static void check(MemberStore store, String[] prefixes, long[] phones, Random random){
+        int[] indexed = new int[1 << 20];
+        int[] scanned = new int[1 << 20];
+        for(int i=0; i<20; i++){
+            String prefix = prefixes[random.nextInt(prefixes.length)];
+            int byIndex = store.findByName(prefix, indexed);
+            int byScan = scanByName(store, prefix, scanned);
+            if(byIndex!=byScan){
+                throw new AssertionError("\"" + prefix + "\": index found " + byIndex + ", scan found " + byScan);
+            }
+            long phone = phones[random.nextInt(phones.length)];
+            int phoneMatches = store.findByPhone(phone, indexed);
+            for(int j=0; j<phoneMatches; j++){
+                if(store.phone(indexed[j])!=phone){
+                    throw new AssertionError("Wrong member for phone " + phone);
+                }
+            }
+            if(phoneMatches==0){
+                throw new AssertionError("Nobody found with phone " + phone);
+            }
+        }
+    }
+
+    /**
+     * Finds members by the start of their name by looking at every one of them
+     */
+    private static int scanByName(MemberStore store, String prefix, int[] rows){
+        byte[] text = prefix.toUpperCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+        int found=0;
+        for(int row=0; row<store.size() && found<rows.length; row++){
+            if(store.num(row)==0 || store.nameLength(row)<text.length){
+                continue;
+            }
+            byte[] page = store.namePage(row);
+            int offset = store.nameOffset(row);
+            boolean match=true;
+            for(int i=0; i<text.length && match; i++){
+                byte b = page[offset+i];
+                match = (b>='a' && b<='z' ? b-32 : b) == text[i];
+            }
+            if(match){
+                rows[found++]=row;
+            }
+        }
+        return found;
+    }
+
+    private static String name(Random random){
+        StringBuilder name = new StringBuilder();
+        for(int part=0; part<2; part++){
+            int syllables = 2 + random.nextInt(2);
+            int start = name.length();
+            for(int i=0; i<syllables; i++){
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            name.setCharAt(start, Character.toUpperCase(name.charAt(start)));
+            if(part==0){
+                name.append(' ');
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * A mobile number with its country code, which does not fit in an int
+     */
+    private static long phone(Random random){
+        return 61_400_000_000L + random.nextInt(100_000_000);
+    }
+}
@@ -0,0 +1,328 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Stress test and throughput benchmark of the MemberStore under many threads. Each thread mostly checks in existing
+ * members and sometimes signs up new ones, some of them racing other threads for the same membership number. After
+ * every run the store is checked: no visit or member may be lost and no number may be handed out twice.
+ *
+ * Then a store starting at its smallest table is filled by all threads at once while they look members up by number,
+ * phone number and name, so the key table is replaced and the indexes brought up to date under load. Every member
+ * added must be found at once by all three, and afterwards exactly once.
+ *
+ * Then the same check-ins go through Restaurant.checkIn with a MemberJournal, as sessions record them, the journal
+ * being compacted several times along the way. After every run the journal is synced and replayed into a new
+ * Restaurant, which must have every visit.
+ *
+ * Runs with 1, 2, 4 ... up to the given number of threads.
+ * Arguments: [max threads] [operations per thread] [preloaded members]
+ */
+public class MembershipBenchmark {
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        int preloaded = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        Bench results = new Bench();
+        boolean failed=false;
+        for(int threads=1; threads<maxThreads; threads*=2){
+            failed |= !run(results, threads, ops, preloaded);
+        }
+        failed |= !run(results, maxThreads, ops, preloaded);
+        for(int threads=1; threads<maxThreads; threads*=2){
+            failed |= !runResizing(results, threads, ops/20);
+        }
+        failed |= !runResizing(results, maxThreads, ops/20);
+        for(int threads=1; threads<maxThreads; threads*=2){
+            failed |= !runJournaled(results, threads, ops, preloaded);
+        }
+        failed |= !runJournaled(results, maxThreads, ops, preloaded);
+        results.writeRequestedJson();
+        if(failed){
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(Bench results, int threads, int ops, int preloaded) throws InterruptedException {
+        MemberStore store = new MemberStore();
+        for(int i=1; i<=preloaded; i++){
+            store.add(i, "Member " + i, 1, i);
+        }
+
+        AtomicLong visits = new AtomicLong();
+        AtomicLong joined = new AtomicLong();
+        AtomicLong contestedWins = new AtomicLong();
+        long contestedBase = 1_000_000_000L;
+        int contestedNums = Math.max(1, ops/100);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for(int t=0; t<threads; t++){
+            long ownBase = 2_000_000_000L + (long) t*ops;
+            long seed = t;
+            workers[t] = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                long myVisits=0;
+                long myJoined=0;
+                long myWins=0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for(int i=0; i<ops; i++){
+                    int dice = random.nextInt(100);
+                    if(dice<90){
+                        int row = store.find(1 + random.nextInt(preloaded));
+                        store.incrementFreq(row);
+                        myVisits++;
+                    } else if(dice<99){
+                        if(store.add(ownBase+i, "New", 1, 42) < 0){
+                            throw new IllegalStateException("Own number was taken");
+                        }
+                        myJoined++;
+                    } else if(store.add(contestedBase + (i % contestedNums), "Racer", 1, 7) >= 0){
+                        myWins++;
+                    }
+                }
+                visits.addAndGet(myVisits);
+                joined.addAndGet(myJoined);
+                contestedWins.addAndGet(myWins);
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Thread worker:workers){
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        // Check that nothing was lost or handed out twice
+        long freqSum=0;
+        long members=0;
+        long contested=0;
+        for(int row=0; row<store.size(); row++){
+            long num = store.num(row);
+            if(num==0){
+                continue;
+            }
+            members++;
+            freqSum+=store.freq(row);
+            if(store.find(num)!=row){
+                System.out.println("FAILED: member " + num + " is not found at its own row");
+                return false;
+            }
+            if(num>=contestedBase && num<contestedBase+contestedNums){
+                contested++;
+            }
+        }
+        long expectedMembers = preloaded + joined.get() + contestedWins.get();
+        long expectedFreq = expectedMembers + visits.get();
+        boolean ok = members==expectedMembers && freqSum==expectedFreq && contested==contestedWins.get();
+        results.record("storeMixed", threads, (long) threads*ops, elapsed);
+
+        System.out.println(String.format("%3d threads %,14.0f ops/s  members %,d  visits %,d  %s", threads,
+                (double) threads*ops/(elapsed/1e9), members, visits.get(), ok ? "OK" : "FAILED (expected " +
+                        expectedMembers + " members and " + expectedFreq + " visits, found " + freqSum + ")"));
+        return ok;
+    }
+
+    /**
+     * Method which fills a store from its smallest table while looking up the members added so far, then checks that
+     * no member was lost or added twice
+     */
+    private static boolean runResizing(Bench results, int threads, int ops) throws InterruptedException {
+        MemberStore store = new MemberStore();
+        store.buildIndexes();
+
+        long contestedBase = 1_000_000_000L;
+        int contestedNums = Math.max(1, ops/100);
+        // How many of its own members each thread has added, so the others only look up members already there
+        AtomicLongArray added = new AtomicLongArray(threads);
+        AtomicLong contestedWins = new AtomicLong();
+        AtomicReference<String> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for(int t=0; t<threads; t++){
+            int own = t;
+            workers[t] = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(own);
+                int[] rows = new int[2];
+                long myWins=0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for(int i=0; i<ops && failure.get()==null; i++){
+                    long num = ownNum(own, ops, i);
+                    if(store.add(num, "N" + num + ".", 1, num) < 0){
+                        failure.compareAndSet(null, "own number " + num + " was taken");
+                    }
+                    added.set(own, i+1);
+                    if(random.nextInt(100)==0){
+                        long contested = contestedBase + random.nextInt(contestedNums);
+                        if(store.add(contested, "N" + contested + ".", 1, contested) >= 0){
+                            myWins++;
+                        }
+                    }
+
+                    int other = random.nextInt(threads);
+                    long count = added.get(other);
+                    if(count==0){
+                        continue;
+                    }
+                    long wanted = ownNum(other, ops, (int) random.nextLong(count));
+                    int row = store.find(wanted);
+                    if(row<0 || store.num(row)!=wanted || store.phone(row)!=wanted){
+                        failure.compareAndSet(null, "member " + wanted + " was not found by number");
+                    } else if(store.findByPhone(wanted, rows)!=1 || rows[0]!=row){
+                        failure.compareAndSet(null, "member " + wanted + " was not found by phone number");
+                    } else if((i & 15)==0 && (store.findByName("N" + wanted + ".", rows)!=1 || rows[0]!=row)){
+                        failure.compareAndSet(null, "member " + wanted + " was not found by name");
+                    }
+                }
+                contestedWins.addAndGet(myWins);
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Thread worker:workers){
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        // Check that every member is in the store once, and found once by number, phone number and name
+        Set<Long> seen = new HashSet<>();
+        int[] rows = new int[2];
+        for(int row=0; row<store.size(); row++){
+            long num = store.num(row);
+            if(num==0){
+                continue;
+            }
+            if(!seen.add(num)){
+                failure.compareAndSet(null, "member " + num + " was added twice");
+            } else if(store.find(num)!=row || store.findByPhone(num, rows)!=1 || rows[0]!=row ||
+                    store.findByName("N" + num + ".", rows)!=1 || rows[0]!=row){
+                failure.compareAndSet(null, "member " + num + " is not found at its own row");
+            }
+        }
+        for(int t=0; t<threads && failure.get()==null; t++){
+            for(int i=0; i<ops; i++){
+                if(!seen.contains(ownNum(t, ops, i))){
+                    failure.compareAndSet(null, "member " + ownNum(t, ops, i) + " was lost");
+                    break;
+                }
+            }
+        }
+        long expectedMembers = (long) threads*ops + contestedWins.get();
+        if(failure.get()==null && seen.size()!=expectedMembers){
+            failure.compareAndSet(null, "expected " + expectedMembers + " members, found " + seen.size());
+        }
+        results.record("storeResizing", threads, (long) threads*ops, elapsed);
+
+        System.out.println(String.format("%3d threads %,14.0f adds/s from an empty store  members %,d  %s", threads,
+                (double) threads*ops/(elapsed/1e9), seen.size(), failure.get()==null ? "OK" :
+                        "FAILED (" + failure.get() + ")"));
+        return failure.get()==null;
+    }
+
+    private static long ownNum(int thread, int ops, int i){
+        return 2_000_000_000L + (long) thread*ops + i;
+    }
+
+    /**
+     * Method which checks members in through a Restaurant keeping a journal, and replays the journal afterwards
+     */
+    private static boolean runJournaled(Bench results, int threads, int ops, int preloaded)
+            throws InterruptedException {
+        Path folder;
+        String[] nums = new String[preloaded];
+        try {
+            folder = Files.createTempDirectory("members");
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(folder.resolve("Members.csv")))) {
+                for(int i=0; i<preloaded; i++){
+                    nums[i] = Long.toString(1_000_000L + i);
+                    out.println(nums[i] + ",Member " + i + ",1," + (i+1));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        String members = folder.resolve("Members.csv").toString();
+        String journal = folder.resolve("Members.journal").toString();
+        Restaurant restaurant = new Restaurant("res/Menu.csv", members, journal);
+
+        AtomicLong visits = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for(int t=0; t<threads; t++){
+            long seed = t;
+            workers[t] = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                long myVisits=0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for(int i=0; i<ops; i++){
+                    if(restaurant.checkIn(nums[random.nextInt(preloaded)]) != null){
+                        myVisits++;
+                    }
+                }
+                visits.addAndGet(myVisits);
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Thread worker:workers){
+            worker.join();
+        }
+        restaurant.saveMembers();
+        long elapsed = System.nanoTime() - begin;
+
+        long expectedFreq = preloaded + visits.get();
+        long freqSum = freqSum(restaurant.getMembers());
+        long replayedSum = freqSum(new Restaurant("res/Menu.csv", members, journal).getMembers());
+        boolean ok = freqSum==expectedFreq && replayedSum==expectedFreq;
+        results.record("journalCheckIn", threads, (long) threads*ops, elapsed);
+        System.out.println(String.format("%3d threads %,14.0f check-ins/s through the journal  visits %,d  %s",
+                threads, (double) threads*ops/(elapsed/1e9), visits.get(), ok ? "OK" : "FAILED (expected " +
+                        expectedFreq + " visits, found " + freqSum + ", replayed " + replayedSum + ")"));
+
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            // Left for the system to clean up
+        }
+        return ok;
+    }
+
+    private static long freqSum(MemberStore store){
+        long sum=0;
+        for(int row=0; row<store.size(); row++){
+            if(store.num(row)!=0){
+                sum+=store.freq(row);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that reloading the menu does not hold up the diners. Diners run visits back to back for a while, once with
+ * the menu left alone and once while its prices are rewritten every few hundred milliseconds, and the visit
+ * latencies of both runs are compared. It also shows how long a change to Menu.csv takes to reach new sessions.
+ * Arguments: [seconds per run] [concurrent diners]
+ */
+public class MenuReloadBenchmark {
+
+    private static final long CHANGE_EVERY_MILLIS = 300;
+
+    public static void main(String[] args) throws Exception {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        int diners = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        Path folder = Files.createTempDirectory("menu-reload");
+        Path menuFile = folder.resolve("Menu.csv");
+        Files.copy(Path.of("res/Menu.csv"), menuFile);
+        Files.copy(Path.of("res/Pricing.csv"), folder.resolve("Pricing.csv"));
+        List<String> original = Files.readAllLines(menuFile);
+
+        Restaurant restaurant = new Restaurant(menuFile.toString(), "res/Members.csv", null);
+        MenuWatcher watcher = restaurant.watchMenu();
+        LoadGenerator load = new LoadGenerator(restaurant, diners, 0, null, 42);
+        load.run(20_000, 0);
+
+        Bench results = new Bench();
+        LoadGenerator.Report quiet = load.run(0, seconds * 1_000_000_000L);
+        results.record("visitMenuQuiet", diners, quiet.getCompleted(), quiet.getElapsedNanos());
+        System.out.println("menu left alone:   " + quiet.toString().replace("\n", "\n                   "));
+
+        long[] reachedNanos = new long[1];
+        int[] changes = new int[1];
+        Thread editor = new Thread(() -> {
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            try {
+                while(System.nanoTime() < deadline){
+                    Thread.sleep(CHANGE_EVERY_MILLIS);
+                    long version = restaurant.getSnapshot().getVersion();
+                    int round = ++changes[0];
+                    // Every price goes up by a few cents, written to the side and moved over the menu in one step
+                    List<String> lines = original.stream().map(line -> {
+                        int comma = line.lastIndexOf(',');
+                        return line.substring(0, comma+1) +
+                                Money.format(Money.parse(line.substring(comma+1)) + round);
+                    }).collect(Collectors.toList());
+                    Path temp = folder.resolve("Menu.csv.tmp");
+                    Files.write(temp, lines);
+                    long written = System.nanoTime();
+                    Files.move(temp, menuFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    while(restaurant.getSnapshot().getVersion()==version && System.nanoTime() < deadline + 1e9){
+                        Thread.onSpinWait();
+                    }
+                    reachedNanos[0] += System.nanoTime() - written;
+                }
+            } catch (InterruptedException | IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        editor.start();
+        LoadGenerator.Report busy = load.run(0, seconds * 1_000_000_000L);
+        editor.join();
+        results.record("visitMenuReloading", diners, busy.getCompleted(), busy.getElapsedNanos());
+        System.out.println("menu rewritten:    " + busy.toString().replace("\n", "\n                   "));
+        System.out.printf("%d changes, %d reloads, %.1f ms on average from writing the file to new sessions " +
+                        "seeing it, the watcher's quiet period included%n", changes[0], watcher.getReloads(),
+                reachedNanos[0] / 1e6 / Math.max(1, changes[0]));
+
+        watcher.close();
+        for(Path file : new Path[]{menuFile, folder.resolve("Pricing.csv")}){
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(folder);
+        results.writeRequestedJson();
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Compares totalling bills the old way, with boxed Double prices in a HashMap that the discount rewrites in place,
+ * against the Order and Money path, which adds up cents from the menu's primitive price array.
+ *
+ * For each path it prints the time and the bytes allocated per bill.
+ * Arguments: [bills] [rounds]
+ */
+public class MoneyBenchmark {
+
+    private static final double DISCOUNT = 0.85;
+    private static final int DISCOUNT_PERCENT = 85;
+
+    public static void main(String[] args) throws IOException {
+        int bills = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Menu menu = new Restaurant("res/Menu.csv", "res/Members.csv", null).getMenu();
+        Random random = new Random(42);
+
+        // The same bills in both shapes
+        HashMap<String, Double>[] templates = newMaps(bills);
+        HashMap<String, Double>[] boxed = newMaps(bills);
+        Order[] orders = new Order[bills];
+        for(int b=0; b<bills; b++){
+            templates[b] = new HashMap<>();
+            orders[b] = new Order();
+            int lines = 1 + random.nextInt(6);
+            for(int l=0; l<lines; l++){
+                int item = random.nextInt(menu.size());
+                templates[b].put(menu.name(item), menu.price(item)/100.0);
+                orders[b].add(item);
+            }
+            boxed[b] = new HashMap<>(templates[b]);
+        }
+
+        Bench results = new Bench();
+        for(int round=0; round<rounds; round++){
+            Bench last = round == rounds-1 ? results : null;
+            measure("Double HashMap", bills, last, () -> {
+                double sum=0;
+                for(int b=0; b<bills; b++){
+                    HashMap<String, Double> order = boxed[b];
+                    order.putAll(templates[b]);
+                    double grandTotal=0;
+                    for(String food:order.keySet()){
+                        grandTotal+=order.get(food);
+                    }
+                    for(String food:order.keySet()){
+                        Double price = order.get(food);
+                        order.replace(food, price*DISCOUNT);
+                    }
+                    double discountedGrandTotal=0;
+                    for(String food:order.keySet()){
+                        discountedGrandTotal+=order.get(food);
+                    }
+                    sum+=grandTotal+discountedGrandTotal;
+                }
+                return (long) sum;
+            });
+            measure("long cents Order", bills, last, () -> {
+                long sum=0;
+                for(int b=0; b<bills; b++){
+                    sum+=orders[b].total(menu)+orders[b].discountedTotal(menu, DISCOUNT_PERCENT);
+                }
+                return sum/100;
+            });
+        }
+        results.writeRequestedJson();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static HashMap<String, Double>[] newMaps(int size){
+        return (HashMap<String, Double>[]) new HashMap[size];
+    }
+
+    private interface Run {
+        long run();
+    }
+
+    /**
+     * Method which times one run over every bill
+     * @param results: Where the run is kept and printed, or null for a warm-up run
+     */
+    private static void measure(String name, int bills, Bench results, Run run){
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long checksum = run.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        if(results != null){
+            results.record(new Bench.Result(name, bills, bills/(elapsed/1e9), (double) elapsed/bills,
+                    (double) allocated/bills, 0));
+            System.out.println(String.format("%-18s %8.1f ns/bill %,14.0f bills/s %8.1f B/bill (checksum %d)",
+                    name, (double) elapsed/bills, bills/(elapsed/1e9), (double) allocated/bills, checksum));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.io.IOException;
+
+/**
+ * Shows how batching and overlapping round trips to the payment processor change checkout throughput and how long a
+ * card payment waits for its answer, with many diners paying at the same time. The LocalProcessor takes 20
+ * milliseconds to answer each batch, like a processor in another data centre.
+ * Arguments: [seconds per run] [concurrent diners] [round trip milliseconds]
+ */
+public class PaymentBenchmark {
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        int diners = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        double roundTrip = args.length > 2 ? Double.parseDouble(args[2]) : 20;
+
+        Restaurant restaurant = new Restaurant("res/Menu.csv", "res/Members.csv", null);
+        Bench results = new Bench();
+        System.out.printf("%9s %5s %12s %12s %12s %12s %10s%n", "in flight", "batch", "visits/s", "payments/s",
+                "p50 ms", "p99 ms", "per batch");
+        for(int inFlight : new int[]{1, 4}){
+            for(int batch : new int[]{1, 8, 64}){
+                PaymentClient payments = new PaymentClient(new LocalProcessor(roundTrip, 0), batch, inFlight);
+                restaurant.setPayments(payments);
+                LoadGenerator load = new LoadGenerator(restaurant, diners, 0, null, 42);
+                LoadGenerator.Report report = load.run(0, seconds * 1_000_000_000L);
+                payments.close();
+
+                double elapsed = report.getElapsedNanos() / 1e9;
+                LatencyHistogram.Snapshot authorizations = payments.authorizationLatency();
+                results.record("payments" + inFlight + "InFlight" + batch + "Batch", diners, report.getCompleted(),
+                        report.getElapsedNanos());
+                System.out.printf("%9d %5d %12.1f %12.1f %12.1f %12.1f %10.2f%n", inFlight, batch,
+                        report.getCompleted() / elapsed, authorizations.getCount() / elapsed,
+                        authorizations.percentile(50) / 1e6, authorizations.percentile(99) / 1e6,
+                        (double) authorizations.getCount() / payments.getBatches());
+            }
+        }
+        restaurant.setPayments(null);
+        results.writeRequestedJson();
+    }
+}
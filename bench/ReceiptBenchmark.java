@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures how many receipts a ReceiptJournal records per second with many sessions appending at once, first without
+ * waiting for the disk and then with every session waiting for its receipt to be on disk, and how fast the reader
+ * streams them back. The segments are kept small so the run crosses many of them.
+ * Arguments: [threads 64] [receipts per thread 20000] [folder, a temporary one by default]
+ */
+public class ReceiptBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        Path folder = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("receipts");
+
+        Restaurant restaurant = new Restaurant("res/Menu.csv", "res/Members.csv", null);
+        MenuSnapshot snapshot = restaurant.getSnapshot();
+        Order order = Order.obtain();
+        order.add(0, 2);
+        order.add(1);
+        order.add(2);
+        PricingEngine.PriceTable prices = snapshot.getPricing().table(0);
+        long total = snapshot.getPricing().total(order, prices);
+
+        ReceiptJournal journal = new ReceiptJournal(folder.toString(), 4 << 20);
+        Bench results = new Bench();
+        for(boolean sync : new boolean[]{false, true}){
+            int count = sync ? Math.max(1, perThread/10) : perThread;
+            LatencyHistogram latency = new LatencyHistogram();
+            Thread[] workers = new Thread[threads];
+            long start = System.nanoTime();
+            for(int t=0; t<threads; t++){
+                long member = t;
+                workers[t] = new Thread(() -> {
+                    for(int i=0; i<count; i++){
+                        long begin = System.nanoTime();
+                        long position = journal.append(snapshot.getMenu(), prices, order, member, total,
+                                total, false, ReceiptJournal.CASH, total+500);
+                        if(sync){
+                            journal.sync(position);
+                        }
+                        latency.record(System.nanoTime()-begin);
+                    }
+                });
+                workers[t].start();
+            }
+            for(Thread worker:workers){
+                worker.join();
+            }
+            long nanos = System.nanoTime()-start;
+            double seconds = nanos/1e9;
+            results.record(sync ? "receiptAppendSync" : "receiptAppend", threads, (long) threads*count, nanos);
+            LatencyHistogram.Snapshot times = latency.snapshot();
+            System.out.printf("%-18s %,12.0f receipts/s  p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us%n",
+                    sync ? "append and sync" : "append", (double) threads*count/seconds,
+                    times.percentile(50)/1e3, times.percentile(99)/1e3, times.percentile(99.9)/1e3);
+        }
+        journal.close();
+
+        long start = System.nanoTime();
+        long read=0;
+        long change=0;
+        int dishes=0;
+        try (ReceiptJournal.Reader reader = ReceiptJournal.read(folder.toString())) {
+            while(reader.next()){
+                read++;
+                change+=reader.getChange();
+                for(int line=0; line<reader.lines(); line++){
+                    dishes = Math.max(dishes, reader.dish(line)+1);
+                }
+            }
+        }
+        long readNanos = System.nanoTime()-start;
+        double seconds = readNanos/1e9;
+        results.record("receiptRead", threads, read, readNanos);
+        long expected = (long) threads*(perThread + Math.max(1, perThread/10));
+        System.out.printf("read back %,d of %,d receipts in %.1f ms, %,.0f receipts/s, %d dishes, change given $%s%n",
+                read, expected, seconds*1e3, read/seconds, dishes, Money.formatGrouped(change));
+        if(args.length<3){
+            try (Stream<Path> files = Files.walk(folder)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                    try {
+                        Files.delete(file);
+                    } catch (IOException e) {
+                        // Left for the system to clean up
+                    }
+                });
+            }
+        }
+        results.writeRequestedJson();
+    }
+}
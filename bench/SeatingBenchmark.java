@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Measures the Seating allocator with a season of bookings: how long booking a table and asking how many tables are
+ * free take as the season books up, and how long seating a walk-in and freeing their table take. Bookings are made
+ * for lunch and dinner, from 11:00 to 23:00, and the tables are the same mix of sizes as res/Tables.csv.
+ * Arguments: [tables 400] [days 120] [queries 1000000] [seed 42]
+ */
+public class SeatingBenchmark {
+
+    private static final int[] MIX = {2, 2, 2, 2, 2, 2, 2, 2, 4, 4, 4, 4, 4, 4, 4, 4, 4, 4, 4, 4, 6, 6, 6, 6, 6, 6,
+            8, 8, 8, 8};
+    private static final int[] PARTY_SIZES = {1, 2, 2, 2, 2, 3, 3, 4, 4, 4, 5, 6, 6, 8};
+
+    public static void main(String[] args) throws IOException {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        SplittableRandom random = new SplittableRandom(args.length > 3 ? Long.parseLong(args[3]) : 42);
+
+        String[] names = new String[tables];
+        int[] seats = new int[tables];
+        for(int i=0; i<tables; i++){
+            names[i] = "T" + (i+1);
+            seats[i] = MIX[i % MIX.length];
+        }
+        Seating seating = new Seating(names, seats);
+        Bench results = new Bench();
+
+        // Enough tries to book the season up, most of the later ones finding no table
+        LatencyHistogram booking = new LatencyHistogram();
+        long tries = (long) tables*days*12;
+        long booked=0;
+        long start = System.nanoTime();
+        for(long i=0; i<tries; i++){
+            int party = PARTY_SIZES[random.nextInt(PARTY_SIZES.length)];
+            long minute = randomMinute(random, days);
+            int minutes = 60 + 15*random.nextInt(5);
+            long begin = System.nanoTime();
+            int id = seating.book("Party of " + party, party, minute, minutes);
+            booking.record(System.nanoTime()-begin);
+            if(id>=0){
+                booked++;
+            }
+        }
+        report(results, "book", tables, tries, System.nanoTime()-start, booking.snapshot());
+        System.out.printf("%,d bookings for %,d tables over %d days, index and bookings %,d KB%n", booked, tables,
+                days, seating.memoryBytes()/1024);
+
+        LatencyHistogram availability = new LatencyHistogram();
+        long free=0;
+        start = System.nanoTime();
+        for(int i=0; i<queries; i++){
+            int party = PARTY_SIZES[random.nextInt(PARTY_SIZES.length)];
+            long minute = randomMinute(random, days);
+            long begin = System.nanoTime();
+            free+=seating.available(party, minute, 90);
+            availability.record(System.nanoTime()-begin);
+        }
+        report(results, "available", tables, queries, System.nanoTime()-start, availability.snapshot());
+        System.out.printf("%.2f tables free on average%n", (double) free/queries);
+
+        // Walk-ins after the booked season, four a minute, each party leaving once the next few have sat down
+        LatencyHistogram walkIns = new LatencyHistogram();
+        int[] seated = new int[16];
+        int next=0;
+        long turnedAway=0;
+        start = System.nanoTime();
+        for(int i=0; i<queries; i++){
+            int party = PARTY_SIZES[random.nextInt(PARTY_SIZES.length)];
+            long minute = (long) days*24*60 + i/4;
+            long begin = System.nanoTime();
+            int id = seating.walkIn(party, minute, 90);
+            if(seated[next]>0){
+                seating.leave(seated[next]-1, minute);
+            }
+            walkIns.record(System.nanoTime()-begin);
+            seated[next] = id+1;
+            next = (next+1) % seated.length;
+            if(id<0){
+                turnedAway++;
+            }
+        }
+        report(results, "walkInAndLeave", tables, queries, System.nanoTime()-start, walkIns.snapshot());
+        System.out.printf("%,d walk-ins found no table%n", turnedAway);
+        results.writeRequestedJson();
+    }
+
+    private static long randomMinute(SplittableRandom random, int days){
+        return (long) random.nextInt(days)*24*60 + 11*60 +
+                Seating.SLOT_MINUTES*random.nextInt(12*60/Seating.SLOT_MINUTES);
+    }
+
+    private static void report(Bench results, String name, int tables, long count, long nanos,
+                               LatencyHistogram.Snapshot times){
+        results.record(name, tables, count, nanos);
+        System.out.printf("%-18s %,12.0f ops/s  p50 %8.2f us  p99 %8.2f us  p99.9 %8.2f us%n", name,
+                count/(nanos/1e9), times.percentile(50)/1e3, times.percentile(99)/1e3, times.percentile(99.9)/1e3);
+    }
+}
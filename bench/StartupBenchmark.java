@@ -0,0 +1,91 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures how long the restaurant takes to start from the .csv files and from the binary snapshot, for members lists
+ * of a few sizes. Each start is repeated and the fastest is reported, so the file is in the page cache for both.
+ * Arguments: [repeats] [members...]
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int repeats = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int[] sizes = {100_000, 1_000_000};
+        if(args.length > 1){
+            sizes = new int[args.length-1];
+            for(int i=1; i<args.length; i++){
+                sizes[i-1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Bench results = new Bench();
+        for(int members:sizes){
+            Path folder = Files.createTempDirectory("startup");
+            Path menuFile = folder.resolve("Menu.csv");
+            Path membersFile = folder.resolve("Members.csv");
+            Path snapshotFile = folder.resolve("Restaurant.snap");
+            Files.copy(Path.of("res/Menu.csv"), menuFile);
+            Files.copy(Path.of("res/Pricing.csv"), folder.resolve("Pricing.csv"));
+            LoaderBenchmark.writeMembers(membersFile, members);
+
+            long csv = Long.MAX_VALUE;
+            Restaurant fromCsv = null;
+            for(int i=0; i<repeats; i++){
+                fromCsv = null;
+                System.gc();
+                long start = System.nanoTime();
+                fromCsv = new Restaurant(menuFile.toString(), membersFile.toString(), null);
+                csv = Math.min(csv, System.nanoTime()-start);
+            }
+
+            System.gc();
+            long start = System.nanoTime();
+            new Restaurant(menuFile.toString(), membersFile.toString(), null, snapshotFile.toString());
+            long firstStart = System.nanoTime()-start;
+
+            long binary = Long.MAX_VALUE;
+            Restaurant fromSnapshot = null;
+            for(int i=0; i<repeats; i++){
+                fromSnapshot = null;
+                System.gc();
+                start = System.nanoTime();
+                fromSnapshot = new Restaurant(menuFile.toString(), membersFile.toString(), null,
+                        snapshotFile.toString());
+                binary = Math.min(binary, System.nanoTime()-start);
+            }
+            check(fromCsv.getMembers(), fromSnapshot.getMembers());
+            // One operation is one start, the fastest of the repeats
+            results.record("startFromCsv", members, 1, csv);
+            results.record("startFromSnapshot", members, 1, binary);
+
+            System.out.printf("%,d members, Members.csv %,d bytes, snapshot %,d bytes%n", members,
+                    Files.size(membersFile), Files.size(snapshotFile));
+            System.out.printf("  from .csv files:          %8.1f ms%n", csv/1e6);
+            System.out.printf("  from .csv, writing snap:  %8.1f ms%n", firstStart/1e6);
+            System.out.printf("  from snapshot:            %8.1f ms  (%.1fx faster)%n", binary/1e6,
+                    (double) csv/binary);
+
+            for(Path file:new Path[]{menuFile, membersFile, snapshotFile, folder.resolve("Pricing.csv"), folder}){
+                Files.deleteIfExists(file);
+            }
+        }
+        results.writeRequestedJson();
+    }
+
+    /**
+     * Makes sure both starts ended up with the same members
+     */
+    private static void check(MemberStore expected, MemberStore actual){
+        if(expected.size()!=actual.size()){
+            throw new AssertionError("Expected " + expected.size() + " members but found " + actual.size());
+        }
+        for(int row=0; row<expected.size(); row++){
+            long num = expected.num(row);
+            int found = actual.find(num);
+            if(found<0 || !expected.name(row).equals(actual.name(found)) || expected.freq(row)!=actual.freq(found) ||
+                    expected.phone(row)!=actual.phone(found)){
+                throw new AssertionError("Member " + num + " differs after loading the snapshot");
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * The menu and the membership list saved in binary, so the restaurant can start without parsing Menu.csv and
+ * Members.csv again. The file holds the MemberStore's columns, name pages and key table exactly as they are in
+ * memory, so loading it is a few bulk copies out of a memory-mapped file instead of one parse and one insert per
+ * member.
+ *
+ * Layout, little-endian: a 64 byte header (magic, version, the length and modification time of both .csv files the
+ * snapshot was made from, the CRC32C of Members.csv, the CRC32C and length of the body) and then the body: the menu
+ * (dish count, prices, name lengths, names) followed by the membership columns. A snapshot whose .csv files have
+ * changed since it was made is stale and not used.
+ *
+ * Run the main method to make a snapshot from the .csv files.
+ * Arguments: [menu file] [members file] [snapshot file]
+ */
+public final class BinarySnapshot {
+
+    private static final int MAGIC = 0x504E5352;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    // Largest part of the file mapped at once, and largest block copied in one go
+    private static final long WINDOW = 1L << 28;
+    private static final int BLOCK = 1 << 23;
+
+    private BinarySnapshot(){
+    }
+
+    /**
+     * Method which saves the menu and members, the members may not change while this runs
+     * @param file: The snapshot file, replaced in one step once it is completely written
+     * @param menuFile: The .csv file the menu was loaded from
+     * @param membersFile: The .csv file the members were loaded from
+     * @param membersCrc: The CRC32C of the members file, kept so the journal does not have to read the file again
+     */
+    public static void write(Path file, Path menuFile, Path membersFile, int membersCrc, Menu menu,
+                             MemberStore members) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Sink out = new Sink(channel, HEADER_SIZE);
+            out.putInt(menu.size());
+            long[] prices = new long[menu.size()];
+            int[] nameLengths = new int[menu.size()];
+            byte[][] names = new byte[menu.size()][];
+            for(int item=0; item<menu.size(); item++){
+                prices[item] = menu.price(item);
+                names[item] = menu.name(item).getBytes(StandardCharsets.UTF_8);
+                nameLengths[item] = names[item].length;
+            }
+            out.putLongs(prices, prices.length);
+            out.putInts(nameLengths, nameLengths.length);
+            for(byte[] name:names){
+                out.putBytes(name, name.length);
+            }
+            members.writeColumns(out);
+            long bodyLength = out.finish();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION);
+            header.putLong(Files.size(menuFile)).putLong(Files.getLastModifiedTime(menuFile).toMillis());
+            header.putLong(Files.size(membersFile)).putLong(Files.getLastModifiedTime(membersFile).toMillis());
+            header.putInt(membersCrc).putInt(out.checksum()).putLong(bodyLength);
+            header.clear();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Method which loads a snapshot, unless it is missing or older than the .csv files
+     * @return the menu and members, or null if the .csv files have to be loaded instead
+     * @throws IOException if the snapshot is damaged
+     */
+    public static Loaded read(Path file, Path menuFile, Path membersFile) throws IOException {
+        if(!Files.exists(file) || !Files.exists(menuFile) || !Files.exists(membersFile)){
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size()<HEADER_SIZE){
+                throw new IOException(file + " is cut short");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if(header.getInt()!=MAGIC){
+                throw new IOException(file + " is not a snapshot");
+            }
+            // A snapshot made by another version is as good as stale, it is written again from the .csv files
+            if(header.getInt()!=VERSION ||
+                    header.getLong()!=Files.size(menuFile) ||
+                    header.getLong()!=Files.getLastModifiedTime(menuFile).toMillis() ||
+                    header.getLong()!=Files.size(membersFile) ||
+                    header.getLong()!=Files.getLastModifiedTime(membersFile).toMillis()){
+                return null;
+            }
+            int membersCrc = header.getInt();
+            int checksum = header.getInt();
+            long bodyLength = header.getLong();
+            if(bodyLength != channel.size()-HEADER_SIZE){
+                throw new IOException(file + " is cut short");
+            }
+
+            CRC32C crc = new CRC32C();
+            for(long position=HEADER_SIZE; position<channel.size(); position+=WINDOW){
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(WINDOW, channel.size()-position)));
+            }
+            if((int) crc.getValue()!=checksum){
+                throw new IOException(file + " does not match its checksum");
+            }
+
+            Source in = new Source(channel, HEADER_SIZE);
+            int dishes = in.getInt();
+            if(dishes<0 || dishes>bodyLength/12){
+                throw new IOException("Invalid menu in " + file);
+            }
+            long[] prices = new long[dishes];
+            int[] nameLengths = new int[dishes];
+            in.getLongs(prices, dishes);
+            in.getInts(nameLengths, dishes);
+            String[] names = new String[dishes];
+            for(int item=0; item<dishes; item++){
+                byte[] name = new byte[nameLengths[item]];
+                in.getBytes(name, name.length);
+                names[item] = new String(name, StandardCharsets.UTF_8);
+            }
+            Menu menu = new Menu(names, prices);
+            MemberStore members = MemberStore.readColumns(in);
+            return new Loaded(menu, members, membersCrc);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException(file + " is damaged", e);
+        }
+    }
+
+    /**
+     * Makes a snapshot from the .csv files
+     */
+    public static void main(String[] args) throws IOException {
+        Path menuFile = Path.of(args.length > 0 ? args[0] : "res/Menu.csv");
+        Path membersFile = Path.of(args.length > 1 ? args[1] : "res/Members.csv");
+        Path file = Path.of(args.length > 2 ? args[2] : "res/Restaurant.snap");
+
+        long start = System.nanoTime();
+        Restaurant restaurant = new Restaurant(menuFile.toString(), membersFile.toString(), null);
+        write(file, menuFile, membersFile, MemberJournal.checksum(membersFile), restaurant.getMenu(),
+                restaurant.getMembers());
+        System.out.printf("Wrote %s (%,d bytes, %,d members) in %.1f ms%n", file, Files.size(file),
+                restaurant.getMembers().size(), (System.nanoTime()-start)/1e6);
+    }
+
+    /**
+     * What a snapshot holds
+     */
+    public static final class Loaded {
+        private final Menu menu;
+        private final MemberStore members;
+        private final int membersCrc;
+
+        private Loaded(Menu menu, MemberStore members, int membersCrc){
+            this.menu=menu;
+            this.members=members;
+            this.membersCrc=membersCrc;
+        }
+
+        public Menu getMenu() {
+            return menu;
+        }
+
+        public MemberStore getMembers() {
+            return members;
+        }
+
+        public int getMembersCrc() {
+            return membersCrc;
+        }
+    }
+
+    /**
+     * Writes primitive arrays to the file through one buffer, adding up the checksum on the way
+     */
+    static final class Sink {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C crc = new CRC32C();
+        private long position;
+        private long written=0;
+
+        private Sink(FileChannel channel, long position){
+            this.channel=channel;
+            this.position=position;
+        }
+
+        void putInt(int value) throws IOException {
+            room(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            room(8);
+            buffer.putLong(value);
+        }
+
+        void putLongs(long[] values, int length) throws IOException {
+            for(int i=0; i<length; ){
+                room(8);
+                int count = Math.min(length-i, buffer.remaining()/8);
+                buffer.asLongBuffer().put(values, i, count);
+                buffer.position(buffer.position() + count*8);
+                i+=count;
+            }
+        }
+
+        void putInts(int[] values, int length) throws IOException {
+            for(int i=0; i<length; ){
+                room(4);
+                int count = Math.min(length-i, buffer.remaining()/4);
+                buffer.asIntBuffer().put(values, i, count);
+                buffer.position(buffer.position() + count*4);
+                i+=count;
+            }
+        }
+
+        void putBytes(byte[] values, int length) throws IOException {
+            for(int i=0; i<length; ){
+                room(1);
+                int count = Math.min(length-i, buffer.remaining());
+                buffer.put(values, i, count);
+                i+=count;
+            }
+        }
+
+        private void room(int bytes) throws IOException {
+            if(buffer.remaining()<bytes){
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while(buffer.hasRemaining()){
+                int count = channel.write(buffer, position);
+                position+=count;
+                written+=count;
+            }
+            buffer.clear();
+        }
+
+        /**
+         * @return how many bytes were written
+         */
+        private long finish() throws IOException {
+            flush();
+            return written;
+        }
+
+        private int checksum(){
+            return (int) crc.getValue();
+        }
+    }
+
+    /**
+     * Reads primitive arrays out of the file, mapping it a large window at a time
+     */
+    static final class Source {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private ByteBuffer window;
+        private long windowStart;
+
+        private Source(FileChannel channel, long position) throws IOException {
+            this.channel=channel;
+            this.end=channel.size();
+            this.position=position;
+        }
+
+        int getInt() throws IOException {
+            return take(4).getInt();
+        }
+
+        long getLong() throws IOException {
+            return take(8).getLong();
+        }
+
+        void getLongs(long[] values, int length) throws IOException {
+            for(int i=0; i<length; ){
+                int count = Math.min(length-i, BLOCK/8);
+                take(count*8).asLongBuffer().get(values, i, count);
+                i+=count;
+            }
+        }
+
+        void getInts(int[] values, int length) throws IOException {
+            for(int i=0; i<length; ){
+                int count = Math.min(length-i, BLOCK/4);
+                take(count*4).asIntBuffer().get(values, i, count);
+                i+=count;
+            }
+        }
+
+        void getBytes(byte[] values, int length) throws IOException {
+            for(int i=0; i<length; ){
+                int count = Math.min(length-i, BLOCK);
+                take(count).get(values, i, count);
+                i+=count;
+            }
+        }
+
+        /**
+         * Method which gives the next bytes of the file, mapping a new window when they are not in the current one
+         */
+        private ByteBuffer take(int length) throws IOException {
+            if(position+length>end){
+                throw new IOException("Snapshot is cut short");
+            }
+            if(window==null || position+length > windowStart+window.capacity()){
+                windowStart=position;
+                window=channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, end-position));
+            }
+            ByteBuffer slice = window.slice((int) (position-windowStart), length).order(ByteOrder.LITTLE_ENDIAN);
+            position+=length;
+            return slice;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.time.YearMonth;
+
+/**
+ * The checks a card machine makes on the details typed in, before anything is sent to the payment processor: the
+ * card number's Luhn check digit, and whether the expiry month has passed.
+ */
+public final class CardCheck {
+
+    private CardCheck(){
+    }
+
+    /**
+     * Method which checks that a text is made of exactly the given number of digits
+     */
+    public static boolean isDigits(String text, int length){
+        if(text.length()!=length){
+            return false;
+        }
+        for(int i=0; i<length; i++){
+            char c = text.charAt(i);
+            if(c<'0' || c>'9'){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method which checks the Luhn check digit of a card number made of digits only: counting from the right, every
+     * second digit is doubled (less 9 when over 9) and the sum of all the digits must be a multiple of 10
+     */
+    public static boolean luhn(String cardNum){
+        int sum=0;
+        boolean doubled=false;
+        for(int i=cardNum.length()-1; i>=0; i--){
+            int digit = cardNum.charAt(i)-'0';
+            if(doubled){
+                digit*=2;
+                if(digit>9){
+                    digit-=9;
+                }
+            }
+            sum+=digit;
+            doubled=!doubled;
+        }
+        return sum%10==0;
+    }
+
+    /**
+     * Method which reads an expiry typed as month and year, eg. 1221 for December 2021
+     * @return the month the card expires at the end of, or null if the text is not a valid month and year
+     */
+    public static YearMonth expiry(String text){
+        if(!isDigits(text, 4)){
+            return null;
+        }
+        int month = (text.charAt(0)-'0')*10 + text.charAt(1)-'0';
+        int year = (text.charAt(2)-'0')*10 + text.charAt(3)-'0';
+        if(month<1 || month>12){
+            return null;
+        }
+        return YearMonth.of(2000+year, month);
+    }
+
+    /**
+     * Method which checks whether a card can still be used, cards being valid until the end of their expiry month
+     * @param now: The current month, from the real clock when paying
+     */
+    public static boolean isExpired(YearMonth expiry, YearMonth now){
+        return expiry.isBefore(now);
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Lets any number of threads make changes at once, and one thread shut them out for a while and wait until the ones
+ * already inside are done, as a read-write lock would. A read-write lock keeps its readers in one shared counter,
+ * so every session checking in would fight over the same cache line. Here each thread counts itself in a stripe of
+ * its own, chosen by its id, and only the rare thread closing the gate looks at all of them.
+ */
+public class ChangeGate {
+
+    private static final int STRIPES = 64;
+    // Stripes are this many ints apart, so that no two share a cache line
+    private static final int SPACING = 16;
+
+    private final AtomicIntegerArray inside = new AtomicIntegerArray(STRIPES*SPACING);
+    private volatile boolean closed=false;
+
+    /**
+     * Method which lets the thread in, waiting while the gate is closed
+     * @return the stripe to give back to leave
+     */
+    public int enter(){
+        int stripe = ((int) Thread.currentThread().getId() & (STRIPES-1)) * SPACING;
+        while(true){
+            inside.incrementAndGet(stripe);
+            // The count goes up before closed is read, so a thread closing the gate either sees it or is seen
+            if(!closed){
+                return stripe;
+            }
+            inside.decrementAndGet(stripe);
+            awaitOpen();
+        }
+    }
+
+    public void leave(int stripe){
+        inside.decrementAndGet(stripe);
+    }
+
+    /**
+     * Method which shuts new threads out and waits until every thread inside has left. Only one thread may hold the
+     * gate closed at a time.
+     */
+    public void close(){
+        closed=true;
+        for(int stripe=0; stripe<STRIPES*SPACING; stripe+=SPACING){
+            while(inside.get(stripe)!=0){
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Method which lets the threads waiting at the gate in
+     */
+    public synchronized void open(){
+        closed=false;
+        notifyAll();
+    }
+
+    private synchronized void awaitOpen(){
+        boolean interrupted=false;
+        while(closed){
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted=true;
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
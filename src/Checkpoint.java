@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A file holding the latest image of a long run's state, so that a restarted process can carry on from it.
+ *
+ * The owner encodes an image between two steps of its run and hands it over, and a background thread writes it while
+ * the run carries on. An image handed over while the previous one is still being written replaces any image waiting,
+ * as only the latest one is worth having. Every image is written to a temporary file through a memory map, forced to
+ * disk and then moved over the checkpoint, so a crash leaves either the old image or the new one whole.
+ *
+ * File layout: int magic, int version, int image length, int CRC32C of the image, then the image.
+ */
+public class Checkpoint implements AutoCloseable {
+
+    private static final int MAGIC = 0x434B5054;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final Path path;
+    private final Path temp;
+    private final Thread writer;
+    private byte[] pending;
+    private boolean closed=false;
+    private IOException failure;
+
+    private long written=0;
+    private long skipped=0;
+    private long lastBytes=0;
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    /**
+     * Constructor for this class, the writer starts straight away
+     * @param file: The checkpoint's file, replaced with every image written
+     */
+    public Checkpoint(String file){
+        this.path = Path.of(file);
+        this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+        this.writer = new Thread(this::writeLoop, "checkpoint-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Method which hands an image over to be written
+     * @param image: The encoded state, which must not be changed afterwards
+     * @throws UncheckedIOException if writing an earlier image failed
+     */
+    public synchronized void offer(byte[] image){
+        if(failure != null){
+            throw new UncheckedIOException("Could not write checkpoint " + path, failure);
+        }
+        if(closed){
+            throw new IllegalStateException("Checkpoint is closed");
+        }
+        if(pending != null){
+            skipped++;
+        }
+        pending=image;
+        notifyAll();
+    }
+
+    /**
+     * Method which reads the image of a checkpoint file
+     * @return the image, or null if there is no checkpoint yet
+     * @throws IllegalStateException if the file is not a whole checkpoint
+     */
+    public static ByteBuffer read(String file){
+        try (FileChannel channel = FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(map.limit()<HEADER_SIZE || map.getInt(0)!=MAGIC || map.getInt(4)!=VERSION){
+                throw new IllegalStateException(file + " is not a checkpoint");
+            }
+            int length = map.getInt(8);
+            if(length<0 || length>map.limit()-HEADER_SIZE){
+                throw new IllegalStateException(file + " is cut short");
+            }
+            ByteBuffer image = map.slice(HEADER_SIZE, length);
+            CRC32C crc = new CRC32C();
+            crc.update(image.duplicate());
+            if((int) crc.getValue()!=map.getInt(12)){
+                throw new IllegalStateException(file + " is damaged");
+            }
+            return image;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Method which the writer runs until the checkpoint is closed and nothing is left to write
+     */
+    private void writeLoop(){
+        while(true) {
+            byte[] image;
+            synchronized (this) {
+                while(pending == null && !closed){
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if(pending == null){
+                    return;
+                }
+                image=pending;
+                pending=null;
+            }
+            long start = System.nanoTime();
+            try {
+                write(image);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure=e;
+                    notifyAll();
+                }
+                return;
+            }
+            writeLatency.record(System.nanoTime()-start);
+            synchronized (this) {
+                written++;
+                lastBytes = HEADER_SIZE + image.length;
+                notifyAll();
+            }
+        }
+    }
+
+    private void write(byte[] image) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(image);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + image.length);
+            map.putInt(MAGIC).putInt(VERSION).putInt(image.length).putInt((int) crc.getValue()).put(image);
+            map.force();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Method which writes the image waiting, if any, and stops the writer
+     */
+    @Override
+    public void close(){
+        synchronized (this) {
+            closed=true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(failure != null){
+            throw new UncheckedIOException("Could not write checkpoint " + path, failure);
+        }
+    }
+
+    /**
+     * Method which writes a string as its length in UTF-8 and its bytes, or -1 for null
+     */
+    static void putString(ByteBuffer out, String text){
+        if(text == null){
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer in){
+        int length = in.getInt();
+        if(length<0){
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return how many images were replaced by a newer one before they could be written
+     */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    public synchronized long getLastBytes() {
+        return lastBytes;
+    }
+
+    public LatencyHistogram.Snapshot writeLatency(){
+        return writeLatency.snapshot();
+    }
+}
@@ -0,0 +1,411 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the restaurant over TCP, one dining session per connection, so any number of customers can play at once with
+ * telnet or netcat (nc localhost 7070). Every session orders, pays and joins the membership against the same menu
+ * and members as the console.
+ *
+ * All the sockets are handled by one thread with a Selector. It accepts connections, splits what customers type into
+ * lines and writes the waiter's answers whenever a socket can take them, so a slow or silent customer never holds up
+ * anyone else. A Session is written as a conversation which waits for each line, so every session runs on a thread
+ * of its own with a small stack, parked while its customer is thinking. What a session prints is gathered until it
+ * waits for the next line and then written in one piece by the session itself; only output which a full socket could
+ * not take is left for the selector.
+ *
+ * Run from the project folder.
+ * Arguments: [port 7070]
+ */
+public class ConsoleServer implements Closeable {
+
+    // Longest line a customer may type, and how many typed lines may wait before reading stops
+    private static final int MAX_LINE = 4096;
+    private static final int MAX_QUEUED_LINES = 64;
+    // How much unsent output a session may have before it waits for the customer to read it
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+    private static final long SESSION_STACK_BYTES = 256 * 1024;
+
+    private final Restaurant restaurant;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+    // Connections whose sessions have new output or have taken lines, for the selector to look at
+    private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private volatile boolean running=true;
+
+    /**
+     * Constructor for this class, which starts accepting customers straight away
+     * @param restaurant: The restaurant every session is served by
+     * @param port: The port to listen on, only on this machine, or 0 for any free port
+     */
+    public ConsoleServer(Restaurant restaurant, int port) throws IOException {
+        this.restaurant=restaurant;
+        this.selector=Selector.open();
+        this.server=ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::loop, "console-server");
+        thread.start();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        Restaurant restaurant = new Restaurant();
+        restaurant.indexMembers();
+        restaurant.setReceipts(new ReceiptJournal("res/receipts"));
+        restaurant.setSeating(Seating.load("res/Tables.csv"));
+        restaurant.getMetrics().publish("server");
+        restaurant.watchMenu();
+        ConsoleServer server = new ConsoleServer(restaurant, port);
+        System.out.println("Serving the restaurant on " + server.getAddress() + ", connect with nc or telnet");
+        server.thread.join();
+    }
+
+    /**
+     * Body of the selector thread
+     */
+    private void loop(){
+        try {
+            while(running){
+                selector.select();
+                Connection connection;
+                while((connection = changed.poll()) != null){
+                    connection.update();
+                }
+                for(SelectionKey key:selector.selectedKeys()){
+                    if(!key.isValid()){
+                        continue;
+                    }
+                    if(key.isAcceptable()){
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    if(key.isReadable()){
+                        connection.read();
+                    }
+                    if(key.isValid() && key.isWritable()){
+                        connection.update();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClosedSelectorException e) {
+            // Closed while selecting
+        } finally {
+            for(SelectionKey key:selector.keys()){
+                if(key.attachment() instanceof Connection){
+                    ((Connection) key.attachment()).hangUp();
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while((channel = server.accept()) != null){
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.incrementAndGet();
+            Thread session = new Thread(null, connection::serve, "diner-" + channel.socket().getPort(),
+                    SESSION_STACK_BYTES);
+            session.setDaemon(true);
+            session.start();
+        }
+    }
+
+    /**
+     * @return the address the server listens on
+     */
+    public InetSocketAddress getAddress(){
+        try {
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return how many customers are connected
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return how many sessions ran until the bill was paid
+     */
+    public long getServed() {
+        return served.get();
+    }
+
+    /**
+     * @return how many customers left before their bill was paid
+     */
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    /**
+     * Method which stops accepting customers and hangs up on those still connected
+     */
+    @Override
+    public void close() throws IOException {
+        running=false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.close();
+        selector.close();
+    }
+
+    /**
+     * One customer's connection. The selector thread fills in the lines and sends the output, the session's thread
+     * takes the lines and adds the output; both sides share the connection's monitor.
+     */
+    private class Connection extends OutputStream implements InputSource {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+        private byte[] line = new byte[128];
+        private int lineLength=0;
+        private ByteBuffer pending = ByteBuffer.allocate(4096);
+        // The customer sent end of file, the session is over, the socket is closed
+        private boolean ended=false;
+        private boolean finished=false;
+        private boolean closed=false;
+
+        private Connection(SocketChannel channel){
+            this.channel=channel;
+        }
+
+        /**
+         * Body of the session's thread
+         */
+        private void serve(){
+            PrintStream out = new PrintStream(this, false, StandardCharsets.UTF_8);
+            try {
+                Session session = new Session(restaurant, this, out);
+                session.run();
+                restaurant.saveMembers();
+                restaurant.saveReceipt(session);
+                out.println("WAITER: Thank you for eating at this restaurant! Hope you will come by again!");
+                served.incrementAndGet();
+            } catch (NoSuchElementException e) {
+                // The customer left in the middle of the visit
+                abandoned.incrementAndGet();
+            } catch (RuntimeException e) {
+                abandoned.incrementAndGet();
+                System.err.println("WARNING: a session failed, " + e);
+            } finally {
+                out.flush();
+                synchronized (this) {
+                    finished=true;
+                }
+                changed();
+            }
+        }
+
+        @Override
+        public String nextLine() {
+            flush();
+            synchronized (this) {
+                while(lines.isEmpty() && !ended && !closed){
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new NoSuchElementException("Interrupted while waiting for the customer");
+                    }
+                }
+                if(lines.isEmpty()){
+                    throw new NoSuchElementException("The customer has left");
+                }
+                if(lines.size()==MAX_QUEUED_LINES){
+                    // Reading was stopped, there is room again
+                    changed();
+                }
+                return lines.poll();
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            // A customer who does not read makes their own session wait, nobody else's
+            while(pending.position() > MAX_PENDING_OUTPUT && !closed){
+                changed();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if(closed){
+                return;
+            }
+            if(pending.remaining()<length){
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity()*2, pending.position()+length));
+                pending.flip();
+                grown.put(pending);
+                pending=grown;
+            }
+            pending.put(bytes, offset, length);
+        }
+
+        /**
+         * Method which sends the output so far. The socket can nearly always take it straight away, and only what it
+         * could not take is left for the selector to send later.
+         */
+        @Override
+        public void flush() {
+            synchronized (this) {
+                write();
+                if(pending.position()==0 || closed){
+                    return;
+                }
+            }
+            changed();
+        }
+
+        private void changed(){
+            changed.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Method which reads what the customer typed, on the selector thread
+         */
+        private void read(){
+            readBuffer.clear();
+            int count;
+            try {
+                count = channel.read(readBuffer);
+            } catch (IOException e) {
+                hangUp();
+                return;
+            }
+            synchronized (this) {
+                if(count<0){
+                    ended=true;
+                    notifyAll();
+                } else {
+                    readBuffer.flip();
+                    while(readBuffer.hasRemaining()){
+                        byte b = readBuffer.get();
+                        if(b=='\n'){
+                            int length = lineLength>0 && line[lineLength-1]=='\r' ? lineLength-1 : lineLength;
+                            lines.add(new String(line, 0, length, StandardCharsets.UTF_8));
+                            lineLength=0;
+                        } else if(lineLength==MAX_LINE){
+                            ended=true;
+                            break;
+                        } else {
+                            if(lineLength==line.length){
+                                line = Arrays.copyOf(line, line.length*2);
+                            }
+                            line[lineLength++]=b;
+                        }
+                    }
+                    notifyAll();
+                }
+                update();
+            }
+        }
+
+        /**
+         * Method which sends as much of the output as the socket takes
+         */
+        private synchronized void write(){
+            if(pending.position()==0){
+                return;
+            }
+            pending.flip();
+            try {
+                channel.write(pending);
+            } catch (IOException e) {
+                pending.clear();
+                hangUp();
+                return;
+            }
+            pending.compact();
+            notifyAll();
+        }
+
+        /**
+         * Method which sends what it can and works out what the selector should wait for on this connection, on the
+         * selector thread. The socket can nearly always take the output straight away, so it is only waited for when
+         * it could not.
+         */
+        private synchronized void update(){
+            write();
+            if(closed){
+                return;
+            }
+            boolean unsent = pending.position()>0;
+            if(finished && !unsent){
+                hangUp();
+                return;
+            }
+            int ops = 0;
+            if(!ended && lines.size()<MAX_QUEUED_LINES){
+                ops |= SelectionKey.OP_READ;
+            }
+            if(unsent){
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        private synchronized void hangUp(){
+            if(closed){
+                return;
+            }
+            closed=true;
+            notifyAll();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing more can be sent to this customer anyway
+            }
+            connections.decrementAndGet();
+        }
+    }
+}
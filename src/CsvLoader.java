@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Loader for the restaurant's .csv files which memory-maps the file, splits it into chunks at line boundaries and
+ * parses the chunks in parallel on the fork-join pool.
+ *
+ * Fields are decoded straight from the mapped bytes through a reusable CsvRow, so no line or field Strings are made
+ * unless a handler asks for one. Rows which cannot be parsed are reported with their line number and skipped.
+ */
+public final class CsvLoader {
+
+    // Smallest chunk worth handing to another thread
+    private static final long MIN_CHUNK = 1 << 20;
+
+    private CsvLoader(){
+    }
+
+    /**
+     * Receives the rows of one chunk. Every chunk gets its own handler, so a handler needs no locking.
+     */
+    public interface RowHandler {
+
+        /**
+         * Method which takes in one row
+         * @param row: The row, only valid until this method returns
+         * @throws RuntimeException if the row is bad, it is then reported and skipped
+         */
+        void row(CsvRow row);
+    }
+
+    /**
+     * Method which loads a file with one handler per chunk
+     * @param filename: The .csv file to load
+     * @param handlers: Makes a new handler for each chunk
+     * @return the handlers in the order of their chunks in the file, with the bad rows found
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    public static <H extends RowHandler> Result<H> load(String filename, Supplier<H> handlers){
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            List<long[]> bounds = split(channel);
+            List<Callable<Chunk<H>>> tasks = new ArrayList<>();
+            for(long[] bound:bounds){
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, bound[0], bound[1]-bound[0]);
+                tasks.add(() -> parse(buffer, handlers.get()));
+            }
+
+            List<Chunk<H>> chunks = new ArrayList<>();
+            if(tasks.size()==1){
+                chunks.add(tasks.get(0).call());
+            } else {
+                for(Future<Chunk<H>> future:ForkJoinPool.commonPool().invokeAll(tasks)){
+                    chunks.add(future.get());
+                }
+            }
+            return new Result<>(chunks);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            // The caller is told it was interrupted as well as that the file did not load
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading " + filename, e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not load " + filename, e);
+        }
+    }
+
+    /**
+     * Method which cuts the file into chunks which each start at the beginning of a line
+     * @return the start and end offset of every chunk
+     */
+    private static List<long[]> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        long target = Math.max(MIN_CHUNK, size / (parallelism*4L) + 1);
+        // A mapping can be at most 2GB
+        target = Math.min(target, Integer.MAX_VALUE/2);
+
+        List<long[]> bounds = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start=0;
+        while(start<size){
+            long end = Math.min(size, start+target);
+            // Move the end just past the next line break
+            while(end<size){
+                probe.clear();
+                int read = channel.read(probe, end);
+                int newline=-1;
+                for(int i=0; i<read; i++){
+                    if(probe.get(i)=='\n'){
+                        newline=i;
+                        break;
+                    }
+                }
+                if(newline>=0){
+                    end+=newline+1;
+                    break;
+                }
+                end+=Math.max(read, 0);
+                if(read<=0){
+                    end=size;
+                }
+            }
+            bounds.add(new long[]{start, end});
+            start=end;
+        }
+        return bounds;
+    }
+
+    private static <H extends RowHandler> Chunk<H> parse(ByteBuffer buffer, H handler){
+        Chunk<H> chunk = new Chunk<>(handler);
+        CsvRow row = new CsvRow(buffer);
+        int limit = buffer.limit();
+        int lineStart=0;
+        while(lineStart<limit){
+            int lineEnd=lineStart;
+            while(lineEnd<limit && buffer.get(lineEnd)!='\n'){
+                lineEnd++;
+            }
+            chunk.lines++;
+            int contentEnd=lineEnd;
+            if(contentEnd>lineStart && buffer.get(contentEnd-1)=='\r'){
+                contentEnd--;
+            }
+            if(contentEnd>lineStart){
+                try {
+                    row.reset(lineStart, contentEnd);
+                    handler.row(row);
+                    chunk.rows++;
+                } catch (RuntimeException e) {
+                    chunk.addError(chunk.lines, e.getMessage() == null ? e.toString() : e.getMessage());
+                }
+            }
+            lineStart=lineEnd+1;
+        }
+        return chunk;
+    }
+
+    /**
+     * The rows and bad rows of one chunk, with line numbers counted from the start of the chunk
+     */
+    private static class Chunk<H> {
+        private final H handler;
+        private long lines=0;
+        private long rows=0;
+        private List<Long> errorLines;
+        private List<String> errorReasons;
+
+        private Chunk(H handler){
+            this.handler=handler;
+        }
+
+        private void addError(long line, String reason){
+            if(errorLines==null){
+                errorLines=new ArrayList<>();
+                errorReasons=new ArrayList<>();
+            }
+            errorLines.add(line);
+            errorReasons.add(reason);
+        }
+    }
+
+    /**
+     * What came out of loading a file
+     */
+    public static class Result<H> {
+        private final List<H> handlers = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+        private long rows=0;
+
+        private Result(List<Chunk<H>> chunks){
+            long linesBefore=0;
+            for(Chunk<H> chunk:chunks){
+                handlers.add(chunk.handler);
+                rows+=chunk.rows;
+                if(chunk.errorLines!=null){
+                    for(int i=0; i<chunk.errorLines.size(); i++){
+                        errors.add("line " + (linesBefore + chunk.errorLines.get(i)) + ": " + chunk.errorReasons.get(i));
+                    }
+                }
+                linesBefore+=chunk.lines;
+            }
+        }
+
+        /**
+         * @return the handlers in the order of their chunks in the file
+         */
+        public List<H> getHandlers() {
+            return handlers;
+        }
+
+        /**
+         * @return one message per bad row, saying on which line it is and what is wrong with it
+         */
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One comma separated row of a memory-mapped .csv file. The row is a view over the bytes of the file which the
+ * CsvLoader moves from line to line, so reading numbers from it creates no objects.
+ */
+public class CsvRow {
+
+    private static final int MAX_FIELDS = 16;
+
+    private final ByteBuffer buffer;
+    private final int[] starts = new int[MAX_FIELDS];
+    private final int[] ends = new int[MAX_FIELDS];
+    private final Field field = new Field();
+    private byte[] scratch = new byte[64];
+    private int fieldCount=0;
+
+    CsvRow(ByteBuffer buffer){
+        this.buffer=buffer;
+    }
+
+    /**
+     * Method which points the row at the line between two offsets and finds its fields
+     */
+    void reset(int start, int end){
+        fieldCount=0;
+        int fieldStart=start;
+        for(int i=start; i<=end; i++){
+            if(i==end || buffer.get(i)==','){
+                if(fieldCount==MAX_FIELDS){
+                    throw new IllegalArgumentException("more than " + MAX_FIELDS + " fields");
+                }
+                starts[fieldCount]=fieldStart;
+                ends[fieldCount]=i;
+                fieldCount++;
+                fieldStart=i+1;
+            }
+        }
+    }
+
+    public int fieldCount(){
+        return fieldCount;
+    }
+
+    /**
+     * Method which checks that the row has at least the fields a file needs
+     * @throws IllegalArgumentException if fields are missing
+     */
+    public void require(int fields){
+        if(fieldCount<fields){
+            throw new IllegalArgumentException("expected " + fields + " fields but found " + fieldCount);
+        }
+    }
+
+    /**
+     * Method which reads a field as a whole number
+     * @throws NumberFormatException if the field is not a number
+     */
+    public long longField(int index){
+        int start=starts[index];
+        int end=ends[index];
+        boolean negative = start<end && buffer.get(start)=='-';
+        if(negative){
+            start++;
+        }
+        if(start==end){
+            throw new NumberFormatException("field " + (index+1) + " is not a number");
+        }
+        long value=0;
+        for(int i=start; i<end; i++){
+            int digit = buffer.get(i)-'0';
+            if(digit<0 || digit>9 || value>(Long.MAX_VALUE-digit)/10){
+                throw new NumberFormatException("field " + (index+1) + " is not a number");
+            }
+            value=value*10+digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Method which reads a field as a whole number which fits in an int
+     * @throws NumberFormatException if the field is not a number or is too big
+     */
+    public int intField(int index){
+        long value = longField(index);
+        if(value<Integer.MIN_VALUE || value>Integer.MAX_VALUE){
+            throw new NumberFormatException("field " + (index+1) + " is out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Method which reads a field as a price
+     * @return the price in cents
+     * @throws NumberFormatException if the field is not a price
+     */
+    public long centsField(int index){
+        field.index=index;
+        return Money.parse(field);
+    }
+
+    public int fieldLength(int index){
+        return ends[index]-starts[index];
+    }
+
+    /**
+     * Method which copies the raw bytes of a field, for storing text without decoding it
+     * @param dest: The array the bytes are copied into, which must have room for fieldLength(index) bytes
+     * @param offset: Where in that array the bytes go
+     */
+    public void copyField(int index, byte[] dest, int offset){
+        buffer.get(starts[index], dest, offset, ends[index]-starts[index]);
+    }
+
+    /**
+     * Method which decodes a field as UTF-8 text, this is the only method of the row which allocates
+     */
+    public String stringField(int index){
+        int length = ends[index]-starts[index];
+        if(length>scratch.length){
+            scratch = new byte[Math.max(length, scratch.length*2)];
+        }
+        buffer.get(starts[index], scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The bytes of one field seen as characters, for parsers which read a CharSequence
+     */
+    private class Field implements CharSequence {
+        private int index;
+
+        @Override
+        public int length() {
+            return ends[index]-starts[index];
+        }
+
+        @Override
+        public char charAt(int i) {
+            return (char) (buffer.get(starts[index]+i) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return stringField(index).subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return stringField(index);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Makes up random but valid customer dialogues for a whole visit: calling the waiter, giving the party size if the
+ * restaurant seats parties at tables, ordering dishes from the menu, eating, calling the bill, looking up or joining
+ * the membership, and paying by cash or card. Every line is one the Session accepts at that point, so a generated
+ * visit always runs to the end.
+ */
+public class DialogueGenerator {
+
+    // Constant variables
+    private static final int MAX_DISHES = 4;
+    private static final int MAX_PARTY = 6;
+
+    private final Restaurant restaurant;
+    private final SplittableRandom random;
+
+    /**
+     * Constructor for this class
+     * @param restaurant: The restaurant whose menu and members are used
+     * @param seed: Seed of the random generator, so a run can be repeated
+     */
+    public DialogueGenerator(Restaurant restaurant, long seed){
+        this.restaurant=restaurant;
+        this.random=new SplittableRandom(seed);
+    }
+
+    /**
+     * Method which makes a new generator for another thread, following on from this one's random sequence
+     */
+    public DialogueGenerator split(){
+        return new DialogueGenerator(restaurant, random.nextLong());
+    }
+
+    /**
+     * Method which makes up the lines of one visit
+     * @return the customer's lines in the order they are typed
+     */
+    public List<String> nextVisit(){
+        Menu menu = restaurant.getMenu();
+        List<String> lines = new ArrayList<>();
+        lines.add("waiter");
+        Seating seating = restaurant.getSeating();
+        if(seating != null){
+            lines.add(Integer.toString(1 + random.nextInt(Math.min(MAX_PARTY, seating.largestTable()))));
+        }
+
+        // Dishes named in a random case as customers type them, the same dish may be ordered more than once
+        Order order = new Order();
+        int dishes = 1 + random.nextInt(Math.min(MAX_DISHES, menu.size()));
+        for(int dish=1; dish<=dishes; dish++){
+            int item = random.nextInt(menu.size());
+            order.add(item);
+            String name = menu.name(item);
+            lines.add(random.nextBoolean() ? name : name.toLowerCase());
+            lines.add(dish<dishes ? "no" : "yes");
+        }
+        lines.add("eat");
+        lines.add("bill");
+
+        long member = randomMember();
+        int choice = random.nextInt(3);
+        if(choice==0 && member>0){
+            lines.add("yes");
+            lines.add(Long.toString(member));
+        } else if(choice==1){
+            lines.add("no");
+            lines.add("yes");
+            lines.add("Guest " + random.nextInt(1_000_000));
+            lines.add(Integer.toString(40_000_000 + random.nextInt(9_000_000)));
+        } else {
+            lines.add("no");
+            lines.add("no");
+        }
+
+        lines.add("pay");
+        if(random.nextBoolean()){
+            // Enough notes for the full price, whatever promotion brings the bill down
+            long due = order.total(menu);
+            lines.add("cash");
+            for(long paid=0; paid<due; paid+=10_000){
+                lines.add("100");
+            }
+        } else {
+            lines.add("card");
+            lines.add("4111111111111111");
+            lines.add("1299");
+            lines.add("123");
+            lines.add("yes");
+        }
+        return lines;
+    }
+
+    private long randomMember(){
+        MemberStore members = restaurant.getMembers();
+        int size = members.size();
+        for(int attempt=0; attempt<4 && size>0; attempt++){
+            long num = members.num(random.nextInt(size));
+            if(num>0){
+                return num;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,154 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Priority queue of simulation events ordered by time, kept as a binary heap over primitive arrays so that scheduling
+ * and polling an event allocates nothing once the arrays have grown to the busiest point of the run.
+ *
+ * Events scheduled for the same time come out in the order they were scheduled.
+ */
+public class EventQueue {
+
+    private long[] times = new long[256];
+    private long[] seqs = new long[256];
+    private int[] types = new int[256];
+    private int[] subjects = new int[256];
+    private int size=0;
+    private long nextSeq=0;
+
+    // The event which was polled last
+    private long time;
+    private int type;
+    private int subject;
+
+    /**
+     * Method which schedules an event
+     * @param time: When the event happens
+     * @param type: What kind of event it is
+     * @param subject: Who or what the event is about, for example the party's number
+     */
+    public void schedule(long time, int type, int subject){
+        if(size==times.length){
+            int capacity = size*2;
+            times = Arrays.copyOf(times, capacity);
+            seqs = Arrays.copyOf(seqs, capacity);
+            types = Arrays.copyOf(types, capacity);
+            subjects = Arrays.copyOf(subjects, capacity);
+        }
+        long seq = nextSeq++;
+        int i = size++;
+        // Sift up
+        while(i>0){
+            int parent = (i-1)>>>1;
+            if(!before(time, seq, times[parent], seqs[parent])){
+                break;
+            }
+            move(parent, i);
+            i=parent;
+        }
+        set(i, time, seq, type, subject);
+    }
+
+    /**
+     * Method which removes the earliest event, which can then be read with time(), type() and subject()
+     * @return false if there was no event left
+     */
+    public boolean poll(){
+        if(size==0){
+            return false;
+        }
+        time=times[0];
+        type=types[0];
+        subject=subjects[0];
+
+        size--;
+        long lastTime=times[size];
+        long lastSeq=seqs[size];
+        int lastType=types[size];
+        int lastSubject=subjects[size];
+        // Sift the last event down from the root
+        int i=0;
+        int half = size>>>1;
+        while(i<half){
+            int child = 2*i+1;
+            int right = child+1;
+            if(right<size && before(times[right], seqs[right], times[child], seqs[child])){
+                child=right;
+            }
+            if(!before(times[child], seqs[child], lastTime, lastSeq)){
+                break;
+            }
+            move(child, i);
+            i=child;
+        }
+        if(size>0){
+            set(i, lastTime, lastSeq, lastType, lastSubject);
+        }
+        return true;
+    }
+
+    public long time() {
+        return time;
+    }
+
+    public int type() {
+        return type;
+    }
+
+    public int subject() {
+        return subject;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size==0;
+    }
+
+    /**
+     * Method which writes the events waiting, in the heap's own order so that reading them back needs no sorting
+     */
+    void write(ByteBuffer out){
+        out.putInt(size).putLong(nextSeq);
+        for(int i=0; i<size; i++){
+            out.putLong(times[i]).putLong(seqs[i]).putInt(types[i]).putInt(subjects[i]);
+        }
+    }
+
+    /**
+     * Method which replaces the events waiting with those written by write()
+     */
+    void read(ByteBuffer in){
+        int count = in.getInt();
+        nextSeq = in.getLong();
+        int capacity = Math.max(256, Integer.highestOneBit(Math.max(1, count))*2);
+        times = new long[capacity];
+        seqs = new long[capacity];
+        types = new int[capacity];
+        subjects = new int[capacity];
+        for(int i=0; i<count; i++){
+            set(i, in.getLong(), in.getLong(), in.getInt(), in.getInt());
+        }
+        size=count;
+    }
+
+    private static boolean before(long timeA, long seqA, long timeB, long seqB){
+        return timeA<timeB || (timeA==timeB && seqA<seqB);
+    }
+
+    private void move(int from, int to){
+        times[to]=times[from];
+        seqs[to]=seqs[from];
+        types[to]=types[from];
+        subjects[to]=subjects[from];
+    }
+
+    private void set(int i, long time, long seq, int type, int subject){
+        times[i]=time;
+        seqs[i]=seq;
+        types[i]=type;
+        subjects[i]=subject;
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Source of the lines a customer types during a dining session. The console simulation reads from System.in while
+ * headless runs plug in scripted or generated dialogue instead.
+ */
+public interface InputSource {
+
+    /**
+     * Method which returns the next line entered by the customer
+     * @return the next line, without the line terminator
+     * @throws java.util.NoSuchElementException if the customer has nothing more to say
+     */
+    String nextLine();
+}
@@ -0,0 +1,51 @@
+/**
+ * First-in first-out queue of ints kept in a growable ring buffer, used for the lines of parties waiting on a limited
+ * resource without boxing them.
+ */
+public class IntQueue {
+
+    private int[] items = new int[64];
+    private int head=0;
+    private int size=0;
+
+    public void add(int item){
+        if(size==items.length){
+            int[] grown = new int[size*2];
+            for(int i=0; i<size; i++){
+                grown[i]=items[(head+i)%items.length];
+            }
+            items=grown;
+            head=0;
+        }
+        items[(head+size)%items.length]=item;
+        size++;
+    }
+
+    /**
+     * Method which removes the item at the front of the queue
+     * @return the removed item
+     * @throws IllegalStateException if the queue is empty
+     */
+    public int poll(){
+        if(size==0){
+            throw new IllegalStateException("Queue is empty");
+        }
+        int item=items[head];
+        head=(head+1)%items.length;
+        size--;
+        return item;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size==0;
+    }
+
+    public void clear(){
+        head=0;
+        size=0;
+    }
+}
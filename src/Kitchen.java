@@ -0,0 +1,434 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The kitchen which cooks the orders. Every dish belongs to a station (grill, pasta, oven and so on) with its own
+ * cooks, as listed in Kitchen.csv together with how many seconds the dish takes. An order becomes a ticket whose
+ * portions are put on the queues of their stations; the queues are bounded, so a busy kitchen makes the waiters wait
+ * before it takes more orders. A cook takes the dish which has waited longest, together with every other portion of
+ * the same dish waiting at the station up to the batch limit, and cooks them all at once.
+ *
+ * Cooking times are multiplied by the time scale, so 0.001 turns a ten minute steak into 0.6 seconds of real time.
+ *
+ * The kitchen knows its dishes by name, so it keeps working when the menu is reloaded: each menu is matched to the
+ * kitchen's dishes once, and a dish which Kitchen.csv does not list is cooked at the KITCHEN station.
+ */
+public class Kitchen {
+
+    // Station and cooking time of the dishes which Kitchen.csv does not list
+    private static final String DEFAULT_STATION = "KITCHEN";
+    private static final long DEFAULT_COOK_SECONDS = 300;
+
+    private final Station[] stations;
+    private final int batchLimit;
+    private final int defaultStation;
+    private final long defaultCookNanos;
+    private final Thread[] cooks;
+
+    // The kitchen's dishes by upper case name, with their station and cooking time under the same id. New dishes
+    // are only added while holding the kitchen's lock, and the arrays are replaced rather than changed.
+    private final Map<String, Integer> dishIds = new HashMap<>();
+    private volatile int[] dishStations;
+    private volatile long[] dishCookNanos;
+    // Routes of the latest two menus, sessions which started before a reload still use the older one
+    private volatile Route route;
+    private volatile Route previousRoute;
+
+    private final LatencyHistogram tickets = new LatencyHistogram();
+    private final LongAdder portions = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * Constructor for this class, the cooks start working straight away
+     * @param filename: The .csv file giving the station and cooking seconds of each dish
+     * @param cooksPerStation: How many dishes (or batches) each station cooks at the same time
+     * @param batchLimit: How many portions of the same dish are cooked together at most, 1 to turn batching off
+     * @param queueCapacity: How many portions can wait at a station before new orders have to wait
+     * @param timeScale: Real seconds per cooking second
+     */
+    public Kitchen(String filename, int cooksPerStation, int batchLimit, int queueCapacity, double timeScale){
+        if(cooksPerStation<1 || batchLimit<1 || queueCapacity<1 || !(timeScale>=0)){
+            throw new IllegalArgumentException("Invalid kitchen settings");
+        }
+        this.batchLimit=batchLimit;
+
+        CsvLoader.Result<KitchenRows> result = CsvLoader.load(filename, KitchenRows::new);
+        Restaurant.reportBadRows(filename, result);
+
+        Map<String, Integer> names = new LinkedHashMap<>();
+        int[] stationOf = new int[(int) result.getRows()];
+        long[] cookNanos = new long[(int) result.getRows()];
+        for(KitchenRows rows:result.getHandlers()){
+            for(int i=0; i<rows.dishes.size(); i++){
+                String dish = rows.dishes.get(i);
+                if(dishIds.containsKey(dish)){
+                    continue;
+                }
+                int id = dishIds.size();
+                dishIds.put(dish, id);
+                stationOf[id] = names.computeIfAbsent(rows.stations.get(i), name -> names.size());
+                cookNanos[id] = (long) (rows.seconds.get(i) * 1e9 * timeScale);
+            }
+        }
+        this.dishStations = Arrays.copyOf(stationOf, dishIds.size());
+        this.dishCookNanos = Arrays.copyOf(cookNanos, dishIds.size());
+        this.defaultStation = names.computeIfAbsent(DEFAULT_STATION, name -> names.size());
+        this.defaultCookNanos = (long) (DEFAULT_COOK_SECONDS * 1e9 * timeScale);
+
+        this.stations = new Station[names.size()];
+        for(Map.Entry<String, Integer> entry:names.entrySet()){
+            stations[entry.getValue()] = new Station(entry.getKey(), queueCapacity);
+        }
+        this.cooks = new Thread[stations.length*cooksPerStation];
+        for(int i=0; i<cooks.length; i++){
+            Station station = stations[i/cooksPerStation];
+            cooks[i] = new Thread(() -> cook(station), "cook-" + station.name + "-" + (i%cooksPerStation));
+            cooks[i].setDaemon(true);
+            cooks[i].start();
+        }
+    }
+
+    /**
+     * Method which sends an order to the kitchen, waiting while the stations it needs are full
+     * @param menu: The menu the order was taken from
+     * @param order: The dishes to cook
+     * @return the ticket of the order, which can be waited on until every dish is cooked
+     */
+    public Ticket submit(Menu menu, Order order){
+        Route route = route(menu);
+        Ticket ticket = new Ticket(order.portions());
+        for(int line=0; line<order.size(); line++){
+            int dish = route.dishes[order.item(line)];
+            for(int portion=0; portion<order.quantity(line); portion++){
+                stations[route.stations[order.item(line)]].put(dish, ticket);
+            }
+        }
+        if(order.size()==0){
+            ticket.portionDone();
+        }
+        return ticket;
+    }
+
+    /**
+     * Method which matches the dishes of a menu to the kitchen's, done once for each menu
+     */
+    private Route route(Menu menu){
+        Route current = route;
+        if(current != null && current.menu == menu){
+            return current;
+        }
+        Route previous = previousRoute;
+        if(previous != null && previous.menu == menu){
+            return previous;
+        }
+        synchronized (dishIds) {
+            if(route != null && route.menu == menu){
+                return route;
+            }
+            int[] stationOf = dishStations;
+            long[] cookNanos = dishCookNanos;
+            int[] dishes = new int[menu.size()];
+            int[] stations = new int[menu.size()];
+            for(int item=0; item<menu.size(); item++){
+                String name = menu.name(item).toUpperCase(Locale.ROOT);
+                Integer id = dishIds.get(name);
+                if(id == null){
+                    System.err.println("WARNING: " + menu.name(item) + " has no kitchen station, it is cooked at " +
+                            DEFAULT_STATION);
+                    id = dishIds.size();
+                    dishIds.put(name, id);
+                    stationOf = Arrays.copyOf(stationOf, id+1);
+                    cookNanos = Arrays.copyOf(cookNanos, id+1);
+                    stationOf[id] = defaultStation;
+                    cookNanos[id] = defaultCookNanos;
+                }
+                dishes[item] = id;
+                stations[item] = stationOf[id];
+            }
+            // The cooking times are published before any portion of a new dish can be queued
+            dishCookNanos = cookNanos;
+            dishStations = stationOf;
+            current = new Route(menu, dishes, stations);
+            previousRoute = route;
+            route = current;
+            return current;
+        }
+    }
+
+    /**
+     * Method which a cook runs until the kitchen closes
+     */
+    private void cook(Station station){
+        Ticket[] batch = new Ticket[batchLimit];
+        int[] dish = new int[1];
+        try {
+            while(true) {
+                int size = station.take(batch, dish);
+                long cookNanos = dishCookNanos[dish[0]];
+                long start = System.nanoTime();
+                if(cookNanos>0){
+                    TimeUnit.NANOSECONDS.sleep(cookNanos);
+                }
+                station.busyNanos.addAndGet(System.nanoTime() - start);
+                for(int i=0; i<size; i++){
+                    batch[i].portionDone();
+                    batch[i]=null;
+                }
+                portions.add(size);
+                batches.increment();
+            }
+        } catch (InterruptedException e) {
+            // The kitchen is closing, the batch on the stove is not finished
+            for(int i=0; i<batch.length && batch[i]!=null; i++){
+                batch[i].cancel();
+            }
+        }
+    }
+
+    /**
+     * Method which sends the cooks home. Dishes still waiting or on the stove are not cooked, their tickets are
+     * cancelled so that whoever waits on them wakes up, and orders sent afterwards are cancelled straight away.
+     */
+    public void close() throws InterruptedException {
+        for(Station station:stations){
+            station.close();
+        }
+        for(Thread cook:cooks){
+            cook.interrupt();
+        }
+        for(Thread cook:cooks){
+            cook.join();
+        }
+    }
+
+    public LatencyHistogram.Snapshot ticketLatency(){
+        return tickets.snapshot();
+    }
+
+    public long getPortions() {
+        return portions.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * Method which gives how busy each station's cooks have been, from 0 to 1
+     * @param elapsedNanos: How long the kitchen has been open
+     */
+    public Map<String, Double> utilisation(long elapsedNanos){
+        Map<String, Double> result = new LinkedHashMap<>();
+        int cooksPerStation = cooks.length/stations.length;
+        for(Station station:stations){
+            result.put(station.name, station.busyNanos.get() / ((double) elapsedNanos * cooksPerStation));
+        }
+        return result;
+    }
+
+    /**
+     * An order in the kitchen, done once its last portion is cooked
+     */
+    public class Ticket {
+        private final long created = System.nanoTime();
+        private final AtomicInteger remaining;
+        private final CountDownLatch cooked = new CountDownLatch(1);
+        private volatile boolean cancelled=false;
+
+        private Ticket(int portions){
+            this.remaining = new AtomicInteger(Math.max(1, portions));
+        }
+
+        private void portionDone(){
+            if(remaining.decrementAndGet()==0){
+                tickets.record(System.nanoTime() - created);
+                cooked.countDown();
+            }
+        }
+
+        private void cancel(){
+            cancelled=true;
+            cooked.countDown();
+        }
+
+        /**
+         * Method which waits until every dish of the order is cooked
+         * @throws IllegalStateException if the kitchen closed before the order was cooked
+         */
+        public void await() throws InterruptedException {
+            cooked.await();
+            if(cancelled){
+                throw new IllegalStateException("The kitchen closed before the order was cooked");
+            }
+        }
+
+        /**
+         * @return whether the order was cooked or cancelled
+         */
+        public boolean isDone() {
+            return cooked.getCount()==0;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Method which makes an array of ticket queues, Java having no arrays of a generic type
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<Ticket>[] newQueues(int size){
+        return (ArrayDeque<Ticket>[]) new ArrayDeque[size];
+    }
+
+    /**
+     * A bounded queue of portions waiting at one station, kept per dish so a cook can take every waiting portion of
+     * the same dish at once
+     */
+    private final class Station {
+        private final String name;
+        private final int capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        // Tickets waiting for a portion, per dish of the kitchen
+        private ArrayDeque<Ticket>[] waiting;
+        private final AtomicLong busyNanos = new AtomicLong();
+        private int size=0;
+        private boolean closed=false;
+
+        private Station(String name, int capacity){
+            this.name=name;
+            this.capacity=capacity;
+            this.waiting = newQueues(8);
+        }
+
+        private void put(int item, Ticket ticket){
+            lock.lock();
+            try {
+                while(size==capacity && !closed){
+                    notFull.awaitUninterruptibly();
+                }
+                if(closed){
+                    ticket.cancel();
+                    return;
+                }
+                if(item>=waiting.length){
+                    waiting = Arrays.copyOf(waiting, Math.max(item+1, waiting.length*2));
+                }
+                if(waiting[item]==null){
+                    waiting[item] = new ArrayDeque<>();
+                }
+                waiting[item].addLast(ticket);
+                size++;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Method which takes the dish of the oldest waiting ticket and the other portions of it, up to the size of
+         * the batch
+         * @param batch: Filled with the tickets the portions are for
+         * @param dish: Its first element is set to the dish taken
+         * @return how many portions were taken
+         */
+        private int take(Ticket[] batch, int[] dish) throws InterruptedException {
+            lock.lock();
+            try {
+                while(size==0){
+                    notEmpty.await();
+                }
+                int oldest=-1;
+                for(int item=0; item<waiting.length; item++){
+                    if(waiting[item]!=null && !waiting[item].isEmpty() &&
+                            (oldest<0 || waiting[item].peekFirst().created -
+                                    waiting[oldest].peekFirst().created < 0)){
+                        oldest=item;
+                    }
+                }
+                int count=0;
+                while(count<batch.length && !waiting[oldest].isEmpty()){
+                    batch[count++] = waiting[oldest].pollFirst();
+                }
+                size-=count;
+                dish[0]=oldest;
+                notFull.signalAll();
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Method which cancels the tickets of every portion waiting and lets the waiters who are waiting for room go
+         */
+        private void close(){
+            lock.lock();
+            try {
+                closed=true;
+                for(ArrayDeque<Ticket> tickets:waiting){
+                    Ticket ticket;
+                    while(tickets!=null && (ticket = tickets.pollFirst()) != null){
+                        ticket.cancel();
+                    }
+                }
+                size=0;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The kitchen's dish and station of every dish of one menu
+     */
+    private static final class Route {
+        private final Menu menu;
+        private final int[] dishes;
+        private final int[] stations;
+
+        private Route(Menu menu, int[] dishes, int[] stations){
+            this.menu=menu;
+            this.dishes=dishes;
+            this.stations=stations;
+        }
+    }
+
+    /**
+     * Collects the rows of one chunk of Kitchen.csv
+     */
+    private static class KitchenRows implements CsvLoader.RowHandler {
+        private final List<String> dishes = new ArrayList<>();
+        private final List<String> stations = new ArrayList<>();
+        private final List<Long> seconds = new ArrayList<>();
+
+        @Override
+        public void row(CsvRow row) {
+            row.require(3);
+            long cookSeconds = row.longField(2);
+            if(cookSeconds<0){
+                throw new IllegalArgumentException("cooking time must not be negative");
+            }
+            dishes.add(row.stringField(0).trim().toUpperCase(Locale.ROOT));
+            stations.add(row.stringField(1).toUpperCase(Locale.ROOT));
+            seconds.add(cookSeconds);
+        }
+    }
+}
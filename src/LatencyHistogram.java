@@ -0,0 +1,131 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds. Values are kept in log-linear buckets: eight buckets for every
+ * power of two, so a percentile is never more than 12.5% away from the real value while the whole range from one
+ * nanosecond to years fits in a few hundred counters. Recording is a single atomic add on a bucket, and the buckets
+ * are spread over several stripes picked by thread, so threads recording at the same time rarely touch the same
+ * counter.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+    // Each stripe holds the buckets followed by the sum of the values recorded in it
+    private static final int STRIDE = BUCKETS + 1;
+    private static final int STRIPES =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIDE);
+
+    /**
+     * Method which records one duration, negative durations count as zero
+     * @param nanos: The duration in nanoseconds
+     */
+    public void record(long nanos){
+        long value = Math.max(0, nanos);
+        int base = ((int) Thread.currentThread().getId() & (STRIPES-1)) * STRIDE;
+        counts.getAndIncrement(base + bucket(value));
+        counts.getAndAdd(base + BUCKETS, value);
+    }
+
+    /**
+     * Method which works out the bucket a value falls in
+     */
+    static int bucket(long value){
+        if(value < SUB_COUNT){
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT-1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Method which works out the largest value a bucket holds
+     */
+    static long upperBound(int bucket){
+        if(bucket < SUB_COUNT){
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        long sub = bucket % SUB_COUNT;
+        long low = (SUB_COUNT + sub) << (exponent - SUB_BITS);
+        return low + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Method which adds up the stripes into one consistent enough copy, while other threads keep recording
+     */
+    public Snapshot snapshot(){
+        long[] buckets = new long[BUCKETS];
+        long count=0;
+        long sum=0;
+        for(int stripe=0; stripe<STRIPES; stripe++){
+            int base = stripe*STRIDE;
+            for(int bucket=0; bucket<BUCKETS; bucket++){
+                long value = counts.get(base + bucket);
+                buckets[bucket]+=value;
+                count+=value;
+            }
+            sum+=counts.get(base + BUCKETS);
+        }
+        return new Snapshot(buckets, count, sum);
+    }
+
+    /**
+     * Method which empties the histogram
+     */
+    public void reset(){
+        for(int i=0; i<counts.length(); i++){
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Counts of a histogram at one moment
+     */
+    public static class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(long[] buckets, long count, long sum){
+            this.buckets=buckets;
+            this.count=count;
+            this.sum=sum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count==0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile: Between 0 and 100
+         * @return the upper bound of the bucket holding that percentile, 0 when nothing was recorded
+         */
+        public long percentile(double percentile){
+            if(count==0){
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile/100 * count));
+            long seen=0;
+            for(int bucket=0; bucket<buckets.length; bucket++){
+                seen+=buckets[bucket];
+                if(seen>=rank){
+                    return upperBound(bucket);
+                }
+            }
+            return upperBound(buckets.length-1);
+        }
+
+        public long getMax() {
+            return percentile(100);
+        }
+    }
+}
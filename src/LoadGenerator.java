@@ -0,0 +1,283 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load generator: a fixed number of simulated customers each run one visit after another against the
+ * same restaurant, reading either recorded transcripts or randomly generated dialogues. Customers can pause between
+ * the lines they type, like people reading the waiter's answer. At the end it reports the visits per second and the
+ * percentiles of how long a visit took.
+ *
+ * Run from the project folder.
+ * Arguments: [--concurrency 64] [--sessions 100000 | --duration 30] [--think 0] [--transcripts file] [--seed 42]
+ *            [--kitchen 0.001 [--cooks 1] [--batch 4] [--queue 64]]
+ *            [--payments 20 [--payment-batch 32] [--in-flight 4]] [--receipts folder]
+ *            [--tables file]
+ * --duration is in seconds and --think is the average pause between lines in milliseconds. --kitchen sends the
+ * orders through a Kitchen running at that time scale, with the given cooks per station, batch limit and queue size.
+ * --payments has card payments authorized by a LocalProcessor answering in that many milliseconds, sent in batches of
+ * up to the given size with the given number of batches on their way at once. --receipts records every bill in a
+ * ReceiptJournal in that folder and ends with the SalesReport of every bill in it. --tables seats every party at one of
+ * the tables in that file, customers waiting for a table when they are all taken.
+ */
+public class LoadGenerator {
+
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    private final Restaurant restaurant;
+    private final int concurrency;
+    private final double thinkMillis;
+    private final List<List<String>> transcripts;
+    private final DialogueGenerator generator;
+
+    /**
+     * Constructor for this class
+     * @param restaurant: The restaurant every visit is served by
+     * @param concurrency: How many customers are in the restaurant at the same time
+     * @param thinkMillis: The average pause before each line a customer types, 0 for none
+     * @param transcripts: Recorded visits to replay in turn, or null to generate random visits
+     * @param seed: Seed of the random generators
+     */
+    public LoadGenerator(Restaurant restaurant, int concurrency, double thinkMillis, List<List<String>> transcripts,
+                         long seed){
+        this.restaurant=restaurant;
+        this.concurrency=concurrency;
+        this.thinkMillis=thinkMillis;
+        this.transcripts=transcripts;
+        this.generator=new DialogueGenerator(restaurant, seed);
+    }
+
+    /**
+     * Method which runs visits until either the number of visits or the time is used up
+     * @param sessions: How many visits to run in total, or 0 for no limit
+     * @param durationNanos: How long to keep running, or 0 for no limit
+     * @return the report of the run
+     */
+    public Report run(long sessions, long durationNanos) throws InterruptedException {
+        AtomicLong started = new AtomicLong();
+        AtomicInteger nextTranscript = new AtomicInteger();
+        long[][] latencies = new long[concurrency][];
+        int[] counts = new int[concurrency];
+        long[] failures = new long[concurrency];
+        Thread[] customers = new Thread[concurrency];
+
+        long begin = System.nanoTime();
+        long deadline = durationNanos>0 ? begin + durationNanos : Long.MAX_VALUE;
+        for(int c=0; c<concurrency; c++){
+            int customer = c;
+            DialogueGenerator dialogues = generator.split();
+            SplittableRandom random = new SplittableRandom(customer);
+            customers[c] = new Thread(() -> {
+                long[] own = new long[1024];
+                int count=0;
+                while((sessions<=0 || started.getAndIncrement()<sessions) && System.nanoTime()<deadline){
+                    List<String> lines = transcripts == null ? dialogues.nextVisit() :
+                            transcripts.get(Math.floorMod(nextTranscript.getAndIncrement(), transcripts.size()));
+                    InputSource input = new ScriptedInput(lines);
+                    if(thinkMillis>0){
+                        input = thinking(input, random);
+                    }
+
+                    long start = System.nanoTime();
+                    try {
+                        new Session(restaurant, input, DISCARD).run();
+                    } catch (RuntimeException e) {
+                        // The transcript ran out before the visit was over, or had a line the session could not
+                        // take, either way the visit fails and the customer goes on with the next one
+                        failures[customer]++;
+                        continue;
+                    }
+                    if(count==own.length){
+                        own = Arrays.copyOf(own, count*2);
+                    }
+                    own[count++] = System.nanoTime() - start;
+                }
+                latencies[customer]=own;
+                counts[customer]=count;
+            }, "customer-" + c);
+            customers[c].start();
+        }
+        for(Thread customer:customers){
+            customer.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        int total = 0;
+        long failed = 0;
+        for(int c=0; c<concurrency; c++){
+            total+=counts[c];
+            failed+=failures[c];
+        }
+        long[] all = new long[total];
+        int position=0;
+        for(int c=0; c<concurrency; c++){
+            if(latencies[c] == null){
+                // The customer's thread died of an error, so it has nothing to report
+                continue;
+            }
+            System.arraycopy(latencies[c], 0, all, position, counts[c]);
+            position+=counts[c];
+        }
+        Arrays.sort(all);
+        return new Report(all, failed, elapsed);
+    }
+
+    /**
+     * Method which makes a customer pause for an exponentially distributed time before every line
+     */
+    private InputSource thinking(InputSource input, SplittableRandom random){
+        return () -> {
+            long pause = (long) (-thinkMillis * 1_000_000 * Math.log(1.0 - random.nextDouble()));
+            try {
+                Thread.sleep(pause/1_000_000, (int) (pause%1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return input.nextLine();
+        };
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int concurrency = 64;
+        long sessions = 0;
+        long duration = 0;
+        double think = 0;
+        String transcriptFile = null;
+        long seed = 42;
+        double kitchenScale = -1;
+        int cooks = 1;
+        int batch = 4;
+        int queue = 64;
+        double paymentMillis = -1;
+        int paymentBatch = 32;
+        int inFlight = 4;
+        String receiptFolder = null;
+        String tableFile = null;
+        for(int i=0; i+1<args.length; i+=2){
+            switch (args[i]) {
+                case "--concurrency" -> concurrency = Integer.parseInt(args[i+1]);
+                case "--sessions" -> sessions = Long.parseLong(args[i+1]);
+                case "--duration" -> duration = Long.parseLong(args[i+1]);
+                case "--think" -> think = Double.parseDouble(args[i+1]);
+                case "--transcripts" -> transcriptFile = args[i+1];
+                case "--seed" -> seed = Long.parseLong(args[i+1]);
+                case "--kitchen" -> kitchenScale = Double.parseDouble(args[i+1]);
+                case "--cooks" -> cooks = Integer.parseInt(args[i+1]);
+                case "--batch" -> batch = Integer.parseInt(args[i+1]);
+                case "--queue" -> queue = Integer.parseInt(args[i+1]);
+                case "--payments" -> paymentMillis = Double.parseDouble(args[i+1]);
+                case "--payment-batch" -> paymentBatch = Integer.parseInt(args[i+1]);
+                case "--in-flight" -> inFlight = Integer.parseInt(args[i+1]);
+                case "--receipts" -> receiptFolder = args[i+1];
+                case "--tables" -> tableFile = args[i+1];
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if(sessions==0 && duration==0){
+            sessions = 100_000;
+        }
+
+        Restaurant restaurant = new Restaurant("res/Menu.csv", "res/Members.csv", null);
+        List<List<String>> transcripts = transcriptFile == null ? null : Transcripts.read(transcriptFile);
+        restaurant.getMetrics().publish("load");
+        Kitchen kitchen = null;
+        if(kitchenScale>=0){
+            kitchen = new Kitchen("res/Kitchen.csv", cooks, batch, queue, kitchenScale);
+            restaurant.setKitchen(kitchen);
+        }
+        PaymentClient payments = null;
+        if(paymentMillis>=0){
+            payments = new PaymentClient(new LocalProcessor(paymentMillis, 0), paymentBatch, inFlight);
+            restaurant.setPayments(payments);
+        }
+        ReceiptJournal receipts = null;
+        if(receiptFolder != null){
+            receipts = new ReceiptJournal(receiptFolder);
+            restaurant.setReceipts(receipts);
+        }
+        if(tableFile != null){
+            restaurant.setSeating(Seating.load(tableFile));
+        }
+        LoadGenerator generator = new LoadGenerator(restaurant, concurrency, think, transcripts, seed);
+        Report report = generator.run(sessions, duration*1_000_000_000L);
+        System.out.println(report);
+        System.out.println(restaurant.getMetrics());
+        if(kitchen != null){
+            LatencyHistogram.Snapshot tickets = kitchen.ticketLatency();
+            System.out.printf("kitchen: %,d portions in %,d batches, %,.0f portions/s, ticket p50 %.1f ms, " +
+                            "p99 %.1f ms%n", kitchen.getPortions(), kitchen.getBatches(),
+                    kitchen.getPortions() / (report.getElapsedNanos()/1e9), tickets.percentile(50)/1e6,
+                    tickets.percentile(99)/1e6);
+            kitchen.close();
+        }
+        if(payments != null){
+            LatencyHistogram.Snapshot authorizations = payments.authorizationLatency();
+            System.out.printf("payments: %,d authorized in %,d batches, %,d declined, p50 %.1f ms, p99 %.1f ms%n",
+                    payments.getAuthorizations(), payments.getBatches(), payments.getDeclined(),
+                    authorizations.percentile(50)/1e6, authorizations.percentile(99)/1e6);
+            payments.close();
+        }
+        if(receipts != null){
+            receipts.close();
+            System.out.printf("receipts: %,d bytes recorded%n", receipts.getTail());
+            SalesAnalytics analytics = new SalesAnalytics(restaurant);
+            analytics.follow(receiptFolder);
+            System.out.println(analytics.report(5));
+        }
+    }
+
+    /**
+     * Result of a load run, with the visit times sorted so percentiles can be read off directly
+     */
+    public static class Report {
+        private final long[] latencies;
+        private final long failed;
+        private final long elapsedNanos;
+
+        public Report(long[] latencies, long failed, long elapsedNanos){
+            this.latencies=latencies;
+            this.failed=failed;
+            this.elapsedNanos=elapsedNanos;
+        }
+
+        public long getCompleted() {
+            return latencies.length;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double sessionsPerSecond(){
+            return latencies.length / (elapsedNanos/1e9);
+        }
+
+        /**
+         * @param percentile: Between 0 and 100
+         * @return the visit time in nanoseconds which that share of visits finished within
+         */
+        public long percentile(double percentile){
+            if(latencies.length==0){
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile/100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length-1, index))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d sessions (%,d failed) in %.3f s = %,.0f sessions/s%n" +
+                            "latency p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+                    latencies.length, failed, elapsedNanos/1e9, sessionsPerSecond(), percentile(50)/1e6,
+                    percentile(90)/1e6, percentile(99)/1e6, percentile(99.9)/1e6, percentile(100)/1e6);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A payment processor which runs in the same program, standing in for a real one when playing or benchmarking. Every
+ * batch takes the round trip time given, however many payments it holds, plus a little per payment.
+ *
+ * It approves every payment except those with the test card 4000000000000002, which is always declined, and those
+ * over the card limit.
+ */
+public class LocalProcessor implements PaymentProcessor {
+
+    public static final String DECLINED_CARD = "4000000000000002";
+    // Largest payment approved, in cents
+    private static final long CARD_LIMIT = 1_000_000_00L;
+
+    private final long roundTripNanos;
+    private final long perPaymentNanos;
+
+    /**
+     * Constructor for this class
+     * @param roundTripMillis: How long every batch takes to be answered
+     * @param perPaymentMicros: How much longer a batch takes for each payment in it
+     */
+    public LocalProcessor(double roundTripMillis, double perPaymentMicros){
+        if(!(roundTripMillis>=0) || !(perPaymentMicros>=0)){
+            throw new IllegalArgumentException("Invalid processor latency");
+        }
+        this.roundTripNanos = (long) (roundTripMillis*1e6);
+        this.perPaymentNanos = (long) (perPaymentMicros*1e3);
+    }
+
+    @Override
+    public boolean[] authorize(List<PaymentClient.Authorization> batch) throws InterruptedException {
+        long latency = roundTripNanos + perPaymentNanos*batch.size();
+        if(latency>0){
+            TimeUnit.NANOSECONDS.sleep(latency);
+        }
+        boolean[] approved = new boolean[batch.size()];
+        for(int i=0; i<approved.length; i++){
+            PaymentClient.Authorization payment = batch.get(i);
+            approved[i] = !payment.getCard().equals(DECLINED_CARD) && payment.getAmount()<=CARD_LIMIT;
+        }
+        return approved;
+    }
+}
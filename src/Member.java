@@ -1,33 +1,34 @@
+/**
+ * A view of one member of the MemberStore. The member's details are read from and written to the store's columns, so
+ * a Member is only a cheap handle which can be created whenever a member is looked up, and is as safe to share
+ * between threads as the store itself.
+ */
 public class Member {
-    private final String name;
-    private final String num;
-    private int freq;
-    private final int phoneNum;
+    private final MemberStore store;
+    private final int row;
 
-    public Member(String num, String name, int freq, int phoneNum){
-        this.num=num;
-        this.name=name;
-        this.freq=freq;
-        this.phoneNum=phoneNum;
+    public Member(MemberStore store, int row){
+        this.store=store;
+        this.row=row;
     }
 
     public String getName() {
-        return name;
+        return store.name(row);
     }
 
     public int getFreq() {
-        return freq;
+        return store.freq(row);
     }
 
     public String getNum() {
-        return num;
+        return Long.toString(store.num(row));
     }
 
-    public int getPhoneNum() {
-        return phoneNum;
+    public long getPhoneNum() {
+        return store.phone(row);
     }
 
     public void setFreq(){
-        this.freq+=1;
+        store.incrementFreq(row);
     }
 }
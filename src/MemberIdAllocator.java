@@ -0,0 +1,107 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands out membership numbers from a fixed range without guessing. Every number in the range has a bit in a bitmap,
+ * set once the number is in use. A cursor remembers the first word of the bitmap which may still have a free bit, so
+ * each number is found in constant time and a bit is claimed with a compare-and-set, which lets many new members sign
+ * up at the same time without ever getting the same number.
+ */
+public class MemberIdAllocator {
+
+    private final long first;
+    private final long capacity;
+    private final AtomicLongArray words;
+    private final AtomicInteger cursor = new AtomicInteger();
+    // Claims which lost a race for a bit and had to look again
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * Constructor for this class
+     * @param first: The first membership number of the range
+     * @param capacity: How many numbers the range holds
+     * @throws IllegalArgumentException if the range is empty, too big or holds numbers which are not positive
+     */
+    public MemberIdAllocator(long first, long capacity){
+        if(first<=0 || capacity<=0 || capacity > (long) Integer.MAX_VALUE*64 || first+capacity<first){
+            throw new IllegalArgumentException("Invalid membership number range " + first + " + " + capacity);
+        }
+        this.first=first;
+        this.capacity=capacity;
+        int wordCount = (int) ((capacity+63)/64);
+        this.words = new AtomicLongArray(wordCount);
+        // The bits past the end of the range are never free
+        int tail = (int) (capacity%64);
+        if(tail!=0){
+            words.set(wordCount-1, -1L << tail);
+        }
+    }
+
+    /**
+     * Method which builds an allocator that knows about every member already in the store
+     * @param store: The loaded membership list
+     * @param first: The first membership number of the range
+     * @param capacity: How many numbers the range holds
+     */
+    public static MemberIdAllocator rebuild(MemberStore store, long first, long capacity){
+        MemberIdAllocator allocator = new MemberIdAllocator(first, capacity);
+        for(int row=0; row<store.size(); row++){
+            allocator.markUsed(store.num(row));
+        }
+        return allocator;
+    }
+
+    /**
+     * Method which marks a number as in use, numbers outside the range are ignored
+     */
+    public void markUsed(long id){
+        long index = id-first;
+        if(index<0 || index>=capacity){
+            return;
+        }
+        int word = (int) (index>>>6);
+        long bit = 1L << (index & 63);
+        long current;
+        do {
+            current = words.get(word);
+        } while((current & bit)==0 && !words.compareAndSet(word, current, current | bit));
+    }
+
+    /**
+     * Method which gives out a membership number nobody has
+     * @return the new number
+     * @throws IllegalStateException if every number of the range has been given out
+     */
+    public long allocate(){
+        int word = cursor.get();
+        while(word<words.length()){
+            long current = words.get(word);
+            if(current==-1L){
+                // Every number of this word is taken, move the cursor on for everyone
+                cursor.compareAndSet(word, word+1);
+                word = Math.max(word+1, cursor.get());
+                continue;
+            }
+            int bit = Long.numberOfTrailingZeros(~current);
+            if(words.compareAndSet(word, current, current | (1L << bit))){
+                return first + ((long) word<<6) + bit;
+            }
+            retries.increment();
+        }
+        throw new IllegalStateException("No membership numbers left between " + first + " and " +
+                (first+capacity-1));
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+}
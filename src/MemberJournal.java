@@ -0,0 +1,553 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of the changes made to the membership list since Members.csv was last written, so that a
+ * session only writes its own visit or new member instead of the whole file.
+ *
+ * Sessions append without taking a lock, as in the ReceiptJournal: the file is memory-mapped, a session reserves room
+ * for its record by moving the atomic tail forward and copies the record in, writing its length last. A background
+ * thread forces what was copied to disk in batches (group commit), so many sessions share one fsync. The journal's
+ * header holds the length and checksum of the Members.csv it applies to; when the journal grows past the size of that
+ * snapshot, the owner compacts it by writing a new Members.csv and starting an empty journal. A journal which does not
+ * match the snapshot on disk was already compacted and is ignored.
+ *
+ * Record layout: int payload length, int CRC32C of the payload, then the payload, padded to 8 bytes. A visit is the
+ * byte 'V' and the membership number. A new member is the byte 'M', the membership number, visit count, phone number
+ * as a long and the name in UTF-8. Journals written while phone numbers were ints hold new members as the byte 'N'
+ * with an int phone number, which are still read. Room reserved for a record which then could not be copied is
+ * filled with the byte 'S' and zeros, which replaying passes over. Journals of version 1 have no padding, they are
+ * rewritten with it when opened.
+ */
+public class MemberJournal implements AutoCloseable {
+
+    private static final int MAGIC = 0x4D4A4E4C;
+    private static final int VERSION = 2;
+    private static final int UNPADDED_VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final byte VISIT = 'V';
+    private static final byte NEW_MEMBER = 'M';
+    private static final byte NEW_MEMBER_INT_PHONE = 'N';
+    private static final byte SKIPPED = 'S';
+
+    // How long the flusher waits to gather a batch, and the journal size which is always allowed before compacting
+    private static final long FLUSH_INTERVAL_MILLIS = 2;
+    private static final long MIN_COMPACT_BYTES = 4 << 20;
+    // How much of the file is mapped ahead of the records, the mapping doubles when the records reach its end
+    private static final int MAP_BYTES = 1 << 20;
+    // The largest record, so that it always fits in the room mapped ahead
+    private static final int MAX_RECORD_BYTES = MAP_BYTES;
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Writes a new snapshot of the membership list, called by the flusher when the journal is due for compaction
+     */
+    public interface Compactor {
+        void compact() throws IOException;
+    }
+
+    private final Path path;
+    private final Compactor compactor;
+    private FileChannel channel;
+    private long compactThreshold;
+
+    // Position just after the last room reserved. Positions go on counting across compactions, so a session waiting
+    // for a record of the old journal can be let go once it is dropped.
+    private final AtomicLong tail;
+    private volatile Mapping mapping;
+    // Every record below this position is on disk
+    private long durable;
+    private boolean syncRequested=false;
+    private volatile boolean closed=false;
+    private volatile RuntimeException failure;
+    private final Thread flusher;
+
+    private MemberJournal(Path path, FileChannel channel, long end, long snapshotLength, Compactor compactor)
+            throws IOException {
+        this.path=path;
+        this.channel=channel;
+        this.compactor=compactor;
+        this.compactThreshold=Math.max(MIN_COMPACT_BYTES, snapshotLength);
+        this.tail = new AtomicLong(end);
+        this.durable=end;
+        this.mapping = new Mapping(channel.map(FileChannel.MapMode.READ_WRITE, 0, end+MAP_BYTES), 0);
+        this.flusher = new Thread(this::flushLoop, "member-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Method which opens the journal of a snapshot, replaying its changes into the loaded membership list
+     * @param journalFile: The journal's file, which is created if it does not exist
+     * @param snapshotFile: The Members.csv the store was loaded from
+     * @param store: The membership list loaded from the snapshot
+     * @param compactor: Writes a new snapshot and calls reset() when the journal gets too long
+     * @return the open journal, ready for appending
+     */
+    public static MemberJournal open(String journalFile, String snapshotFile, MemberStore store, Compactor compactor){
+        try {
+            return open(journalFile, snapshotFile, store, compactor, checksum(Path.of(snapshotFile)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Method which opens the journal of a snapshot whose checksum is already known, so the snapshot is not read again
+     * @param snapshotCrc: The CRC32C of the snapshot file
+     */
+    public static MemberJournal open(String journalFile, String snapshotFile, MemberStore store, Compactor compactor,
+                                     int snapshotCrc){
+        try {
+            Path path = Path.of(journalFile);
+            Path snapshot = Path.of(snapshotFile);
+            long snapshotLength = Files.exists(snapshot) ? Files.size(snapshot) : 0;
+
+            long validEnd = Files.exists(path) ? replay(path, snapshotLength, snapshotCrc, store) : -1;
+            FileChannel channel;
+            if(validEnd<0){
+                // No journal yet, or one left over from before the last compaction
+                channel = create(path, snapshotLength, snapshotCrc);
+            } else {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // Drop a record which was only half written when the process stopped, and the mapped room after it
+                channel.truncate(validEnd);
+            }
+            return new MemberJournal(path, channel, Math.max(validEnd, HEADER_SIZE), snapshotLength, compactor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Method which records a returning member's visit
+     */
+    public void visit(long num){
+        ByteBuffer record = SCRATCH.get().record(9);
+        record.put(8, VISIT).putLong(9, num);
+        append(9);
+    }
+
+    /**
+     * Method which records a new member
+     */
+    public void newMember(long num, String name, int freq, long phone){
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = SCRATCH.get().record(21 + bytes.length);
+        record.put(8, NEW_MEMBER).putLong(9, num).putInt(17, freq).putLong(21, phone).put(29, bytes);
+        append(21 + bytes.length);
+    }
+
+    /**
+     * Method which copies the record put together in the thread's scratch buffer into the journal
+     */
+    private void append(int payload){
+        if(closed){
+            throw new IllegalStateException("Journal is closed");
+        }
+        if(failure!=null){
+            throw failure;
+        }
+        Scratch scratch = SCRATCH.get();
+        int size = recordSize(payload);
+        for(int at=8+payload; at<size; at++){
+            scratch.bytes[at]=0;
+        }
+        scratch.crc.reset();
+        scratch.crc.update(scratch.bytes, 8, payload);
+        scratch.buffer.putInt(4, (int) scratch.crc.getValue());
+
+        long start = tail.getAndAdd(size);
+        try {
+            copy(scratch, start, size, payload);
+        } catch (RuntimeException e) {
+            // The flusher waits for every reserved record, so the room must not be left empty
+            skip(scratch, start, size, e);
+            throw e;
+        }
+    }
+
+    private void copy(Scratch scratch, long start, int size, int payload){
+        Mapping current = this.mapping(start+size);
+        int offset = (int) (start-current.base);
+        current.buffer.put(offset+4, scratch.bytes, 4, size-4);
+        INTS.setRelease(current.buffer, offset, payload);
+    }
+
+    /**
+     * Method which fills room reserved for a record which could not be copied with a record which replaying passes
+     * over. If not even that can be copied, the journal fails, so the flusher stops waiting and syncs throw.
+     */
+    private void skip(Scratch scratch, long start, int size, RuntimeException cause){
+        try {
+            Arrays.fill(scratch.bytes, 8, size, (byte) 0);
+            scratch.bytes[8]=SKIPPED;
+            scratch.crc.reset();
+            scratch.crc.update(scratch.bytes, 8, size-8);
+            scratch.buffer.putInt(4, (int) scratch.crc.getValue());
+            copy(scratch, start, size, size-8);
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+            synchronized (this) {
+                if(failure==null){
+                    failure = new IllegalStateException("Could not write journal " + path, cause);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Method which gives a mapping of the journal reaching a position, mapping more of the file if it is too short
+     */
+    private Mapping mapping(long end){
+        Mapping current = mapping;
+        if(end-current.base <= current.buffer.capacity()){
+            return current;
+        }
+        synchronized (this) {
+            current = mapping;
+            long needed = end-current.base;
+            if(needed > current.buffer.capacity()){
+                if(needed > Integer.MAX_VALUE){
+                    throw new IllegalStateException("Journal " + path + " is too long to be mapped");
+                }
+                int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(needed, 2L*current.buffer.capacity()));
+                try {
+                    // The old mapping shows the same pages, so sessions still copying into it lose nothing
+                    current = new Mapping(channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), current.base);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                mapping = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Method which waits until every change recorded so far is on disk
+     * @throws UncheckedIOException if the journal could not be written
+     */
+    public synchronized void sync(){
+        long target = tail.get();
+        syncRequested=true;
+        notifyAll();
+        while(durable<target && failure==null && !closed){
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if(failure!=null){
+            throw failure;
+        }
+    }
+
+    /**
+     * Method which starts an empty journal for a snapshot which has just been written. It is only called by the
+     * Compactor, on the flusher thread, and the caller must keep new changes out while the snapshot is written. Records
+     * which were waiting to be written are already in the snapshot, so they are dropped.
+     * @param snapshotTemp: The new snapshot, which is moved over the old one once the empty journal is ready
+     * @param snapshotFile: Where the snapshot lives
+     * @return the CRC32C of the new snapshot
+     */
+    public synchronized int reset(Path snapshotTemp, Path snapshotFile) throws IOException {
+        long snapshotLength = Files.size(snapshotTemp);
+        int snapshotCrc = checksum(snapshotTemp);
+        Path journalTemp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(journalTemp);
+        FileChannel fresh = create(journalTemp, snapshotLength, snapshotCrc);
+
+        // The old journal does not match the new snapshot, so a crash between the two moves loses nothing
+        Files.move(snapshotTemp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(journalTemp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel.close();
+        channel=fresh;
+        compactThreshold=Math.max(MIN_COMPACT_BYTES, snapshotLength);
+        long end = tail.get();
+        mapping = new Mapping(fresh.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE+MAP_BYTES), end-HEADER_SIZE);
+        durable=end;
+        notifyAll();
+        return snapshotCrc;
+    }
+
+    /**
+     * Method which writes what is left and stops the flusher
+     */
+    @Override
+    public void close(){
+        sync();
+        synchronized (this) {
+            closed=true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Body of the flusher thread, which forces everything copied since its last write to disk as one batch
+     */
+    private void flushLoop(){
+        while(true){
+            synchronized (this) {
+                if(!syncRequested && !closed){
+                    try {
+                        wait(FLUSH_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if(closed){
+                    return;
+                }
+                syncRequested=false;
+            }
+
+            long from;
+            synchronized (this) {
+                from=durable;
+            }
+            long to = copiedUntil(from, tail.get());
+            if(to==from){
+                continue;
+            }
+            Mapping current = mapping;
+            boolean compact=false;
+            try {
+                current.buffer.force((int) (from-current.base), (int) (to-from));
+                compact = to-current.base > compactThreshold;
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    failure=e;
+                }
+            }
+
+            synchronized (this) {
+                durable=Math.max(durable, to);
+                notifyAll();
+            }
+
+            if(compact){
+                try {
+                    compactor.compact();
+                } catch (IOException e) {
+                    // The journal is still whole, so compaction can be tried again after the next batch
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Method which finds how far the records from a position are copied, waiting for the ones still being copied
+     * @param end: Where the records reserved so far end
+     */
+    private long copiedUntil(long position, long end){
+        while(position<end){
+            // Read again every time, as the session which reserved the room may be mapping more of the file for it
+            Mapping current = mapping;
+            int offset = (int) (position-current.base);
+            int payload = offset+4 <= current.buffer.capacity() ? (int) INTS.getAcquire(current.buffer, offset) : 0;
+            if(payload==0 && failure!=null){
+                // The record was never copied, nothing after it can be made durable
+                break;
+            } else if(payload==0){
+                Thread.yield();
+            } else {
+                position+=recordSize(payload);
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return the bytes a record with that much payload takes in the journal
+     */
+    private static int recordSize(int payload){
+        return 8 + payload + 7 & ~7;
+    }
+
+    private static FileChannel create(Path path, long snapshotLength, int snapshotCrc) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(snapshotLength).putInt(snapshotCrc).putInt(0).flip();
+        while(header.hasRemaining()){
+            channel.write(header);
+        }
+        channel.force(true);
+        return channel;
+    }
+
+    /**
+     * Method which applies a journal's records to the store
+     * @return the offset just after the last whole record, or -1 if the journal belongs to another snapshot
+     */
+    private static long replay(Path path, long snapshotLength, int snapshotCrc, MemberStore store) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size<HEADER_SIZE){
+                return -1;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int version = buffer.getInt(4);
+            if(buffer.getInt(0)!=MAGIC || (version!=VERSION && version!=UNPADDED_VERSION) ||
+                    buffer.getLong(8)!=snapshotLength || buffer.getInt(16)!=snapshotCrc){
+                return -1;
+            }
+
+            CRC32C crc = new CRC32C();
+            int position = HEADER_SIZE;
+            while(position+8 <= size){
+                int payloadLength = buffer.getInt(position);
+                int recordSize = version==VERSION ? recordSize(payloadLength) : 8+payloadLength;
+                if(payloadLength<9 || position+(long) recordSize > size){
+                    break;
+                }
+                ByteBuffer payload = buffer.duplicate();
+                payload.position(position+8).limit(position+8+payloadLength);
+                crc.reset();
+                crc.update(payload);
+                if((int) crc.getValue() != buffer.getInt(position+4)){
+                    break;
+                }
+                apply(buffer, position+8, payloadLength, store);
+                position+=recordSize;
+            }
+            return version==VERSION ? position : pad(path, buffer, position);
+        }
+    }
+
+    /**
+     * Method which rewrites the whole records of a journal of version 1 with the padding of the current version
+     * @param end: Where the whole records end
+     * @return where they end once padded
+     */
+    private static long pad(Path path, ByteBuffer old, int end) throws IOException {
+        // Every record is at least 17 bytes, so padding at most doubles the records
+        ByteBuffer padded = ByteBuffer.allocate(2*end);
+        padded.put(old.duplicate().position(0).limit(HEADER_SIZE)).putInt(4, VERSION);
+        for(int position=HEADER_SIZE; position<end; ){
+            int payload = old.getInt(position);
+            int start = padded.position();
+            padded.put(old.duplicate().position(position).limit(position+8+payload));
+            padded.position(start+recordSize(payload));
+            position+=8+payload;
+        }
+        padded.flip();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(padded.hasRemaining()){
+                channel.write(padded);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return padded.limit();
+    }
+
+    private static void apply(ByteBuffer buffer, int start, int length, MemberStore store){
+        byte type = buffer.get(start);
+        long num = buffer.getLong(start+1);
+        if(type==VISIT){
+            int row = store.find(num);
+            if(row>=0){
+                store.incrementFreq(row);
+            }
+        } else if(type==NEW_MEMBER && length>=21){
+            int freq = buffer.getInt(start+9);
+            long phone = buffer.getLong(start+13);
+            byte[] name = new byte[length-21];
+            buffer.get(start+21, name);
+            store.put(num, name, 0, name.length, freq, phone);
+        } else if(type==NEW_MEMBER_INT_PHONE && length>=17){
+            int freq = buffer.getInt(start+9);
+            int phone = buffer.getInt(start+13);
+            byte[] name = new byte[length-17];
+            buffer.get(start+17, name);
+            store.put(num, name, 0, name.length, freq, phone);
+        }
+    }
+
+    /**
+     * Method which works out the CRC32C of a whole file, or 0 if there is no such file
+     */
+    static int checksum(Path file) throws IOException {
+        if(!Files.exists(file)){
+            return 0;
+        }
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for(long position=0; position<size; position+=Integer.MAX_VALUE){
+                long length = Math.min(Integer.MAX_VALUE, size-position);
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The mapped journal file, whose first byte is at position base
+     */
+    private static final class Mapping {
+        private final MappedByteBuffer buffer;
+        private final long base;
+
+        private Mapping(MappedByteBuffer buffer, long base){
+            this.buffer=buffer;
+            this.base=base;
+        }
+    }
+
+    /**
+     * A thread's buffer for putting a record together before it is copied into the journal
+     */
+    private static final class Scratch {
+        private byte[] bytes = new byte[64];
+        private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        private final CRC32C crc = new CRC32C();
+
+        /**
+         * Method which gives the buffer with room for a record
+         * @throws IllegalArgumentException if the record would be too long for the journal
+         */
+        private ByteBuffer record(int payload){
+            if(payload<0 || payload>MAX_RECORD_BYTES-8){
+                throw new IllegalArgumentException("Journal record of " + payload + " bytes is too long");
+            }
+            if(bytes.length<recordSize(payload)){
+                bytes = new byte[Math.max(recordSize(payload), bytes.length*2)];
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,615 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The membership list kept as columns of primitive arrays instead of one Member object and one String key per member.
+ *
+ * Members are found by their membership number through an open-addressed table of long keys. Every member has a row
+ * number, and their visit count, phone number and name live in the columns under that row. Names are stored back to
+ * back as UTF-8 bytes, so the whole store is a handful of large arrays however many members there are.
+ *
+ * The store can be used by many sessions at once without locks. A new member claims a row with an atomic counter and
+ * a slot of the key table with a compare-and-set. Columns are split into fixed-size chunks which are never copied, so
+ * a growing store never moves a row under a reader. When the key table fills up, one thread freezes its empty slots
+ * and moves the keys to a bigger table while the others wait for it. Visit counts are bumped with an atomic add
+ * straight on the column, so the only contention is two sessions checking in the same member at the same moment.
+ *
+ * Members can also be found by phone number through a PhoneIndex, and by the start of their name through a NameIndex.
+ * Both are built the first time they are needed. Adding a member never touches them: it only moves a stamp on, and
+ * the next search which finds the stamp moved since the indexes were brought up to date adds the rows they have not
+ * seen yet. Bringing the indexes up to date is the one step which takes a lock, and only searches take it.
+ */
+public class MemberStore {
+
+    // Longest phone number taken, as in the international numbering plan
+    public static final int MAX_PHONE_DIGITS = 15;
+
+    // Marks an unused slot of the key table and a slot frozen while the table is being replaced
+    private static final long EMPTY = 0;
+    private static final long MOVED = -1;
+
+    // Rows are kept in chunks of this many, names in pages of this many bytes
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << (30 - CHUNK_BITS);
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int MAX_PAGES = 1 << 16;
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * The key table: the membership number in each slot and the row it points to, -1 until the row is published
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final int[] rows;
+        private final int mask;
+        private final AtomicInteger used = new AtomicInteger();
+
+        private Table(int capacity){
+            keys = new long[capacity];
+            rows = new int[capacity];
+            Arrays.fill(rows, -1);
+            mask = capacity-1;
+        }
+    }
+
+    /**
+     * The secondary indexes with the rows they hold: every row below scanned apart from those waiting, which had been
+     * handed out but held no member yet when they were looked at. The indexes hold every member published before the
+     * stamp was read.
+     */
+    private static final class Indexes {
+        private final PhoneIndex phones;
+        private final NameIndex names;
+        private final int scanned;
+        private final int[] waiting;
+        private final int stamp;
+
+        private Indexes(PhoneIndex phones, NameIndex names, int scanned, int[] waiting, int stamp){
+            this.phones=phones;
+            this.names=names;
+            this.scanned=scanned;
+            this.waiting=waiting;
+            this.stamp=stamp;
+        }
+    }
+
+    /**
+     * The columns of CHUNK_SIZE rows
+     */
+    private static final class Chunk {
+        private final long[] nums = new long[CHUNK_SIZE];
+        private final int[] freqs = new int[CHUNK_SIZE];
+        private final long[] phones = new long[CHUNK_SIZE];
+        private final long[] names = new long[CHUNK_SIZE];
+    }
+
+    private volatile Table table;
+    private final Object resizeLock = new Object();
+    private final AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicInteger nextRow = new AtomicInteger();
+    private final AtomicReferenceArray<byte[]> pages = new AtomicReferenceArray<>(MAX_PAGES);
+    private final AtomicLong nextNameByte = new AtomicLong();
+    // Moved on by every member published, held while the secondary indexes are brought up to date
+    private final AtomicInteger published = new AtomicInteger();
+    private final Object indexLock = new Object();
+    private volatile Indexes indexes;
+
+    public MemberStore(){
+        this(16);
+    }
+
+    /**
+     * Constructor for this class
+     * @param expected: How many members the store should hold before its key table has to grow
+     */
+    public MemberStore(int expected){
+        table = new Table(capacityFor(expected));
+    }
+
+    /**
+     * Method which gives the number of rows handed out, some of which may belong to a member who was never added
+     * because their membership number was taken. Such rows have membership number 0.
+     */
+    public int size(){
+        return Math.min(nextRow.get(), MAX_CHUNKS*CHUNK_SIZE);
+    }
+
+    /**
+     * Method which finds a member by their membership number
+     * @return the member's row, or -1 if there is no such member
+     */
+    public int find(long num){
+        if(num<=0){
+            return -1;
+        }
+        Table t = table;
+        int slot = slot(num, t.mask);
+        while(true){
+            long key = (long) LONGS.getAcquire(t.keys, slot);
+            if(key==num){
+                return awaitRow(t, slot);
+            }
+            if(key==EMPTY){
+                return -1;
+            }
+            if(key==MOVED){
+                // The table is being replaced, look again in the new one
+                t = awaitNewTable(t);
+                slot = slot(num, t.mask);
+                continue;
+            }
+            slot = (slot+1) & t.mask;
+        }
+    }
+
+    /**
+     * Method which gives a view of a member by their membership number
+     * @return the member, or null if there is no such member
+     */
+    public Member get(long num){
+        int row = find(num);
+        return row<0 ? null : new Member(this, row);
+    }
+
+    /**
+     * Method which adds a new member, unless the membership number is taken
+     * @return the new member's row, or -1 if the membership number is already taken
+     * @throws IllegalArgumentException if the membership number is not positive
+     */
+    public int add(long num, String name, int freq, long phone){
+        if(find(num)>=0){
+            return -1;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        return add(num, bytes, 0, bytes.length, freq, phone, false);
+    }
+
+    /**
+     * Method which adds a member or replaces the one with the same membership number, used while loading where a
+     * later row wins. Replacing is not safe while other threads use the member, so it is only done while loading.
+     * @param name: Array holding the member's name as UTF-8
+     * @param nameStart: Where the name starts in that array
+     * @param nameLength: How many bytes the name takes
+     * @return the member's row
+     */
+    public int put(long num, byte[] name, int nameStart, int nameLength, int freq, long phone){
+        return add(num, name, nameStart, nameLength, freq, phone, true);
+    }
+
+    private int add(long num, byte[] name, int nameStart, int nameLength, int freq, long phone, boolean replace){
+        if(num<=0){
+            throw new IllegalArgumentException("Membership number must be positive: " + num);
+        }
+        if(replace){
+            int row = find(num);
+            if(row>=0){
+                setRow(row, name, nameStart, nameLength, freq, phone);
+                if(indexes != null){
+                    synchronized (indexLock) {
+                        // The member's place in the indexes may have changed, they are built again when next needed
+                        indexes = null;
+                    }
+                }
+                return row;
+            }
+        }
+
+        int row = nextRow.getAndIncrement();
+        if(row >= MAX_CHUNKS*CHUNK_SIZE){
+            throw new IllegalStateException("Membership list is full");
+        }
+        setRow(row, name, nameStart, nameLength, freq, phone);
+        Chunk chunk = chunk(row);
+
+        Table t = table;
+        int slot = slot(num, t.mask);
+        while(true){
+            long key = (long) LONGS.getAcquire(t.keys, slot);
+            if(key==EMPTY){
+                if(LONGS.compareAndSet(t.keys, slot, EMPTY, num)){
+                    // The row only shows its number once the number can be found, so scanning the rows never
+                    // gives a member which find does not know yet
+                    LONGS.setRelease(chunk.nums, row & (CHUNK_SIZE-1), num);
+                    INTS.setRelease(t.rows, slot, row);
+                    // Moved on after the number is shown, so indexes stamped before this either saw the member or
+                    // are brought up to date by the next search
+                    published.incrementAndGet();
+                    if(t.used.incrementAndGet()*2 > t.keys.length){
+                        resize(t, t.keys.length*2);
+                    }
+                    return row;
+                }
+                continue;
+            }
+            if(key==num){
+                // Someone else took the number first, this row stays unused
+                return replace ? awaitRow(t, slot) : -1;
+            }
+            if(key==MOVED){
+                t = awaitNewTable(t);
+                slot = slot(num, t.mask);
+                continue;
+            }
+            slot = (slot+1) & t.mask;
+        }
+    }
+
+    private void setRow(int row, byte[] name, int nameStart, int nameLength, int freq, long phone){
+        Chunk chunk = chunk(row);
+        int index = row & (CHUNK_SIZE-1);
+        chunk.names[index] = storeName(name, nameStart, nameLength);
+        chunk.freqs[index] = freq;
+        chunk.phones[index] = phone;
+    }
+
+    public long num(int row){
+        return (long) LONGS.getAcquire(chunk(row).nums, row & (CHUNK_SIZE-1));
+    }
+
+    public String name(int row){
+        long ref = chunk(row).names[row & (CHUNK_SIZE-1)];
+        return new String(namePage(ref), nameOffset(ref), nameLength(ref), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method which gives the page holding the member's name as UTF-8, starting at nameOffset(row), so the name can
+     * be written out without decoding it
+     */
+    public byte[] namePage(int row){
+        return namePage(chunk(row).names[row & (CHUNK_SIZE-1)]);
+    }
+
+    public int nameOffset(int row){
+        return nameOffset(chunk(row).names[row & (CHUNK_SIZE-1)]);
+    }
+
+    public int nameLength(int row){
+        return nameLength(chunk(row).names[row & (CHUNK_SIZE-1)]);
+    }
+
+    public int freq(int row){
+        return (int) INTS.getOpaque(chunk(row).freqs, row & (CHUNK_SIZE-1));
+    }
+
+    public long phone(int row){
+        return chunk(row).phones[row & (CHUNK_SIZE-1)];
+    }
+
+    /**
+     * Method which finds the members with a phone number
+     * @param rows: Filled with the members' rows
+     * @return how many members were found, at most rows.length
+     */
+    public int findByPhone(long phone, int[] rows){
+        return indexes().phones.find(phone, this, rows);
+    }
+
+    /**
+     * Method which finds the members whose name starts with some text, ignoring the case of ASCII letters
+     * @param rows: Filled with the members' rows, mostly in order of their names
+     * @return how many members were found, at most rows.length
+     */
+    public int findByName(CharSequence prefix, int[] rows){
+        return indexes().names.find(this, prefix, rows);
+    }
+
+    /**
+     * Method which builds the phone and name indexes unless they are already there, so the first search does not
+     * have to wait for them
+     */
+    public void buildIndexes(){
+        indexes();
+    }
+
+    /**
+     * Method which gives the secondary indexes holding every member added so far, building them or adding the
+     * members published since they were last brought up to date
+     */
+    private Indexes indexes(){
+        Indexes current = indexes;
+        if(current != null && current.stamp == published.get()){
+            return current;
+        }
+        synchronized (indexLock) {
+            current = indexes;
+            // Read before the rows, so a member published after this moves the stamp on and is added next time
+            int stamp = published.get();
+            if(current != null && current.stamp == stamp){
+                return current;
+            }
+            int[] waiting = current == null ? new int[0] : current.waiting;
+            int from = current == null ? 0 : current.scanned;
+            int to = size();
+            int[] added = new int[waiting.length + to - from];
+            int[] stillWaiting = new int[added.length];
+            int addedCount=0;
+            int waitingCount=0;
+            for(int i=0; i<waiting.length+to-from; i++){
+                int row = i<waiting.length ? waiting[i] : from + i - waiting.length;
+                if(num(row)!=0){
+                    added[addedCount++]=row;
+                } else {
+                    stillWaiting[waitingCount++]=row;
+                }
+            }
+
+            PhoneIndex phones = current == null ? new PhoneIndex(addedCount) : current.phones;
+            for(int i=0; i<addedCount; i++){
+                phones.add(phone(added[i]), added[i]);
+            }
+            NameIndex names = current == null ? NameIndex.build(this, added, addedCount) :
+                    current.names.with(this, added, addedCount);
+            current = new Indexes(phones, names, to, Arrays.copyOf(stillWaiting, waitingCount), stamp);
+            indexes = current;
+            return current;
+        }
+    }
+
+    /**
+     * Method which counts one more visit for a member
+     * @return the member's visit count including this visit
+     */
+    public int incrementFreq(int row){
+        return (int) INTS.getAndAdd(chunk(row).freqs, row & (CHUNK_SIZE-1), 1) + 1;
+    }
+
+    /**
+     * Method which makes room for more members up front, so that loading a large file does not grow the key table
+     * step by step
+     * @param members: How many members the store should be able to hold
+     */
+    public void ensureCapacity(int members){
+        Table t = table;
+        while(members*2 > t.keys.length){
+            resize(t, capacityFor(members));
+            t = table;
+        }
+    }
+
+    /**
+     * Method which works out how much memory the store's arrays take up
+     * @return the size of the arrays in bytes, without the few object headers
+     */
+    public long memoryBytes(){
+        long bytes = table.keys.length*12L;
+        int rows = size();
+        bytes += (long) ((rows + CHUNK_SIZE - 1) >> CHUNK_BITS) * CHUNK_SIZE * 28L;
+        long nameBytes = nextNameByte.get();
+        bytes += ((nameBytes + PAGE_SIZE - 1) >> PAGE_BITS) * PAGE_SIZE;
+        Indexes secondary = indexes;
+        if(secondary != null){
+            bytes += secondary.phones.memoryBytes() + secondary.names.memoryBytes() + secondary.waiting.length*4L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Method which reads a membership number as typed by a customer without creating objects
+     * @return the number, or -1 if the text is not a valid membership number
+     */
+    public static long parseNum(CharSequence text){
+        int length = text.length();
+        if(length==0 || length>18){
+            return -1;
+        }
+        long num=0;
+        for(int i=0; i<length; i++){
+            char c = text.charAt(i);
+            if(c<'0' || c>'9'){
+                return -1;
+            }
+            num=num*10+(c-'0');
+        }
+        return num>0 ? num : -1;
+    }
+
+    /**
+     * Method which reads a phone number as typed by a customer, the same rule holding for registering and for looking
+     * members up
+     * @return the number, or -1 if the text is not 1 to MAX_PHONE_DIGITS digits
+     */
+    public static long parsePhone(CharSequence text){
+        int length = text.length();
+        if(length==0 || length>MAX_PHONE_DIGITS){
+            return -1;
+        }
+        long phone=0;
+        for(int i=0; i<length; i++){
+            char c = text.charAt(i);
+            if(c<'0' || c>'9'){
+                return -1;
+            }
+            phone=phone*10+(c-'0');
+        }
+        return phone;
+    }
+
+    /**
+     * Method which writes the store's arrays out as they are, for a BinarySnapshot. Nothing may be added to the store
+     * while it is written.
+     */
+    void writeColumns(BinarySnapshot.Sink out) throws IOException {
+        Table t = table;
+        int rows = size();
+        long nameBytes = nextNameByte.get();
+        out.putInt(rows);
+        out.putLong(nameBytes);
+        out.putInt(t.keys.length);
+        out.putInt(t.used.get());
+        for(int start=0; start<rows; start+=CHUNK_SIZE){
+            Chunk chunk = chunk(start);
+            int length = Math.min(CHUNK_SIZE, rows-start);
+            out.putLongs(chunk.nums, length);
+            out.putInts(chunk.freqs, length);
+            out.putLongs(chunk.phones, length);
+            out.putLongs(chunk.names, length);
+        }
+        for(long start=0; start<nameBytes; start+=PAGE_SIZE){
+            out.putBytes(pages.get((int) (start >>> PAGE_BITS)), (int) Math.min(PAGE_SIZE, nameBytes-start));
+        }
+        out.putLongs(t.keys, t.keys.length);
+        out.putInts(t.rows, t.keys.length);
+    }
+
+    /**
+     * Method which builds a store straight from the arrays of a BinarySnapshot, without adding the members one by one
+     */
+    static MemberStore readColumns(BinarySnapshot.Source in) throws IOException {
+        int rows = in.getInt();
+        long nameBytes = in.getLong();
+        int capacity = in.getInt();
+        int used = in.getInt();
+        if(rows<0 || nameBytes<0 || nameBytes > (long) MAX_PAGES*PAGE_SIZE || Integer.bitCount(capacity)!=1 ||
+                used<0 || used*2L>capacity){
+            throw new IOException("Invalid membership columns");
+        }
+
+        MemberStore store = new MemberStore();
+        for(int start=0; start<rows; start+=CHUNK_SIZE){
+            Chunk chunk = store.chunk(start);
+            int length = Math.min(CHUNK_SIZE, rows-start);
+            in.getLongs(chunk.nums, length);
+            in.getInts(chunk.freqs, length);
+            in.getLongs(chunk.phones, length);
+            in.getLongs(chunk.names, length);
+        }
+        for(long start=0; start<nameBytes; start+=PAGE_SIZE){
+            byte[] page = new byte[PAGE_SIZE];
+            in.getBytes(page, (int) Math.min(PAGE_SIZE, nameBytes-start));
+            store.pages.set((int) (start >>> PAGE_BITS), page);
+        }
+        Table t = new Table(capacity);
+        in.getLongs(t.keys, capacity);
+        in.getInts(t.rows, capacity);
+        t.used.set(used);
+
+        store.nextRow.set(rows);
+        store.nextNameByte.set(nameBytes);
+        store.table = t;
+        return store;
+    }
+
+    private Chunk chunk(int row){
+        int index = row >>> CHUNK_BITS;
+        Chunk chunk = chunks.get(index);
+        if(chunk==null){
+            chunks.compareAndSet(index, null, new Chunk());
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Method which copies a name into the name pages. A name never spans two pages, so a page's unused tail is
+     * skipped when the next name does not fit in it.
+     * @return the name's reference: page, offset in the page and length packed into a long
+     */
+    private long storeName(byte[] name, int start, int length){
+        if(length>=PAGE_SIZE){
+            throw new IllegalArgumentException("Name is too long");
+        }
+        long position;
+        while(true){
+            long current = nextNameByte.get();
+            long offset = current & (PAGE_SIZE-1);
+            position = offset+length > PAGE_SIZE ? (current | (PAGE_SIZE-1)) + 1 : current;
+            if(nextNameByte.compareAndSet(current, position+length)){
+                break;
+            }
+        }
+        int pageIndex = (int) (position >>> PAGE_BITS);
+        if(pageIndex>=MAX_PAGES){
+            throw new IllegalStateException("Member names are full");
+        }
+        byte[] page = pages.get(pageIndex);
+        if(page==null){
+            pages.compareAndSet(pageIndex, null, new byte[PAGE_SIZE]);
+            page = pages.get(pageIndex);
+        }
+        System.arraycopy(name, start, page, (int) (position & (PAGE_SIZE-1)), length);
+        return (position << 20) | length;
+    }
+
+    private byte[] namePage(long ref){
+        return pages.get((int) ((ref >>> 20) >>> PAGE_BITS));
+    }
+
+    private static int nameOffset(long ref){
+        return (int) ((ref >>> 20) & (PAGE_SIZE-1));
+    }
+
+    private static int nameLength(long ref){
+        return (int) (ref & ((1 << 20) - 1));
+    }
+
+    private static int slot(long num, int mask){
+        long h = num * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static int capacityFor(int members){
+        return Integer.highestOneBit(Math.max(16, members)*2 - 1) << 1;
+    }
+
+    /**
+     * Method which waits for a key's row, which its adder publishes just after claiming the slot
+     */
+    private static int awaitRow(Table t, int slot){
+        int row;
+        while((row = (int) INTS.getAcquire(t.rows, slot)) < 0){
+            Thread.onSpinWait();
+        }
+        return row;
+    }
+
+    private Table awaitNewTable(Table old){
+        Table t;
+        while((t = table) == old){
+            Thread.onSpinWait();
+        }
+        return t;
+    }
+
+    /**
+     * Method which replaces the key table with a bigger one. Empty slots of the old table are frozen first, so no
+     * new key can land in it after it has been copied; adders who meet a frozen slot wait for the new table.
+     */
+    private void resize(Table old, int capacity){
+        synchronized (resizeLock) {
+            if(table!=old){
+                return;
+            }
+            Table fresh = new Table(capacity);
+            for(int slot=0; slot<old.keys.length; slot++){
+                long key;
+                while((key = (long) LONGS.getAcquire(old.keys, slot)) == EMPTY){
+                    if(LONGS.compareAndSet(old.keys, slot, EMPTY, MOVED)){
+                        key = MOVED;
+                        break;
+                    }
+                }
+                if(key!=MOVED){
+                    int row = awaitRow(old, slot);
+                    int target = slot(key, fresh.mask);
+                    while(fresh.keys[target]!=EMPTY){
+                        target = (target+1) & fresh.mask;
+                    }
+                    fresh.keys[target]=key;
+                    fresh.rows[target]=row;
+                    fresh.used.incrementAndGet();
+                }
+            }
+            table = fresh;
+        }
+    }
+}
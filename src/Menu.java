@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * The restaurant's menu once it has been loaded, compiled into an immutable catalog. Each dish has a dense id from 0
+ * to size()-1 and its name and price in cents are kept in primitive arrays under that id.
+ *
+ * Dishes are found by name without caring about case and without creating any new String: the names are hashed
+ * character by character into an open-addressed table, whose seed is picked when the menu is compiled so that every
+ * dish of a small menu lands in its own slot.
+ */
+public class Menu {
+
+    // How many seeds are tried to find one which gives every dish its own slot
+    private static final int SEED_ATTEMPTS = 64;
+
+    private final String[] names;
+    private final long[] prices;
+    private final int[] slots;
+    private final int mask;
+    private final int seed;
+    private volatile MenuRenderer renderer;
+
+    /**
+     * Constructor for this class
+     * @param names: The names of the dishes, in the order they are listed
+     * @param prices: The price of each dish in cents, under the same index as its name
+     * @throws IllegalArgumentException if the arrays differ in length or a dish is listed twice
+     */
+    public Menu(String[] names, long[] prices){
+        if(names.length != prices.length){
+            throw new IllegalArgumentException("Every dish needs exactly one price");
+        }
+        this.names=names.clone();
+        this.prices=prices.clone();
+
+        int capacity = Integer.highestOneBit(Math.max(4, names.length*4) - 1) << 1;
+        this.mask=capacity-1;
+
+        int bestSeed=0;
+        int bestCollisions=Integer.MAX_VALUE;
+        for(int attempt=0; attempt<SEED_ATTEMPTS && bestCollisions>0; attempt++){
+            int candidate = 0x9E3779B9 * (attempt+1);
+            int collisions = collisions(candidate);
+            if(collisions<bestCollisions){
+                bestCollisions=collisions;
+                bestSeed=candidate;
+            }
+        }
+        this.seed=bestSeed;
+
+        this.slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        for(int item=0; item<names.length; item++){
+            if(indexOf(names[item]) >= 0){
+                throw new IllegalArgumentException("Dish listed twice: " + names[item]);
+            }
+            int slot = hash(names[item], seed) & mask;
+            while(slots[slot] >= 0){
+                slot = (slot+1) & mask;
+            }
+            slots[slot]=item;
+        }
+    }
+
+    /**
+     * Method which finds a dish by its name, in any mix of upper and lower case
+     * @param name: The name of the dish
+     * @return the dish's id, or -1 if the dish is not in the menu
+     */
+    public int indexOf(CharSequence name){
+        int slot = hash(name, seed) & mask;
+        int item;
+        while((item = slots[slot]) >= 0){
+            if(sameName(names[item], name)){
+                return item;
+            }
+            slot = (slot+1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Method which gives the renderer drawing this menu's tables, made the first time it is needed
+     */
+    public MenuRenderer renderer(){
+        MenuRenderer current = renderer;
+        if(current == null){
+            // Two threads may both make one, which does no harm as they are the same
+            current = new MenuRenderer(this);
+            renderer = current;
+        }
+        return current;
+    }
+
+    public int size(){
+        return names.length;
+    }
+
+    public String name(int item){
+        return names[item];
+    }
+
+    public long price(int item){
+        return prices[item];
+    }
+
+    private int collisions(int candidate){
+        boolean[] used = new boolean[mask+1];
+        int collisions=0;
+        for(String name:names){
+            int slot = hash(name, candidate) & mask;
+            if(used[slot]){
+                collisions++;
+            }
+            used[slot]=true;
+        }
+        return collisions;
+    }
+
+    /**
+     * Method which hashes a name the same way whatever its case
+     */
+    private static int hash(CharSequence name, int seed){
+        int h = seed;
+        for(int i=0; i<name.length(); i++){
+            h = (h ^ Character.toUpperCase(name.charAt(i))) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameName(String dish, CharSequence name){
+        if(dish.length() != name.length()){
+            return false;
+        }
+        for(int i=0; i<dish.length(); i++){
+            char a = dish.charAt(i);
+            char b = name.charAt(i);
+            if(a != b && Character.toUpperCase(a) != Character.toUpperCase(b)){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,246 @@
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Draws the menu and bills of one Menu as complete tables of bytes, which are then written to the output in one go
+ * instead of one print call per cell and per padding space.
+ *
+ * The whole menu table and the "|NAME   |" start of every dish's row are rendered once, when the renderer is made.
+ * Bill lines of more than one portion are drawn as "|NAME x3   |" with the price of all the portions, and the combos
+ * an order completes follow the dishes with the amount they take off.
+ * Bills are built in a buffer which each thread reuses, so the renderer can be shared by any number of sessions.
+ *
+ * Dishes are listed in the order they always were, from when the menu and the orders were HashMaps keyed by the
+ * dishes' names: grouped by the bucket of their name's hash, and in the order they were added within a bucket.
+ */
+public class MenuRenderer {
+
+    // Constant variables
+    private static final int LENGTH = 50;
+    private static final int PRICE_WIDTH = 6;
+
+    private static final byte[] LINE = ascii("-----------------------------------------------------------\n");
+    private static final byte[] FOOD_HEADER = ascii("|                       FOOD                       |PRICE |\n");
+    private static final byte[] BILL_HEADER = ascii("|                           BILL                          |\n");
+    private static final byte[] TOTAL = ascii("TOTAL: $");
+    private static final byte[] SPACES = ascii("   ");
+
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private final Menu menu;
+    private final byte[][] rowStarts;
+    private final byte[][] names;
+    private final int[] nameLengths;
+    // Each dish's name hash spread as a HashMap spreads it, whose low bits give its bucket
+    private final int[] buckets;
+    private final byte[] menuTable;
+
+    /**
+     * Constructor for this class
+     * @param menu: The menu whose tables are drawn
+     */
+    public MenuRenderer(Menu menu){
+        this.menu=menu;
+        this.rowStarts = new byte[menu.size()][];
+        this.names = new byte[menu.size()][];
+        this.nameLengths = new int[menu.size()];
+        this.buckets = new int[menu.size()];
+        for(int item=0; item<menu.size(); item++){
+            int hash = menu.name(item).hashCode();
+            buckets[item] = hash ^ (hash >>> 16);
+            byte[] name = menu.name(item).getBytes(StandardCharsets.UTF_8);
+            names[item]=name;
+            nameLengths[item]=menu.name(item).length();
+            int padding = Math.max(0, LENGTH - menu.name(item).length());
+            byte[] start = new byte[name.length + padding + 2];
+            start[0]='|';
+            System.arraycopy(name, 0, start, 1, name.length);
+            Arrays.fill(start, 1 + name.length, start.length-1, (byte) ' ');
+            start[start.length-1]='|';
+            rowStarts[item]=start;
+        }
+
+        Buffer buffer = new Buffer();
+        buffer.append(LINE).append(FOOD_HEADER).append(LINE);
+        int[] items = new int[menu.size()];
+        for(int item=0; item<items.length; item++){
+            items[item]=item;
+        }
+        hashMapOrder(items, items.length, null);
+        for(int item:items){
+            appendRow(buffer, item, menu.price(item));
+        }
+        buffer.append(LINE);
+        this.menuTable = Arrays.copyOf(buffer.bytes, buffer.size);
+    }
+
+    /**
+     * Method which shows the whole menu with its prices
+     */
+    public void writeMenu(PrintStream out){
+        out.write(menuTable, 0, menuTable.length);
+    }
+
+    /**
+     * Method which shows the bill of an order
+     * @param order: The order being billed
+     * @param pricing: The promotions, whose combos are listed under the dishes
+     * @param table: The price of each dish for this diner
+     * @param total: The total of the bill in cents
+     */
+    public void writeBill(PrintStream out, Order order, PricingEngine pricing, PricingEngine.PriceTable table,
+                          long total){
+        Buffer buffer = BUFFERS.get();
+        buffer.size=0;
+        buffer.append(LINE).append(BILL_HEADER).append(LINE).append((byte) '\n');
+        buffer.append(LINE).append(FOOD_HEADER).append(LINE);
+        int[] lines = buffer.lines(order.size());
+        for(int line=0; line<order.size(); line++){
+            lines[line]=line;
+        }
+        hashMapOrder(lines, order.size(), order);
+        for(int i=0; i<order.size(); i++){
+            int line = lines[i];
+            int item = order.item(line);
+            int quantity = order.quantity(line);
+            long each = table.price(item);
+            if(quantity==1){
+                appendRow(buffer, item, each);
+            } else {
+                appendRow(buffer, names[item], nameLengths[item], quantity, each*quantity);
+            }
+        }
+        for(int combo=0; combo<pricing.comboCount(); combo++){
+            int sets = pricing.comboSets(combo, order);
+            if(sets>0){
+                String name = pricing.comboName(combo);
+                appendRow(buffer, name.getBytes(StandardCharsets.UTF_8), name.length(), sets,
+                        -pricing.comboAmountOff(combo)*sets);
+            }
+        }
+        buffer.append(LINE).append(TOTAL);
+        buffer.appendCents(total, true).append((byte) '\n');
+        buffer.append(LINE);
+        out.write(buffer.bytes, 0, buffer.size);
+    }
+
+    private void appendRow(Buffer buffer, int item, long cents){
+        buffer.append(rowStarts[item]);
+        appendPrice(buffer, cents);
+    }
+
+    private void appendRow(Buffer buffer, byte[] name, int nameLength, int quantity, long cents){
+        buffer.append((byte) '|').append(name);
+        int written = nameLength;
+        if(quantity!=1){
+            buffer.append((byte) ' ').append((byte) 'x');
+            int quantityStart = buffer.size;
+            buffer.appendCount(quantity);
+            written += 2 + buffer.size - quantityStart;
+        }
+        for(int i=written; i<LENGTH; i++){
+            buffer.append((byte) ' ');
+        }
+        buffer.append((byte) '|');
+        appendPrice(buffer, cents);
+    }
+
+    private static void appendPrice(Buffer buffer, long cents){
+        int priceStart = buffer.size;
+        buffer.appendCents(cents, false);
+        int priceLength = buffer.size - priceStart;
+        // Prices of 4 to 6 characters fill the column, any other length gets three spaces
+        int padding = priceLength>=4 && priceLength<=PRICE_WIDTH ? PRICE_WIDTH-priceLength : SPACES.length;
+        buffer.append(SPACES, padding).append((byte) '|').append((byte) '\n');
+    }
+
+    /**
+     * Method which sorts dishes into the order a HashMap holding their names would list them in
+     * @param entries: The dishes, or the lines of an order, in the order they were added, sorted in place
+     * @param count: How many entries there are
+     * @param order: The order whose lines the entries are, or null if they are dishes
+     */
+    private void hashMapOrder(int[] entries, int count, Order order){
+        // The capacity such a HashMap grows to, at its load factor of 0.75
+        int capacity=16;
+        while(count > capacity/4*3){
+            capacity*=2;
+        }
+        int mask = capacity-1;
+        // An insertion sort, as bills have a few lines and entries keep their order within a bucket
+        for(int i=1; i<count; i++){
+            int entry = entries[i];
+            int bucket = buckets[order == null ? entry : order.item(entry)] & mask;
+            int j=i-1;
+            while(j>=0 && (buckets[order == null ? entries[j] : order.item(entries[j])] & mask) > bucket){
+                entries[j+1]=entries[j];
+                j--;
+            }
+            entries[j+1]=entry;
+        }
+    }
+
+    private static byte[] ascii(String text){
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Growable array of bytes which a thread reuses for every bill it draws
+     */
+    private static final class Buffer {
+        private byte[] bytes = new byte[4096];
+        private int size=0;
+        private int[] lines = new int[16];
+
+        private Buffer append(byte[] data){
+            return append(data, data.length);
+        }
+
+        private Buffer append(byte[] data, int length){
+            ensure(length);
+            System.arraycopy(data, 0, bytes, size, length);
+            size+=length;
+            return this;
+        }
+
+        private Buffer append(byte b){
+            ensure(1);
+            bytes[size++]=b;
+            return this;
+        }
+
+        private Buffer appendCount(int count){
+            ensure(10);
+            int end = size + (count<10 ? 1 : (int) Math.log10(count) + 1);
+            for(int i=end-1; i>=size; i--){
+                bytes[i]=(byte) ('0' + count%10);
+                count/=10;
+            }
+            size=end;
+            return this;
+        }
+
+        private Buffer appendCents(long cents, boolean grouped){
+            ensure(Money.MAX_LENGTH);
+            size = Money.write(bytes, size, cents, grouped);
+            return this;
+        }
+
+        /**
+         * Method which gives the buffer's array for the lines of a bill, with room for at least count of them
+         */
+        private int[] lines(int count){
+            if(lines.length<count){
+                lines = new int[Math.max(count, lines.length*2)];
+            }
+            return lines;
+        }
+
+        private void ensure(int extra){
+            if(size+extra > bytes.length){
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length*2, size+extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * One version of the menu together with the promotions compiled for it. The Restaurant swaps in a whole new snapshot
+ * when Menu.csv or Pricing.csv changes, so a session which keeps the snapshot it started with sees dishes, prices and
+ * promotions which belong together until its visit is over, without taking any lock.
+ */
+public final class MenuSnapshot {
+
+    private final long version;
+    private final Menu menu;
+    private final PricingEngine pricing;
+
+    /**
+     * Constructor for this class
+     * @param version: Counts the menus loaded so far, starting at 1
+     * @param pricing: The promotions, compiled for the menu
+     */
+    public MenuSnapshot(long version, Menu menu, PricingEngine pricing){
+        if(pricing.getMenu() != menu){
+            throw new IllegalArgumentException("The promotions were compiled for another menu");
+        }
+        this.version=version;
+        this.menu=menu;
+        this.pricing=pricing;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Menu getMenu() {
+        return menu;
+    }
+
+    public PricingEngine getPricing() {
+        return pricing;
+    }
+}
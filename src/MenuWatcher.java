@@ -0,0 +1,118 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches Menu.csv and Pricing.csv and has the Restaurant load them again when they change. The files are parsed on
+ * the watcher's own thread and the result is swapped in as one new MenuSnapshot, so sessions going on at the time
+ * are never held up. Editors often save a file in several steps, so the watcher waits until the folder has been
+ * quiet for a moment before it loads anything.
+ */
+public class MenuWatcher implements Closeable {
+
+    // How long the folder must be quiet before a change is loaded
+    private static final long QUIET_MILLIS = 200;
+
+    private final Restaurant restaurant;
+    private final Path menuFile;
+    private final Path pricingFile;
+    private final WatchService watcher;
+    private final Thread thread;
+    private volatile long reloads=0;
+
+    /**
+     * Constructor for this class, watching starts straight away
+     * @param restaurant: The restaurant whose menu is kept up to date
+     * @param menuFile: The .csv file of the menu
+     * @param pricingFile: The .csv file of the promotion rules, in the same folder as the menu
+     */
+    public MenuWatcher(Restaurant restaurant, String menuFile, String pricingFile) throws IOException {
+        this.restaurant=restaurant;
+        this.menuFile=Path.of(menuFile).toAbsolutePath();
+        this.pricingFile=Path.of(pricingFile).toAbsolutePath();
+        this.watcher=FileSystems.getDefault().newWatchService();
+        this.menuFile.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        if(!this.pricingFile.getParent().equals(this.menuFile.getParent())){
+            this.pricingFile.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        this.thread = new Thread(this::watch, "menu-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method which the watcher's thread runs until the watcher is closed
+     */
+    private void watch(){
+        boolean running=true;
+        while(running){
+            try {
+                WatchKey key = watcher.take();
+                boolean menuChanged=false;
+                boolean pricingChanged=false;
+                // Keep collecting changes until the folder has been quiet for a moment
+                while(key != null){
+                    Path folder = (Path) key.watchable();
+                    for(WatchEvent<?> event:key.pollEvents()){
+                        if(event.kind()==StandardWatchEventKinds.OVERFLOW){
+                            menuChanged=true;
+                            pricingChanged=true;
+                            continue;
+                        }
+                        Path changed = folder.resolve((Path) event.context());
+                        menuChanged |= changed.equals(menuFile);
+                        pricingChanged |= changed.equals(pricingFile);
+                    }
+                    key.reset();
+                    key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                reload(menuChanged, pricingChanged);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                running=false;
+            }
+        }
+    }
+
+    private void reload(boolean menuChanged, boolean pricingChanged){
+        if(!menuChanged && !pricingChanged){
+            return;
+        }
+        try {
+            if(menuChanged){
+                restaurant.loadMenu(menuFile.toString());
+            }
+            if(pricingChanged){
+                restaurant.loadPricing(pricingFile.toString());
+            }
+            reloads++;
+        } catch (RuntimeException e) {
+            // A broken file must not take the running menu down, the last good one stays in use
+            System.err.println("WARNING: the menu was not reloaded, " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return how many times the menu or the promotions were loaded again
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    /**
+     * Method which stops watching the files
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+        thread.interrupt();
+    }
+}
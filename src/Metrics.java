@@ -0,0 +1,270 @@
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures where the time of a visit goes and how often lookups miss. Each phase of a visit has its own
+ * LatencyHistogram, and counters are LongAdders, so recording never takes a lock and costs two reads of the clock
+ * per phase. Measuring can be turned off with -Drestaurant.metrics=false.
+ *
+ * The numbers can be read through JMX once published, and with -Drestaurant.metrics.file=<file> they are also
+ * appended to a file every -Drestaurant.metrics.interval seconds (10 by default).
+ */
+public class Metrics implements MetricsMXBean {
+
+    private static final boolean ENABLED = !"false".equals(System.getProperty("restaurant.metrics"));
+
+    /**
+     * The parts of a visit which are timed, SESSION being the whole visit
+     */
+    public enum Phase {
+        SEATING, ORDER, SERVE, BILL, MEMBERSHIP, DISCOUNT, CASH_PAYMENT, CARD_PAYMENT, SESSION
+    }
+
+    private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+    private final LongAdder menuHits = new LongAdder();
+    private final LongAdder menuMisses = new LongAdder();
+    private final LongAdder memberHits = new LongAdder();
+    private final LongAdder memberMisses = new LongAdder();
+    private final LongAdder idRetries = new LongAdder();
+    private volatile LongSupplier allocatorRetries = () -> 0;
+    private volatile long allocatorRetriesAtReset=0;
+
+    /**
+     * Constructor for this class
+     */
+    public Metrics(){
+        for(int i=0; i<phases.length; i++){
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Method which reads the clock at the start of a phase
+     * @return the start to give to stop, or 0 when measuring is turned off
+     */
+    public long start(){
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Method which records how long a phase took
+     * @param phase: The phase which has just finished
+     * @param start: What start returned when the phase began
+     */
+    public void stop(Phase phase, long start){
+        if(ENABLED){
+            phases[phase.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    public void menuHit(){
+        menuHits.increment();
+    }
+
+    public void menuMiss(){
+        menuMisses.increment();
+    }
+
+    public void memberHit(){
+        memberHits.increment();
+    }
+
+    public void memberMiss(){
+        memberMisses.increment();
+    }
+
+    /**
+     * Method which counts a membership number which had to be given out again because it was already taken
+     */
+    public void idRetry(){
+        idRetries.increment();
+    }
+
+    /**
+     * Method which also counts the compare-and-set retries of the membership number allocator
+     * @param retries: Gives the allocator's retries so far
+     */
+    public void watchIdAllocator(LongSupplier retries){
+        this.allocatorRetries=retries;
+        this.allocatorRetriesAtReset=retries.getAsLong();
+    }
+
+    public LatencyHistogram.Snapshot snapshot(Phase phase){
+        return phases[phase.ordinal()].snapshot();
+    }
+
+    @Override
+    public long getSessions() {
+        return phases[Phase.SESSION.ordinal()].snapshot().getCount();
+    }
+
+    @Override
+    public long getMenuHits() {
+        return menuHits.sum();
+    }
+
+    @Override
+    public long getMenuMisses() {
+        return menuMisses.sum();
+    }
+
+    @Override
+    public long getMemberHits() {
+        return memberHits.sum();
+    }
+
+    @Override
+    public long getMemberMisses() {
+        return memberMisses.sum();
+    }
+
+    @Override
+    public long getIdAllocationRetries() {
+        return idRetries.sum() + allocatorRetries.getAsLong() - allocatorRetriesAtReset;
+    }
+
+    @Override
+    public PhaseStatistics[] getPhases() {
+        Phase[] values = Phase.values();
+        PhaseStatistics[] statistics = new PhaseStatistics[values.length];
+        for(int i=0; i<values.length; i++){
+            statistics[i] = new PhaseStatistics(values[i].name(), phases[i].snapshot());
+        }
+        return statistics;
+    }
+
+    @Override
+    public void reset() {
+        for(LatencyHistogram phase:phases){
+            phase.reset();
+        }
+        menuHits.reset();
+        menuMisses.reset();
+        memberHits.reset();
+        memberMisses.reset();
+        idRetries.reset();
+        allocatorRetriesAtReset=allocatorRetries.getAsLong();
+    }
+
+    /**
+     * Method which makes the numbers readable through JMX, and starts writing them to the file given with
+     * -Drestaurant.metrics.file
+     * @param name: Tells apart restaurants running in the same program
+     */
+    public void publish(String name){
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("restaurant:type=Metrics,name=" + ObjectName.quote(name)));
+        } catch (InstanceAlreadyExistsException e) {
+            // Another restaurant of the same name is already published
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not publish the metrics", e);
+        }
+
+        String file = System.getProperty("restaurant.metrics.file");
+        if(file != null){
+            long interval = Long.getLong("restaurant.metrics.interval", 10);
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(() -> dump(Path.of(file)), interval, interval, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(Path.of(file))));
+        }
+    }
+
+    /**
+     * Method which appends the numbers so far to a file, with the time they were taken
+     * @param file: The file to add to, created if it is missing
+     */
+    public void dump(Path file){
+        String text = "# " + Instant.now() + System.lineSeparator() + this + System.lineSeparator();
+        try {
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-13s %10s %10s %10s %10s %10s %10s%n",
+                "phase", "count", "mean us", "p50 us", "p90 us", "p99 us", "max us"));
+        for(PhaseStatistics phase:getPhases()){
+            text.append(String.format("%-13s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", phase.getName(),
+                    phase.getCount(), phase.getMeanMicros(), phase.getP50Micros(), phase.getP90Micros(),
+                    phase.getP99Micros(), phase.getMaxMicros()));
+        }
+        text.append(String.format("menu hits %d, misses %d; member hits %d, misses %d; id allocation retries %d",
+                getMenuHits(), getMenuMisses(), getMemberHits(), getMemberMisses(), getIdAllocationRetries()));
+        return text.toString();
+    }
+
+    /**
+     * Latency of one phase as shown through JMX, in microseconds
+     */
+    public static class PhaseStatistics {
+        private final String name;
+        private final long count;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p90Micros;
+        private final double p99Micros;
+        private final double maxMicros;
+
+        PhaseStatistics(String name, LatencyHistogram.Snapshot snapshot){
+            this.name=name;
+            this.count=snapshot.getCount();
+            this.meanMicros=snapshot.getMean()/1e3;
+            this.p50Micros=snapshot.percentile(50)/1e3;
+            this.p90Micros=snapshot.percentile(90)/1e3;
+            this.p99Micros=snapshot.percentile(99)/1e3;
+            this.maxMicros=snapshot.getMax()/1e3;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP90Micros() {
+            return p90Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+    }
+}
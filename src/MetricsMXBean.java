@@ -0,0 +1,25 @@
+/**
+ * Management interface of the restaurant's Metrics, shown in JConsole and other JMX clients under
+ * restaurant:type=Metrics. Durations are in microseconds.
+ */
+public interface MetricsMXBean {
+
+    long getSessions();
+
+    long getMenuHits();
+
+    long getMenuMisses();
+
+    long getMemberHits();
+
+    long getMemberMisses();
+
+    long getIdAllocationRetries();
+
+    Metrics.PhaseStatistics[] getPhases();
+
+    /**
+     * Method which starts counting again from zero
+     */
+    void reset();
+}
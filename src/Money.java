@@ -0,0 +1,167 @@
+/**
+ * Amounts of money kept as a whole number of cents in a long, so that prices and totals are added up exactly and
+ * without boxing. This class only holds the helpers for reading, scaling and printing such amounts.
+ */
+public final class Money {
+
+    // The most bytes write() can need: sign, 17 digits with 5 commas, the point and two decimals
+    public static final int MAX_LENGTH = 27;
+
+    private Money(){
+    }
+
+    /**
+     * Method which reads a price such as "25.75", "7.5" or "120"
+     * @param text: The price with at most two decimals and no currency sign
+     * @return the price in cents
+     * @throws NumberFormatException if the text is not a valid price
+     */
+    public static long parse(CharSequence text){
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Method which reads a price from part of a piece of text
+     * @param text: The text holding the price
+     * @param start: Index of the first character of the price
+     * @param end: Index just after the last character of the price
+     * @return the price in cents
+     * @throws NumberFormatException if the characters are not a valid price
+     */
+    public static long parse(CharSequence text, int start, int end){
+        while(start<end && text.charAt(start)==' '){
+            start++;
+        }
+        while(end>start && text.charAt(end-1)==' '){
+            end--;
+        }
+        boolean negative = start<end && text.charAt(start)=='-';
+        if(negative){
+            start++;
+        }
+        if(start==end){
+            throw new NumberFormatException("Empty price");
+        }
+
+        long cents=0;
+        int decimals=-1;
+        for(int i=start; i<end; i++){
+            char c = text.charAt(i);
+            if(c=='.' && decimals<0){
+                decimals=0;
+            } else if(c>='0' && c<='9' && decimals<2){
+                cents=cents*10+(c-'0');
+                if(decimals>=0){
+                    decimals++;
+                }
+            } else {
+                throw new NumberFormatException("Invalid price: " + text.subSequence(start, end));
+            }
+        }
+        for(int i=Math.max(decimals, 0); i<2; i++){
+            cents*=10;
+        }
+        return negative ? -cents : cents;
+    }
+
+    /**
+     * Method which takes a percentage of an amount, rounding half a cent up
+     * @param cents: The amount in cents
+     * @param percent: The percentage to keep, for example 85 for a 15% discount
+     * @return the scaled amount in cents
+     */
+    public static long percent(long cents, int percent){
+        return Math.floorDiv(cents*percent + 50, 100);
+    }
+
+    /**
+     * Method which writes an amount with two decimals and no grouping, for example "1234.50"
+     * @param sb: Where the amount is written to
+     * @param cents: The amount in cents
+     * @return the same StringBuilder
+     */
+    public static StringBuilder append(StringBuilder sb, long cents){
+        return append(sb, cents, false);
+    }
+
+    /**
+     * Method which writes an amount with two decimals and thousands separators, for example "1,234.50"
+     * @param sb: Where the amount is written to
+     * @param cents: The amount in cents
+     * @return the same StringBuilder
+     */
+    public static StringBuilder appendGrouped(StringBuilder sb, long cents){
+        return append(sb, cents, true);
+    }
+
+    /**
+     * Method which writes an amount as ASCII bytes, for renderers which build their output as bytes
+     * @param dest: The array written to, which needs room for MAX_LENGTH bytes after the offset
+     * @param offset: Where the amount starts
+     * @param cents: The amount in cents
+     * @param grouped: Whether thousands are separated by commas
+     * @return the offset just after the amount
+     */
+    public static int write(byte[] dest, int offset, long cents, boolean grouped){
+        // Write the units backwards into the end of the room, then move them to the front
+        int end = offset + MAX_LENGTH;
+        if(cents<0){
+            dest[offset++]='-';
+            cents=-cents;
+        }
+        long units = cents/100;
+        int rest = (int) (cents%100);
+
+        int pos = end;
+        int digits = 0;
+        do {
+            if(grouped && digits>0 && digits%3==0){
+                dest[--pos]=',';
+            }
+            dest[--pos]=(byte) ('0' + units%10);
+            units/=10;
+            digits++;
+        } while(units>0);
+        int length = end-pos;
+        System.arraycopy(dest, pos, dest, offset, length);
+        offset+=length;
+
+        dest[offset++]='.';
+        dest[offset++]=(byte) ('0' + rest/10);
+        dest[offset++]=(byte) ('0' + rest%10);
+        return offset;
+    }
+
+    public static String format(long cents){
+        return append(new StringBuilder(12), cents).toString();
+    }
+
+    public static String formatGrouped(long cents){
+        return appendGrouped(new StringBuilder(16), cents).toString();
+    }
+
+    private static StringBuilder append(StringBuilder sb, long cents, boolean grouped){
+        if(cents<0){
+            sb.append('-');
+            cents=-cents;
+        }
+        long units = cents/100;
+        int rest = (int) (cents%100);
+        if(grouped && units>=1000){
+            appendGroups(sb, units);
+        } else {
+            sb.append(units);
+        }
+        return sb.append('.').append((char) ('0'+rest/10)).append((char) ('0'+rest%10));
+    }
+
+    private static void appendGroups(StringBuilder sb, long units){
+        if(units<1000){
+            sb.append(units);
+            return;
+        }
+        appendGroups(sb, units/1000);
+        int group = (int) (units%1000);
+        sb.append(',').append((char) ('0'+group/100)).append((char) ('0'+group/10%10)).append((char) ('0'+group%10));
+    }
+}
@@ -0,0 +1,403 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds the rows of a MemberStore whose name starts with some text, ignoring the case of ASCII letters.
+ *
+ * The rows are kept in an array sorted by name, with the first sixteen bytes of every name packed into two longs
+ * beside them, so a search is a binary search over longs which only reads the name pages for prefixes longer than
+ * that. Every 64th key is also copied into a small array of fences which stays in the CPU's cache, so the search over
+ * millions of names only touches one block of the large arrays.
+ *
+ * Members added after the array was sorted go into a second, short sorted array which every search also looks
+ * through; once it is full it is merged into a new large array. The MemberStore hands over all members registered
+ * since its last search in one go, on the search which needs them, so registering never pays for a merge. A
+ * NameIndex never changes after it is made, adding members gives a new one, so searches need no locks.
+ */
+final class NameIndex {
+
+    // How many members may wait outside the large array
+    private static final int MAX_RECENT = 1024;
+    // Every this many keys one is copied into the fences
+    private static final int FENCE_BITS = 6;
+    // Runs this short are sorted by insertion, and this many rows or fewer without the radix sort
+    private static final int INSERTION_SORT = 32;
+    private static final int RADIX_SORT = 4096;
+
+    /**
+     * Rows sorted by name, with bytes 0 to 7 and 8 to 15 of each name packed into keys and nextKeys
+     */
+    private static final class Sorted {
+        private final long[] keys;
+        private final long[] nextKeys;
+        private final int[] rows;
+
+        private Sorted(int size){
+            this(new long[size], new long[size], new int[size]);
+        }
+
+        private Sorted(long[] keys, long[] nextKeys, int[] rows){
+            this.keys=keys;
+            this.nextKeys=nextKeys;
+            this.rows=rows;
+        }
+
+        private int size(){
+            return rows.length;
+        }
+
+        private void set(int i, Sorted from, int j){
+            keys[i]=from.keys[j];
+            nextKeys[i]=from.nextKeys[j];
+            rows[i]=from.rows[j];
+        }
+
+        private void copy(int from, Sorted to, int at, int length){
+            System.arraycopy(keys, from, to.keys, at, length);
+            System.arraycopy(nextKeys, from, to.nextKeys, at, length);
+            System.arraycopy(rows, from, to.rows, at, length);
+        }
+    }
+
+    private static final Sorted EMPTY = new Sorted(0);
+
+    private final Sorted all;
+    private final long[] fences;
+    private final Sorted recent;
+
+    private NameIndex(Sorted all, long[] fences, Sorted recent){
+        this.all=all;
+        this.fences=fences;
+        this.recent=recent;
+    }
+
+    private NameIndex(Sorted all){
+        this(all, fences(all.keys), EMPTY);
+    }
+
+    /**
+     * Method which sorts members of a store by name
+     * @param rows: Array holding the members' rows
+     * @param count: How many rows of that array to take
+     */
+    static NameIndex build(MemberStore store, int[] rows, int count){
+        return new NameIndex(sort(store, rows, count));
+    }
+
+    /**
+     * Method which gives an index which also holds some new members. They are sorted and merged with the members
+     * waiting outside the large array, and only when those are too many is the large array copied.
+     * @param rows: Array holding the new members' rows
+     * @param count: How many rows of that array to take
+     */
+    NameIndex with(MemberStore store, int[] rows, int count){
+        if(count==0){
+            return this;
+        }
+        Sorted added = sort(store, rows, count);
+        added = recent.size()>=added.size() ? merge(store, recent, added) : merge(store, added, recent);
+        if(added.size()<=MAX_RECENT){
+            return new NameIndex(all, fences, added);
+        }
+        return new NameIndex(merge(store, all, added));
+    }
+
+    /**
+     * Method which finds the members whose name starts with a prefix
+     * @param rows: Filled with the members' rows, in name order apart from members added recently
+     * @return how many rows were found, at most rows.length
+     */
+    int find(MemberStore store, CharSequence prefix, int[] rows){
+        byte[] text = prefix.toString().getBytes(StandardCharsets.UTF_8);
+        for(int i=0; i<text.length; i++){
+            text[i]=fold(text[i]);
+        }
+        int found = find(store, all, text, fencedBound(key(text, 0, 0), false), fencedBound(key(text, 0, 0xFF), true),
+                rows, 0);
+        return find(store, recent, text, bound(recent.keys, 0, recent.size(), key(text, 0, 0), false),
+                bound(recent.keys, 0, recent.size(), key(text, 0, 0xFF), true), rows, found);
+    }
+
+    /**
+     * @return the size of the index's arrays in bytes
+     */
+    long memoryBytes(){
+        return all.size()*20L + fences.length*8L + recent.size()*20L;
+    }
+
+    /**
+     * Method which narrows the rows between from and to, which share the first eight bytes of the prefix, down to
+     * those which start with the whole prefix and copies them into the result
+     * @return how many rows are in the result now
+     */
+    private static int find(MemberStore store, Sorted sorted, byte[] text, int from, int to, int[] result, int found){
+        if(text.length>8){
+            long low = key(text, 8, 0);
+            long high = key(text, 8, 0xFF);
+            int start = bound(sorted.nextKeys, from, to, low, false);
+            to = bound(sorted.nextKeys, start, to, high, true);
+            from = start;
+        }
+        if(text.length>16){
+            int start = prefixBound(store, text, sorted.rows, from, to, 0);
+            to = prefixBound(store, text, sorted.rows, start, to, 1);
+            from = start;
+        }
+        int count = Math.min(result.length-found, to-from);
+        System.arraycopy(sorted.rows, from, result, found, count);
+        return found+count;
+    }
+
+    /**
+     * Method which finds the first key of the large array not below the given key, or the first key above it. The
+     * fences tell which block of 64 keys holds the answer, so only that block is searched.
+     */
+    private int fencedBound(long key, boolean above){
+        int fence = bound(fences, 0, fences.length, key, above);
+        int from = fence==0 ? 0 : ((fence-1) << FENCE_BITS) + 1;
+        return bound(all.keys, from, Math.min(all.size(), fence << FENCE_BITS), key, above);
+    }
+
+    /**
+     * Method which finds, between from and to, the first key not below the given key, or the first key above it
+     */
+    private static int bound(long[] keys, int from, int to, long key, boolean above){
+        int low=from;
+        int high=to;
+        while(low<high){
+            int middle = (low+high) >>> 1;
+            int comparison = Long.compareUnsigned(keys[middle], key);
+            if(comparison<0 || (above && comparison==0)){
+                low=middle+1;
+            } else {
+                high=middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Method which finds, among rows whose names share their first sixteen bytes, the first name which does not come
+     * before the prefix (bound 0) or the first name which comes after it (bound 1)
+     */
+    private static int prefixBound(MemberStore store, byte[] text, int[] rows, int from, int to, int bound){
+        int low=from;
+        int high=to;
+        while(low<high){
+            int middle = (low+high) >>> 1;
+            if(comparePrefix(store, rows[middle], text)<bound){
+                low=middle+1;
+            } else {
+                high=middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Method which finds where an entry of a Sorted belongs between from and the end of another
+     */
+    private static int insertionPoint(MemberStore store, Sorted sorted, int from, Sorted entries, int entry){
+        int low=from;
+        int high=sorted.size();
+        while(low<high){
+            int middle = (low+high) >>> 1;
+            if(compare(store, sorted, middle, entries, entry)<0){
+                low=middle+1;
+            } else {
+                high=middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Method which sorts rows by name
+     */
+    private static Sorted sort(MemberStore store, int[] rows, int count){
+        Sorted sorted = new Sorted(count);
+        for(int i=0; i<count; i++){
+            sorted.keys[i]=key(store, rows[i], 0);
+            sorted.nextKeys[i]=key(store, rows[i], 8);
+            sorted.rows[i]=rows[i];
+        }
+
+        Sorted spare = new Sorted(count);
+        if(count<=RADIX_SORT){
+            sort(store, sorted, spare, 0, count);
+            return sorted;
+        }
+        // Sort on the first sixteen bytes, then sort the few runs of names which share them on the whole name
+        radixSort(sorted, spare);
+        for(int start=0; start<count; ){
+            int end=start+1;
+            while(end<count && sorted.keys[end]==sorted.keys[start] && sorted.nextKeys[end]==sorted.nextKeys[start]){
+                end++;
+            }
+            if(end-start>1){
+                sort(store, sorted, spare, start, end);
+            }
+            start=end;
+        }
+        return sorted;
+    }
+
+    /**
+     * Method which merges two sorted arrays, copying the larger one in blocks around the entries of the smaller one
+     */
+    private static Sorted merge(MemberStore store, Sorted larger, Sorted smaller){
+        Sorted merged = new Sorted(larger.size() + smaller.size());
+        int from=0;
+        for(int i=0; i<smaller.size(); i++){
+            int to = insertionPoint(store, larger, from, smaller, i);
+            larger.copy(from, merged, from+i, to-from);
+            merged.set(to+i, smaller, i);
+            from=to;
+        }
+        larger.copy(from, merged, from+smaller.size(), larger.size()-from);
+        return merged;
+    }
+
+    private static long[] fences(long[] keys){
+        long[] fences = new long[(keys.length + (1 << FENCE_BITS) - 1) >> FENCE_BITS];
+        for(int i=0; i<fences.length; i++){
+            fences[i] = keys[i << FENCE_BITS];
+        }
+        return fences;
+    }
+
+    /**
+     * Method which sorts the entries on both keys as unsigned numbers, sixteen bits at a time
+     */
+    private static void radixSort(Sorted sorted, Sorted spare){
+        int[] counts = new int[1 << 16];
+        for(int pass=0; pass<8; pass++){
+            long[] digits = pass<4 ? sorted.nextKeys : sorted.keys;
+            int shift = (pass & 3) * 16;
+            Arrays.fill(counts, 0);
+            for(long key:digits){
+                counts[(int) (key >>> shift) & 0xFFFF]++;
+            }
+            int position=0;
+            for(int digit=0; digit<counts.length; digit++){
+                int count = counts[digit];
+                counts[digit]=position;
+                position+=count;
+            }
+            for(int i=0; i<digits.length; i++){
+                spare.set(counts[(int) (digits[i] >>> shift) & 0xFFFF]++, sorted, i);
+            }
+            spare.copy(0, sorted, 0, sorted.size());
+        }
+    }
+
+    /**
+     * Method which sorts the entries between from and to by name
+     */
+    private static void sort(MemberStore store, Sorted sorted, Sorted spare, int from, int to){
+        if(to-from<=INSERTION_SORT){
+            for(int i=from+1; i<to; i++){
+                spare.set(i, sorted, i);
+                int j=i-1;
+                while(j>=from && compare(store, sorted, j, spare, i)>0){
+                    sorted.set(j+1, sorted, j);
+                    j--;
+                }
+                sorted.set(j+1, spare, i);
+            }
+            return;
+        }
+        int middle = (from+to) >>> 1;
+        sort(store, sorted, spare, from, middle);
+        sort(store, sorted, spare, middle, to);
+        if(compare(store, sorted, middle-1, sorted, middle)<=0){
+            return;
+        }
+        sorted.copy(from, spare, from, to-from);
+        int left=from;
+        int right=middle;
+        for(int i=from; i<to; i++){
+            if(right>=to || (left<middle && compare(store, spare, left, spare, right)<=0)){
+                sorted.set(i, spare, left++);
+            } else {
+                sorted.set(i, spare, right++);
+            }
+        }
+    }
+
+    private static int compare(MemberStore store, Sorted a, int i, Sorted b, int j){
+        int byKey = Long.compareUnsigned(a.keys[i], b.keys[j]);
+        if(byKey!=0){
+            return byKey;
+        }
+        byKey = Long.compareUnsigned(a.nextKeys[i], b.nextKeys[j]);
+        if(byKey!=0){
+            return byKey;
+        }
+        int rowA = a.rows[i];
+        int rowB = b.rows[j];
+        byte[] pageA = store.namePage(rowA);
+        byte[] pageB = store.namePage(rowB);
+        int offsetA = store.nameOffset(rowA);
+        int offsetB = store.nameOffset(rowB);
+        int lengthA = store.nameLength(rowA);
+        int lengthB = store.nameLength(rowB);
+        for(int k=16; k<Math.min(lengthA, lengthB); k++){
+            int difference = (fold(pageA[offsetA+k]) & 0xFF) - (fold(pageB[offsetB+k]) & 0xFF);
+            if(difference!=0){
+                return difference;
+            }
+        }
+        return lengthA!=lengthB ? lengthA-lengthB : Integer.compare(rowA, rowB);
+    }
+
+    /**
+     * Method which compares the start of a member's name with a prefix
+     * @return less than 0 if the name comes before the prefix, 0 if it starts with it, more than 0 if it comes after
+     */
+    private static int comparePrefix(MemberStore store, int row, byte[] text){
+        byte[] page = store.namePage(row);
+        int offset = store.nameOffset(row);
+        int length = store.nameLength(row);
+        for(int i=0; i<text.length; i++){
+            if(i>=length){
+                return -1;
+            }
+            int difference = (fold(page[offset+i]) & 0xFF) - (text[i] & 0xFF);
+            if(difference!=0){
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Method which packs eight bytes of a member's name, from start on, into a long which sorts the same way as the
+     * names
+     */
+    private static long key(MemberStore store, int row, int start){
+        byte[] page = store.namePage(row);
+        int offset = store.nameOffset(row);
+        int length = store.nameLength(row);
+        long key=0;
+        for(int i=start; i<start+8; i++){
+            key = (key << 8) | (i<length ? fold(page[offset+i]) & 0xFF : 0);
+        }
+        return key;
+    }
+
+    /**
+     * Method which packs eight bytes of a prefix, from start on, into a long, with the bytes past its end set to fill
+     */
+    private static long key(byte[] text, int start, int fill){
+        long key=0;
+        for(int i=start; i<start+8; i++){
+            key = (key << 8) | (i<text.length ? text[i] & 0xFF : fill);
+        }
+        return key;
+    }
+
+    private static byte fold(byte b){
+        return b>='a' && b<='z' ? (byte) (b-32) : b;
+    }
+}
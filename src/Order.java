@@ -0,0 +1,138 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The dishes a diner has ordered, one line per dish with how many portions of it, kept as menu ids and counts in
+ * parallel arrays so that the bill can be added up in cents without boxing. An order rarely has more than a handful
+ * of lines, so finding a dish's line is a scan of a few ints, which is quicker than hashing.
+ *
+ * Orders are reused between visits: obtain takes one from a small shared pool and recycle gives it back empty, so a
+ * busy restaurant does not make a new order for every diner.
+ */
+public class Order {
+
+    private static final int POOL_SIZE = 256;
+    private static final AtomicReferenceArray<Order> POOL = new AtomicReferenceArray<>(POOL_SIZE);
+
+    private int[] items = new int[8];
+    private int[] quantities = new int[8];
+    private int size=0;
+
+    /**
+     * Method which gives an empty order, reusing one which was recycled when there is one
+     */
+    public static Order obtain(){
+        int start = (int) Thread.currentThread().getId() & (POOL_SIZE-1);
+        for(int i=0; i<POOL_SIZE; i++){
+            int slot = (start+i) & (POOL_SIZE-1);
+            if(POOL.get(slot) != null){
+                Order order = POOL.getAndSet(slot, null);
+                if(order != null){
+                    return order;
+                }
+            }
+        }
+        return new Order();
+    }
+
+    /**
+     * Method which empties the order and gives it back to the pool, it must not be used afterwards
+     */
+    public void recycle(){
+        clear();
+        int start = (int) Thread.currentThread().getId() & (POOL_SIZE-1);
+        for(int i=0; i<POOL_SIZE; i++){
+            int slot = (start+i) & (POOL_SIZE-1);
+            if(POOL.get(slot) == null && POOL.compareAndSet(slot, null, this)){
+                return;
+            }
+        }
+        // The pool is full, the order is left to the garbage collector
+    }
+
+    /**
+     * Method which adds a portion of a dish to the order, on the dish's line if it is already ordered
+     * @param item: The dish's id in the menu
+     */
+    public void add(int item){
+        add(item, 1);
+    }
+
+    /**
+     * Method which adds portions of a dish to the order, on the dish's line if it is already ordered
+     * @param item: The dish's id in the menu
+     * @param quantity: How many portions to add
+     */
+    public void add(int item, int quantity){
+        if(quantity<=0){
+            throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+        }
+        for(int i=0; i<size; i++){
+            if(items[i]==item){
+                quantities[i]=Math.addExact(quantities[i], quantity);
+                return;
+            }
+        }
+        if(size==items.length){
+            items = Arrays.copyOf(items, size*2);
+            quantities = Arrays.copyOf(quantities, size*2);
+        }
+        items[size]=item;
+        quantities[size++]=quantity;
+    }
+
+    /**
+     * @return how many lines the order has, one per different dish
+     */
+    public int size(){
+        return size;
+    }
+
+    public int item(int line){
+        return items[line];
+    }
+
+    public int quantity(int line){
+        return quantities[line];
+    }
+
+    /**
+     * @return how many portions the order has over all its lines
+     */
+    public int portions(){
+        int portions=0;
+        for(int i=0; i<size; i++){
+            portions+=quantities[i];
+        }
+        return portions;
+    }
+
+    /**
+     * Method which adds up the order at the menu prices
+     * @return the total in cents
+     */
+    public long total(Menu menu){
+        long total=0;
+        for(int i=0; i<size; i++){
+            total+=menu.price(items[i]) * quantities[i];
+        }
+        return total;
+    }
+
+    /**
+     * Method which adds up the order with every portion discounted, so the total matches the lines on the bill
+     * @param percent: The percentage of each price which is paid
+     * @return the total in cents
+     */
+    public long discountedTotal(Menu menu, int percent){
+        long total=0;
+        for(int i=0; i<size; i++){
+            total+=Money.percent(menu.price(items[i]), percent) * quantities[i];
+        }
+        return total;
+    }
+
+    public void clear(){
+        size=0;
+    }
+}
@@ -0,0 +1,236 @@
+import java.time.YearMonth;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends card payments to a PaymentProcessor for authorization without making each diner wait for a round trip of
+ * their own. A payment is queued and answered later through its Authorization. Sender threads take every payment
+ * waiting, up to the batch limit, and send them to the processor as one batch. Each sender has its own batch on its
+ * way, so the number of senders is how many round trips overlap.
+ *
+ * Nothing waits to fill a batch: a payment is sent as soon as a sender is free, and batches only grow while every
+ * sender is busy, so a quiet restaurant pays one round trip per payment and a busy one shares each round trip out.
+ */
+public class PaymentClient {
+
+    /**
+     * The processor's answer to a payment
+     */
+    public enum Result {
+        APPROVED, DECLINED, UNAVAILABLE
+    }
+
+    private final PaymentProcessor processor;
+    private final int batchLimit;
+    private final Thread[] senders;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition waiting = lock.newCondition();
+    private final ArrayDeque<Authorization> queue = new ArrayDeque<>();
+    private boolean closed=false;
+
+    private final LatencyHistogram authorizations = new LatencyHistogram();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder declined = new LongAdder();
+    private final LongAdder unavailable = new LongAdder();
+
+    /**
+     * Constructor for this class, the senders start straight away
+     * @param processor: The processor authorizing the payments
+     * @param batchLimit: How many payments are sent together at most, 1 to turn batching off
+     * @param inFlight: How many batches may be on their way to the processor at the same time
+     */
+    public PaymentClient(PaymentProcessor processor, int batchLimit, int inFlight){
+        if(batchLimit<1 || inFlight<1){
+            throw new IllegalArgumentException("Invalid payment client settings");
+        }
+        this.processor=processor;
+        this.batchLimit=batchLimit;
+        this.senders = new Thread[inFlight];
+        for(int i=0; i<senders.length; i++){
+            senders[i] = new Thread(this::send, "payments-" + i);
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+    }
+
+    /**
+     * Method which queues a payment for authorization, the card details having been checked already
+     * @param card: The card number
+     * @param expiry: The card's expiry month
+     * @param amount: The amount to pay in cents
+     * @return the authorization, which can be waited on until the processor answers
+     */
+    public Authorization authorize(String card, YearMonth expiry, long amount){
+        Authorization authorization = new Authorization(card, expiry, amount);
+        lock.lock();
+        try {
+            if(closed){
+                authorization.complete(Result.UNAVAILABLE);
+            } else {
+                queue.addLast(authorization);
+                waiting.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return authorization;
+    }
+
+    /**
+     * Method which a sender runs until the client is closed
+     */
+    private void send(){
+        List<Authorization> batch = new ArrayList<>(batchLimit);
+        try {
+            while(true) {
+                lock.lock();
+                try {
+                    while(queue.isEmpty()){
+                        waiting.await();
+                    }
+                    while(batch.size()<batchLimit && !queue.isEmpty()){
+                        batch.add(queue.pollFirst());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    answer(batch);
+                } catch (RuntimeException e) {
+                    System.err.println("WARNING: the payment processor failed, " + e);
+                }
+                // Whatever went wrong, no payment of the batch is left waiting and the sender carries on
+                completeUnanswered(batch);
+                batches.increment();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // The client is closing
+            completeUnanswered(batch);
+        }
+    }
+
+    /**
+     * Method which sends a batch to the processor and completes its payments with the answers
+     * @throws IllegalStateException if the processor does not answer every payment of the batch
+     */
+    private void answer(List<Authorization> batch) throws InterruptedException {
+        boolean[] approved = processor.authorize(batch);
+        if(approved == null || approved.length != batch.size()){
+            throw new IllegalStateException("the processor gave " + (approved == null ? "no" : approved.length) +
+                    " answers for " + batch.size() + " payments");
+        }
+        for(int i=0; i<batch.size(); i++){
+            batch.get(i).complete(approved[i] ? Result.APPROVED : Result.DECLINED);
+        }
+    }
+
+    private static void completeUnanswered(List<Authorization> batch){
+        for(Authorization authorization:batch){
+            if(!authorization.isDone()){
+                authorization.complete(Result.UNAVAILABLE);
+            }
+        }
+    }
+
+    /**
+     * Method which stops the senders, payments not answered yet are left unavailable
+     */
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closed=true;
+        } finally {
+            lock.unlock();
+        }
+        for(Thread sender:senders){
+            sender.interrupt();
+        }
+        for(Thread sender:senders){
+            sender.join();
+        }
+        Authorization authorization;
+        while((authorization = queue.poll()) != null){
+            authorization.complete(Result.UNAVAILABLE);
+        }
+    }
+
+    public LatencyHistogram.Snapshot authorizationLatency(){
+        return authorizations.snapshot();
+    }
+
+    public long getAuthorizations() {
+        return authorizations.snapshot().getCount();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getDeclined() {
+        return declined.sum();
+    }
+
+    public long getUnavailable() {
+        return unavailable.sum();
+    }
+
+    /**
+     * A payment waiting for the processor's answer
+     */
+    public class Authorization {
+        private final String card;
+        private final YearMonth expiry;
+        private final long amount;
+        private final long created = System.nanoTime();
+        private final CountDownLatch answered = new CountDownLatch(1);
+        private volatile Result result;
+
+        private Authorization(String card, YearMonth expiry, long amount){
+            this.card=card;
+            this.expiry=expiry;
+            this.amount=amount;
+        }
+
+        private void complete(Result result){
+            this.result=result;
+            authorizations.record(System.nanoTime() - created);
+            if(result==Result.DECLINED){
+                declined.increment();
+            } else if(result==Result.UNAVAILABLE){
+                unavailable.increment();
+            }
+            answered.countDown();
+        }
+
+        /**
+         * Method which waits until the processor has answered
+         * @return the processor's answer
+         */
+        public Result await() throws InterruptedException {
+            answered.await();
+            return result;
+        }
+
+        public boolean isDone() {
+            return answered.getCount()==0;
+        }
+
+        public String getCard() {
+            return card;
+        }
+
+        public YearMonth getExpiry() {
+            return expiry;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+    }
+}
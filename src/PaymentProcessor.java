@@ -0,0 +1,16 @@
+import java.util.List;
+
+/**
+ * A payment processor which authorizes card payments, such as a bank's gateway or the LocalProcessor stand-in. The
+ * PaymentClient sends it the payments in batches, and may have several batches on their way at the same time, so
+ * implementations must allow authorize to be called from several threads at once.
+ */
+public interface PaymentProcessor {
+
+    /**
+     * Method which authorizes a batch of payments in one round trip
+     * @param batch: The payments, each with its card, expiry and amount
+     * @return whether each payment of the batch was approved, in the same order
+     */
+    boolean[] authorize(List<PaymentClient.Authorization> batch) throws InterruptedException;
+}
@@ -0,0 +1,103 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Finds the rows of a MemberStore by phone number, through an open-addressed table of long keys. Several members may
+ * share a phone number, so every member has a slot of their own and a lookup collects all slots with the number.
+ *
+ * Only one thread adds at a time, the MemberStore's index lock sees to that, while any number of threads look up
+ * without locks. A slot's row is published after its phone number, so a reader never pairs a row with the wrong
+ * number, and a full table is copied to a bigger one which is then swapped in as a whole.
+ */
+final class PhoneIndex {
+
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * The phone number in each slot and the member's row, -1 while the slot is unused
+     */
+    private static final class Table {
+        private final long[] phones;
+        private final int[] rows;
+        private final int mask;
+        private int used=0;
+
+        private Table(int capacity){
+            phones = new long[capacity];
+            rows = new int[capacity];
+            Arrays.fill(rows, -1);
+            mask = capacity-1;
+        }
+    }
+
+    private volatile Table table;
+
+    /**
+     * Constructor for this class
+     * @param expected: How many members the index should hold before it has to grow
+     */
+    PhoneIndex(int expected){
+        table = new Table(Integer.highestOneBit(Math.max(16, expected)*2 - 1) << 1);
+    }
+
+    /**
+     * Method which adds a member's phone number, only called by one thread at a time
+     */
+    void add(long phone, int row){
+        Table t = table;
+        if((t.used+1)*2 > t.phones.length){
+            Table fresh = new Table(t.phones.length*2);
+            for(int slot=0; slot<t.phones.length; slot++){
+                if(t.rows[slot]>=0){
+                    insert(fresh, t.phones[slot], t.rows[slot]);
+                }
+            }
+            table = fresh;
+            t = fresh;
+        }
+        insert(t, phone, row);
+    }
+
+    private static void insert(Table t, long phone, int row){
+        int slot = slot(phone, t.mask);
+        while(t.rows[slot]>=0){
+            slot = (slot+1) & t.mask;
+        }
+        t.phones[slot]=phone;
+        INTS.setRelease(t.rows, slot, row);
+        t.used++;
+    }
+
+    /**
+     * Method which finds the members with a phone number
+     * @param store: The store the rows belong to, which is checked in case a member's number was changed
+     * @param rows: Filled with the members' rows
+     * @return how many rows were found, at most rows.length
+     */
+    int find(long phone, MemberStore store, int[] rows){
+        Table t = table;
+        int found=0;
+        int slot = slot(phone, t.mask);
+        int row;
+        while(found<rows.length && (row = (int) INTS.getAcquire(t.rows, slot)) >= 0){
+            if(t.phones[slot]==phone && store.phone(row)==phone){
+                rows[found++]=row;
+            }
+            slot = (slot+1) & t.mask;
+        }
+        return found;
+    }
+
+    /**
+     * @return the size of the index's arrays in bytes
+     */
+    long memoryBytes(){
+        return table.phones.length*12L;
+    }
+
+    private static int slot(long phone, int mask){
+        long h = phone * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
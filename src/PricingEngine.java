@@ -0,0 +1,424 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Prices bills from the promotions in Pricing.csv. Three kinds of rule are understood, one per row:
+ *
+ *   TIER,name,visits,percent              members with at least that many visits pay percent of the menu price
+ *   HAPPY_HOUR,from,until,dish,percent    between two times of day (HH:MM) the dish, or every dish for *, costs
+ *                                         percent of the menu price, for members and non-members alike
+ *   COMBO,name,amount off,dish,dish,...   every complete set of the dishes on an order takes the amount off the bill
+ *
+ * When the file has no TIER rule, members get the standard 85% from their first visit, as they did before there were
+ * rules. A tier and a happy hour do not add up, the lower of the two prices is charged. The rules are compiled against
+ * the menu into one table of prices per loyalty tier and per part of the day in which the same happy hours run, so
+ * pricing a dish is a single array lookup. The tables are only built again when the menu or the rules change.
+ */
+public class PricingEngine {
+
+    private static final int MINUTES_PER_DAY = 24*60;
+    private static final long MILLIS_PER_MINUTE = 60_000;
+    // The discount every member got before there were rules, used when no tier is given
+    private static final int STANDARD_MEMBER_PERCENT = 85;
+
+    private final Menu menu;
+    private final Rules rules;
+    private final Clock clock;
+    // Minute of the day each part of the day starts at, the first one being midnight
+    private final int[] segmentStarts;
+    // Visits needed for each tier, tier 0 being everyone who is not a member
+    private final int[] tierVisits;
+    private final int[] tierPercents;
+    private final PriceTable[][] tables;
+    private final Combo[] combos;
+    private volatile Moment moment;
+
+    private PricingEngine(Menu menu, Rules rules, Clock clock){
+        this.menu=menu;
+        this.rules=rules;
+        this.clock=clock;
+
+        TreeSet<Integer> starts = new TreeSet<>();
+        starts.add(0);
+        for(HappyHour happyHour:rules.happyHours){
+            starts.add(happyHour.from);
+            starts.add(happyHour.until % MINUTES_PER_DAY);
+        }
+        this.segmentStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+
+        List<Tier> tiers = new ArrayList<>(rules.tiers);
+        tiers.sort(Comparator.comparingInt(tier -> tier.visits));
+        tiers.add(0, new Tier("NONE", 0, 100));
+        this.tierVisits = tiers.stream().mapToInt(tier -> tier.visits).toArray();
+        this.tierPercents = tiers.stream().mapToInt(tier -> tier.percent).toArray();
+
+        // Happy hours naming a dish which is not on this menu are left out
+        int[] happyItems = new int[rules.happyHours.size()];
+        for(int i=0; i<happyItems.length; i++){
+            String dish = rules.happyHours.get(i).dish;
+            happyItems[i] = dish.equals("*") ? -1 : menu.indexOf(dish);
+            if(happyItems[i]<0 && !dish.equals("*")){
+                System.err.println("WARNING: happy hour for " + dish + " skipped, it is not on the menu");
+                happyItems[i] = Integer.MIN_VALUE;
+            }
+        }
+
+        this.tables = new PriceTable[segmentStarts.length][tiers.size()];
+        for(int segment=0; segment<segmentStarts.length; segment++){
+            int minute = segmentStarts[segment];
+            int[] happyPercent = new int[menu.size()];
+            Arrays.fill(happyPercent, 100);
+            for(int i=0; i<happyItems.length; i++){
+                HappyHour happyHour = rules.happyHours.get(i);
+                if(happyItems[i]==Integer.MIN_VALUE || !happyHour.covers(minute)){
+                    continue;
+                }
+                for(int item=0; item<menu.size(); item++){
+                    if(happyItems[i]<0 || happyItems[i]==item){
+                        happyPercent[item] = Math.min(happyPercent[item], happyHour.percent);
+                    }
+                }
+            }
+            for(int tier=0; tier<tiers.size(); tier++){
+                long[] prices = new long[menu.size()];
+                for(int item=0; item<menu.size(); item++){
+                    int percent = Math.min(tiers.get(tier).percent, happyPercent[item]);
+                    prices[item] = percent==100 ? menu.price(item) : Money.percent(menu.price(item), percent);
+                }
+                tables[segment][tier] = new PriceTable(tiers.get(tier).name, prices);
+            }
+        }
+
+        List<Combo> combos = new ArrayList<>();
+        for(ComboRule combo:rules.combos){
+            int[] items = new int[combo.dishes.size()];
+            for(int i=0; i<items.length; i++){
+                items[i] = menu.indexOf(combo.dishes.get(i));
+            }
+            if(Arrays.stream(items).anyMatch(item -> item<0)){
+                System.err.println("WARNING: combo " + combo.name + " skipped, one of its dishes is not on the menu");
+                continue;
+            }
+            combos.add(new Combo(combo.name, items, combo.amountOff));
+        }
+        this.combos = combos.toArray(new Combo[0]);
+    }
+
+    /**
+     * Method which reads the rule file and compiles it for a menu
+     * @param menu: The menu being priced
+     * @param filename: The .csv file of rules, members get the standard discount when it does not exist or has no tier
+     */
+    public static PricingEngine load(Menu menu, String filename){
+        return new PricingEngine(menu, Rules.read(filename), Clock.systemDefaultZone());
+    }
+
+    /**
+     * Method which compiles the same rules for a changed menu
+     */
+    public PricingEngine forMenu(Menu menu){
+        return new PricingEngine(menu, rules, clock);
+    }
+
+    /**
+     * Method which compiles the same rules with another clock, for checking prices at a given time of day
+     */
+    public PricingEngine withClock(Clock clock){
+        return new PricingEngine(menu, rules, clock);
+    }
+
+    public Menu getMenu() {
+        return menu;
+    }
+
+    /**
+     * Method which gives the prices for a diner right now
+     * @param visits: How many visits the diner has had as a member, 0 for someone who is not a member
+     */
+    public PriceTable table(int visits){
+        return tables[segment()][tier(visits)];
+    }
+
+    /**
+     * Method which gives the prices for a diner at a time of day
+     * @param visits: How many visits the diner has had as a member, 0 for someone who is not a member
+     * @param minuteOfDay: Minutes since midnight
+     */
+    public PriceTable table(int visits, int minuteOfDay){
+        return tables[segmentOf(Math.floorMod(minuteOfDay, MINUTES_PER_DAY))][tier(visits)];
+    }
+
+    /**
+     * Method which adds up an order with a price table and takes off every combo the order completes
+     * @return the total in cents
+     */
+    public long total(Order order, PriceTable table){
+        long total=0;
+        for(int line=0; line<order.size(); line++){
+            total+=table.price(order.item(line)) * order.quantity(line);
+        }
+        for(int combo=0; combo<combos.length; combo++){
+            total-=comboSets(combo, order) * combos[combo].amountOff;
+        }
+        return Math.max(0, total);
+    }
+
+    public int comboCount(){
+        return combos.length;
+    }
+
+    public String comboName(int combo){
+        return combos[combo].name;
+    }
+
+    public long comboAmountOff(int combo){
+        return combos[combo].amountOff;
+    }
+
+    /**
+     * Method which counts the complete sets of a combo's dishes on an order
+     */
+    public int comboSets(int combo, Order order){
+        int sets=Integer.MAX_VALUE;
+        for(int item:combos[combo].items){
+            int quantity=0;
+            for(int line=0; line<order.size(); line++){
+                if(order.item(line)==item){
+                    quantity=order.quantity(line);
+                    break;
+                }
+            }
+            sets=Math.min(sets, quantity);
+        }
+        return sets;
+    }
+
+    /**
+     * Method which tells if a member's tier takes anything off the menu prices
+     * @param visits: How many visits the diner has had as a member
+     */
+    public boolean discounts(int visits){
+        return tierPercents[tier(visits)]<100;
+    }
+
+    private int tier(int visits){
+        int tier = tierVisits.length-1;
+        while(tier>0 && visits<tierVisits[tier]){
+            tier--;
+        }
+        return tier;
+    }
+
+    /**
+     * Method which finds the part of the day it is. The answer is kept until the next minute, so the clock's time
+     * zone is only looked at once a minute.
+     */
+    private int segment(){
+        long now = clock.millis();
+        Moment current = moment;
+        if(current==null || now<current.from || now>=current.until){
+            ZonedDateTime time = Instant.ofEpochMilli(now).atZone(clock.getZone());
+            long minuteStart = now - Math.floorMod(now, MILLIS_PER_MINUTE);
+            current = new Moment(segmentOf(time.getHour()*60 + time.getMinute()), minuteStart,
+                    minuteStart + MILLIS_PER_MINUTE);
+            moment = current;
+        }
+        return current.segment;
+    }
+
+    private int segmentOf(int minuteOfDay){
+        int segment = segmentStarts.length-1;
+        while(segmentStarts[segment]>minuteOfDay){
+            segment--;
+        }
+        return segment;
+    }
+
+    /**
+     * The price of every dish for one tier at one part of the day
+     */
+    public static final class PriceTable {
+        private final String tier;
+        private final long[] prices;
+
+        private PriceTable(String tier, long[] prices){
+            this.tier=tier;
+            this.prices=prices;
+        }
+
+        public String getTier() {
+            return tier;
+        }
+
+        /**
+         * @return the price of one portion of the dish in cents
+         */
+        public long price(int item){
+            return prices[item];
+        }
+    }
+
+    private static final class Moment {
+        private final int segment;
+        private final long from;
+        private final long until;
+
+        private Moment(int segment, long from, long until){
+            this.segment=segment;
+            this.from=from;
+            this.until=until;
+        }
+    }
+
+    private static final class Combo {
+        private final String name;
+        private final int[] items;
+        private final long amountOff;
+
+        private Combo(String name, int[] items, long amountOff){
+            this.name=name;
+            this.items=items;
+            this.amountOff=amountOff;
+        }
+    }
+
+    private static final class Tier {
+        private final String name;
+        private final int visits;
+        private final int percent;
+
+        private Tier(String name, int visits, int percent){
+            this.name=name;
+            this.visits=visits;
+            this.percent=percent;
+        }
+    }
+
+    private static final class HappyHour {
+        private final int from;
+        private final int until;
+        private final String dish;
+        private final int percent;
+
+        private HappyHour(int from, int until, String dish, int percent){
+            this.from=from;
+            this.until=until;
+            this.dish=dish;
+            this.percent=percent;
+        }
+
+        /**
+         * Method which tells if the happy hour runs at a minute of the day, it may run past midnight
+         */
+        private boolean covers(int minute){
+            return from<until ? minute>=from && minute<until : minute>=from || minute<until;
+        }
+    }
+
+    private static final class ComboRule {
+        private final String name;
+        private final long amountOff;
+        private final List<String> dishes;
+
+        private ComboRule(String name, long amountOff, List<String> dishes){
+            this.name=name;
+            this.amountOff=amountOff;
+            this.dishes=dishes;
+        }
+    }
+
+    /**
+     * The rules as read from the file, before they are compiled against a menu
+     */
+    private static final class Rules implements CsvLoader.RowHandler {
+        private final List<Tier> tiers = new ArrayList<>();
+        private final List<HappyHour> happyHours = new ArrayList<>();
+        private final List<ComboRule> combos = new ArrayList<>();
+
+        private static Rules read(String filename){
+            Rules rules = new Rules();
+            if(Files.exists(Path.of(filename))){
+                CsvLoader.Result<Rules> result = CsvLoader.load(filename, Rules::new);
+                Restaurant.reportBadRows(filename, result);
+                for(Rules chunk:result.getHandlers()){
+                    rules.tiers.addAll(chunk.tiers);
+                    rules.happyHours.addAll(chunk.happyHours);
+                    rules.combos.addAll(chunk.combos);
+                }
+            }
+            if(rules.tiers.isEmpty()){
+                rules.tiers.add(new Tier("MEMBER", 1, STANDARD_MEMBER_PERCENT));
+            }
+            return rules;
+        }
+
+        @Override
+        public void row(CsvRow row) {
+            row.require(1);
+            String kind = row.stringField(0).trim().toUpperCase(Locale.ROOT);
+            switch (kind) {
+                case "TIER" -> {
+                    row.require(4);
+                    int visits = row.intField(2);
+                    if(visits<1){
+                        throw new IllegalArgumentException("a tier needs at least one visit");
+                    }
+                    tiers.add(new Tier(row.stringField(1), visits, percent(row.intField(3))));
+                }
+                case "HAPPY_HOUR" -> {
+                    row.require(5);
+                    int from = minute(row.stringField(1));
+                    int until = minute(row.stringField(2));
+                    if(from==until){
+                        throw new IllegalArgumentException("a happy hour must not start when it ends");
+                    }
+                    happyHours.add(new HappyHour(from, until, row.stringField(3), percent(row.intField(4))));
+                }
+                case "COMBO" -> {
+                    row.require(5);
+                    long amountOff = row.centsField(2);
+                    if(amountOff<=0){
+                        throw new IllegalArgumentException("a combo must take something off");
+                    }
+                    List<String> dishes = new ArrayList<>();
+                    for(int field=3; field<row.fieldCount(); field++){
+                        dishes.add(row.stringField(field));
+                    }
+                    combos.add(new ComboRule(row.stringField(1), amountOff, dishes));
+                }
+                default -> throw new IllegalArgumentException("unknown rule " + kind);
+            }
+        }
+
+        private static int percent(int percent){
+            if(percent<0 || percent>100){
+                throw new IllegalArgumentException("percent must be between 0 and 100");
+            }
+            return percent;
+        }
+
+        /**
+         * Method which reads a time of day written as HH:MM, 24:00 being the end of the day
+         */
+        private static int minute(String text){
+            String[] parts = text.trim().split(":");
+            if(parts.length!=2){
+                throw new IllegalArgumentException("time must be HH:MM: " + text);
+            }
+            int minute = Integer.parseInt(parts[0])*60 + Integer.parseInt(parts[1]);
+            if(minute<0 || minute>MINUTES_PER_DAY || Integer.parseInt(parts[1])>=60){
+                throw new IllegalArgumentException("time must be HH:MM: " + text);
+            }
+            return minute;
+        }
+    }
+}
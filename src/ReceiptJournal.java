@@ -0,0 +1,677 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of every settled bill, kept in a folder of memory-mapped segment files of equal size
+ * (0000000000.receipts, 0000000001.receipts and so on).
+ *
+ * Sessions append without taking a lock. The journal is one long run of bytes across the segments: a session
+ * reserves room for its receipt by moving the atomic tail forward, then copies the receipt into the mapped segment.
+ * A receipt never spans two segments. The session whose room would cross the end of a segment fills the rest of that
+ * segment, and the start of the next one, with padding and reserves again. Receipts reach the page cache as soon as
+ * they are copied. A background thread writes them to disk every 100 milliseconds, or straight away when a session
+ * waits in sync for its receipt to be on disk, and every session waiting then shares the same write (group commit).
+ * Writing to disk more often than that took CPU time from the sessions without anyone waiting for it.
+ *
+ * Record layout, 8 byte aligned: int record size (negative for padding, 0 where nothing was written), int CRC32C of
+ * the rest of the record, long time paid in epoch milliseconds, long total at the menu's list prices, long membership
+ * number (0 for none), long total before the membership discount, long amount due, long amount handed over, byte
+ * payment method, byte 1 if discounted, short number of lines, int layout (2), then for each line int quantity, short
+ * length of the dish's name, short 0, long unit price charged and the name in UTF-16 padded to 8 bytes. All amounts are
+ * in cents. The size is written last, so a record whose size is there and whose checksum matches is whole. Dishes are
+ * kept by name, as their place on the menu changes when it is reloaded. Receipts of the first layout, which kept the
+ * place instead, have a layout of 0 and are skipped by readers.
+ */
+public class ReceiptJournal implements AutoCloseable {
+
+    public static final byte CASH = 'C';
+    public static final byte CARD = 'K';
+
+    private static final String SUFFIX = ".receipts";
+    private static final int HEADER_SIZE = 64;
+    // Size of a line before the dish's name
+    private static final int LINE_SIZE = 16;
+    private static final int LAYOUT = 2;
+    private static final int DEFAULT_SEGMENT_BYTES = 16 << 20;
+    // How long the flusher waits between writes to disk when no session is waiting for one
+    private static final long FLUSH_INTERVAL_MILLIS = 100;
+    // How long a reader waits for a receipt which is still being copied before taking it for a broken one
+    private static final long UNFINISHED_WAIT_NANOS = 10_000_000;
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final Path folder;
+    private final int segmentBytes;
+    // Position just after the last room reserved, counted across all the segments
+    private final AtomicLong tail;
+    private final Map<Long, Segment> segments = new HashMap<>();
+    private volatile Segment current;
+
+    // Lowest receipt a session is waiting to have on disk, and the writes to disk started and finished
+    private final AtomicLong lowestWaiting = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong flushesStarted = new AtomicLong();
+    private long flushesDone=0;
+    private boolean syncRequested=false;
+    private boolean closed=false;
+    private RuntimeException failure;
+    private final Thread flusher;
+
+    /**
+     * Constructor for this class, which carries on after the last whole receipt of the folder
+     * @param folder: The folder of the segment files, which is created if it does not exist
+     */
+    public ReceiptJournal(String folder){
+        this(folder, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Constructor for this class
+     * @param folder: The folder of the segment files, which is created if it does not exist
+     * @param segmentBytes: The size of each segment file, a multiple of 8 which must hold the longest receipt
+     */
+    public ReceiptJournal(String folder, int segmentBytes){
+        if(segmentBytes<1024 || segmentBytes%8!=0){
+            throw new IllegalArgumentException("Invalid segment size " + segmentBytes);
+        }
+        this.folder=Path.of(folder);
+        this.segmentBytes=segmentBytes;
+        try {
+            Files.createDirectories(this.folder);
+            long last = lastSegment(this.folder);
+            long end = 0;
+            if(last>=0){
+                Segment segment = map(last);
+                // A receipt which was only half written when the process stopped is left behind as a hole
+                end = last*segmentBytes + validEnd(segment.buffer, 0, segmentBytes);
+            }
+            this.tail = new AtomicLong(end);
+            this.current = segment(end/segmentBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.flusher = new Thread(this::flushLoop, "receipt-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Method which records a settled bill, without waiting for it to reach the disk
+     * @param menu: The menu the dishes were ordered from
+     * @param prices: The prices the dishes were charged at
+     * @param order: The dishes ordered
+     * @param member: The customer's membership number, 0 if they are not a member
+     * @param total: The bill before the membership discount, in cents
+     * @param due: The amount paid for the bill, in cents
+     * @param discount: Whether the membership discount applied
+     * @param method: CASH or CARD
+     * @param tendered: The amount handed over, so the change is what it exceeds the amount due by
+     * @return the position of the receipt in the journal, for sync
+     */
+    public long append(Menu menu, PricingEngine.PriceTable prices, Order order, long member, long total, long due,
+                       boolean discount, byte method, long tendered){
+        int size = HEADER_SIZE;
+        for(int line=0; line<order.size(); line++){
+            size+=lineSize(menu.name(order.item(line)).length());
+        }
+        if(size>segmentBytes){
+            throw new IllegalArgumentException("Receipt of " + size + " bytes does not fit in a segment");
+        }
+        Scratch scratch = SCRATCH.get();
+        ByteBuffer record = scratch.record(size);
+        record.putLong(8, System.currentTimeMillis()).putLong(16, order.total(menu)).putLong(24, member)
+                .putLong(32, total).putLong(40, due).putLong(48, tendered)
+                .put(56, method).put(57, (byte) (discount ? 1 : 0)).putShort(58, (short) order.size())
+                .putInt(60, LAYOUT);
+        int at = HEADER_SIZE;
+        for(int line=0; line<order.size(); line++){
+            int item = order.item(line);
+            String name = menu.name(item);
+            record.putInt(at, order.quantity(line)).putShort(at+4, (short) name.length()).putShort(at+6, (short) 0)
+                    .putLong(at+8, prices.price(item));
+            int end = at+lineSize(name.length());
+            int next = at+LINE_SIZE;
+            for(int i=0; i<name.length(); i++, next+=2){
+                record.putChar(next, name.charAt(i));
+            }
+            // The padding is cleared, the scratch buffer holds whatever the thread's last receipt left there
+            while(next<end){
+                record.put(next++, (byte) 0);
+            }
+            at=end;
+        }
+        scratch.crc.reset();
+        scratch.crc.update(scratch.bytes, 8, size-8);
+        record.putInt(4, (int) scratch.crc.getValue());
+
+        while(true){
+            long start = tail.getAndAdd(size);
+            long index = start/segmentBytes;
+            int offset = (int) (start%segmentBytes);
+            Segment segment = segment(index);
+            if(offset+size <= segmentBytes){
+                segment.buffer.put(offset+4, scratch.bytes, 4, size-4);
+                INTS.setRelease(segment.buffer, offset, size);
+                return start;
+            }
+            // The room crosses the end of the segment, so it is skipped in both segments and reserved again
+            INTS.setRelease(segment.buffer, offset, offset-segmentBytes);
+            INTS.setRelease(segment(index+1).buffer, 0, segmentBytes-offset-size);
+        }
+    }
+
+    /**
+     * Method which waits until a receipt is on disk, sharing the write with every other session waiting
+     * @param position: The receipt's position, as given by append
+     * @throws UncheckedIOException if the journal could not be written
+     */
+    public void sync(long position){
+        lowestWaiting.accumulateAndGet(position, Math::min);
+        // The write has to start after the receipt was asked for, so one which is already running does not count
+        long target = flushesStarted.get()+1;
+        synchronized (this) {
+            syncRequested=true;
+            notifyAll();
+            while(flushesDone<target && failure==null && !closed){
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if(failure!=null){
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * @return the position just after the last receipt appended, which is also how many bytes the journal holds
+     */
+    public long getTail(){
+        return tail.get();
+    }
+
+    /**
+     * Method which writes what is left to disk and stops the flusher
+     */
+    @Override
+    public void close(){
+        sync(Long.MAX_VALUE);
+        synchronized (this) {
+            closed=true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of the flusher thread, which writes to disk everything appended since its last write
+     */
+    private void flushLoop(){
+        long flushed = tail.get();
+        while(true){
+            synchronized (this) {
+                if(!syncRequested && !closed){
+                    try {
+                        wait(FLUSH_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if(closed){
+                    return;
+                }
+                syncRequested=false;
+            }
+            long flush = flushesStarted.incrementAndGet();
+            // Receipts before the last write which were still being copied then are written again if waited for
+            long from = Math.min(lowestWaiting.getAndSet(Long.MAX_VALUE), flushed);
+            long to = tail.get();
+            try {
+                force(from, to);
+                flushed = Math.max(flushed, to);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    failure=e;
+                }
+            }
+            synchronized (this) {
+                flushesDone=flush;
+                notifyAll();
+            }
+        }
+    }
+
+    private void force(long from, long to){
+        for(long index=from/segmentBytes; from<to && index<=(to-1)/segmentBytes; index++){
+            long segmentStart = index*segmentBytes;
+            int start = (int) Math.max(0, from-segmentStart);
+            int end = (int) Math.min(segmentBytes, to-segmentStart);
+            segment(index).buffer.force(start, end-start);
+        }
+    }
+
+    /**
+     * Method which gives a segment, mapping its file the first time it is needed
+     */
+    private Segment segment(long index){
+        Segment segment = current;
+        if(segment != null && segment.index==index){
+            return segment;
+        }
+        synchronized (segments) {
+            segment = segments.get(index);
+            if(segment == null){
+                try {
+                    segment = map(index);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                segments.put(index, segment);
+                // Older segments are mapped again should a late appender or the flusher still need them
+                segments.keySet().removeIf(old -> old < index-2);
+            }
+            if(current == null || index > current.index){
+                current = segment;
+            }
+            return segment;
+        }
+    }
+
+    private Segment map(long index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(folder, index), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Segment(index, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+    }
+
+    /**
+     * @return the bytes a receipt line takes for a dish name of that many chars
+     */
+    private static int lineSize(int nameLength){
+        return LINE_SIZE + (2*nameLength + 7 & ~7);
+    }
+
+    private static Path segmentFile(Path folder, long index){
+        return folder.resolve(String.format("%010d%s", index, SUFFIX));
+    }
+
+    /**
+     * @return the index of the last segment file of a folder, or -1 if there is none
+     */
+    private static long lastSegment(Path folder) throws IOException {
+        return segmentIndexes(folder).max().orElse(-1);
+    }
+
+    private static LongStream segmentIndexes(Path folder) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            long[] indexes = files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX) && name.length()==10+SUFFIX.length())
+                    .mapToLong(name -> Long.parseLong(name.substring(0, 10))).toArray();
+            return Arrays.stream(indexes);
+        }
+    }
+
+    /**
+     * Method which finds the end of the last whole receipt or padding of a segment
+     */
+    private static int validEnd(ByteBuffer buffer, int position, int limit){
+        int end = position;
+        while(position<limit){
+            int skip = recordAt(buffer, position, limit);
+            if(skip>0){
+                position+=skip;
+                end=position;
+            } else {
+                position+=8;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Method which looks at what is written at a position
+     * @return the bytes of the whole receipt or padding there, or 0 if there is none
+     */
+    private static int recordAt(ByteBuffer buffer, int position, int limit){
+        int size = (int) INTS.getAcquire(buffer, position);
+        if(size<0 && -size%8==0 && -size <= limit-position){
+            return -size;
+        }
+        if(size<HEADER_SIZE || size%8!=0 || size > limit-position ||
+                HEADER_SIZE + LINE_SIZE*Short.toUnsignedInt(buffer.getShort(position+58)) > size){
+            return 0;
+        }
+        ByteBuffer rest = buffer.duplicate();
+        rest.position(position+8).limit(position+size);
+        CRC32C crc = new CRC32C();
+        crc.update(rest);
+        return (int) crc.getValue() == buffer.getInt(position+4) ? size : 0;
+    }
+
+    /**
+     * Method which opens a journal's folder for reading its receipts from the oldest, which can be done while
+     * sessions are still appending
+     */
+    public static Reader read(String folder){
+        return new Reader(Path.of(folder));
+    }
+
+    /**
+     * One mapped segment file
+     */
+    private static final class Segment {
+        private final long index;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long index, MappedByteBuffer buffer){
+            this.index=index;
+            this.buffer=buffer;
+        }
+    }
+
+    /**
+     * A thread's buffer for putting a receipt together before it is copied into the journal
+     */
+    private static final class Scratch {
+        private byte[] bytes = new byte[256];
+        private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        private final CRC32C crc = new CRC32C();
+
+        private ByteBuffer record(int size){
+            if(bytes.length<size){
+                bytes = new byte[Math.max(size, bytes.length*2)];
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Reads the receipts back one at a time, from the mapped segments, without making an object for each one. Call
+     * next, then the getters describe that receipt until next is called again. When next returns false the reader
+     * has caught up with the journal, and it can be called again later for receipts appended since.
+     *
+     * Each dish name met is given a reader's own dish id, from 0 in the order they are first met, so lines can be
+     * added up by dish without making a String for every line.
+     */
+    public static class Reader implements AutoCloseable {
+        private final Path folder;
+        private long index;
+        private MappedByteBuffer buffer;
+        private int position=0;
+        private int record=-1;
+        // Where each line of the current receipt starts
+        private int[] lineStarts = new int[16];
+
+        // The dish names met, in an open-addressed table of dish ids plus one
+        private String[] dishNames = new String[16];
+        private int dishCount=0;
+        private int[] slots = new int[64];
+
+        private Reader(Path folder){
+            this.folder=folder;
+            try {
+                this.index = Files.isDirectory(folder) ? segmentIndexes(folder).min().orElse(0) : 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Method which moves to the next receipt
+         * @return false if there are no more receipts for now
+         */
+        public boolean next(){
+            try {
+                while(true){
+                    if(buffer == null){
+                        Path file = segmentFile(folder, index);
+                        if(!Files.exists(file)){
+                            return false;
+                        }
+                        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        }
+                        position=0;
+                    }
+                    int limit = buffer.capacity();
+                    while(position<limit){
+                        int skip = recordAt(buffer, position, limit);
+                        if(skip>0){
+                            boolean padding = buffer.getInt(position)<0;
+                            record=position;
+                            position+=skip;
+                            if(!padding && readLines(skip)){
+                                return true;
+                            }
+                        } else if(hasRecordAfter(position, limit)){
+                            // Either a receipt still being copied, which is waited for, or one which was never
+                            // finished because the process stopped, which is skipped a word at a time
+                            if(!finishes(position, limit)){
+                                position+=8;
+                            }
+                        } else if(Files.exists(segmentFile(folder, index+1))){
+                            break;
+                        } else {
+                            // Caught up, the next receipt may still be on its way
+                            record=-1;
+                            return false;
+                        }
+                    }
+                    buffer=null;
+                    index++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Method which finds where the lines of the receipt just reached start
+         * @param size: The size of the receipt's record
+         * @return false if the receipt is of an older layout
+         */
+        private boolean readLines(int size){
+            if(buffer.getInt(record+60)!=LAYOUT){
+                return false;
+            }
+            int lines = lines();
+            if(lineStarts.length<lines){
+                lineStarts = new int[Math.max(lines, lineStarts.length*2)];
+            }
+            int at = record+HEADER_SIZE;
+            for(int line=0; line<lines; line++){
+                lineStarts[line]=at;
+                at+=lineSize(Short.toUnsignedInt(buffer.getShort(at+4)));
+            }
+            return at==record+size;
+        }
+
+        private boolean finishes(int position, int limit){
+            long deadline = System.nanoTime() + UNFINISHED_WAIT_NANOS;
+            while(System.nanoTime()<deadline){
+                if(recordAt(buffer, position, limit)>0){
+                    return true;
+                }
+                Thread.yield();
+            }
+            return false;
+        }
+
+        private boolean hasRecordAfter(int position, int limit){
+            for(int at=position+8; at<limit; at+=8){
+                if(buffer.getLong(at)!=0 && recordAt(buffer, at, limit)>0){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public long getTime() {
+            return buffer.getLong(record+8);
+        }
+
+        /**
+         * @return what the dishes come to at the menu's list prices, before any promotion or discount
+         */
+        public long getListTotal() {
+            return buffer.getLong(record+16);
+        }
+
+        /**
+         * @return the customer's membership number, 0 if they were not a member
+         */
+        public long getMember() {
+            return buffer.getLong(record+24);
+        }
+
+        /**
+         * @return the bill before the membership discount, after happy hours and combos
+         */
+        public long getTotal() {
+            return buffer.getLong(record+32);
+        }
+
+        public long getDue() {
+            return buffer.getLong(record+40);
+        }
+
+        public long getTendered() {
+            return buffer.getLong(record+48);
+        }
+
+        public long getChange() {
+            return getTendered()-getDue();
+        }
+
+        /**
+         * @return CASH or CARD
+         */
+        public byte getMethod() {
+            return buffer.get(record+56);
+        }
+
+        public boolean isDiscount() {
+            return buffer.get(record+57)!=0;
+        }
+
+        public int lines() {
+            return Short.toUnsignedInt(buffer.getShort(record+58));
+        }
+
+        public int quantity(int line) {
+            return buffer.getInt(lineStarts[line]);
+        }
+
+        /**
+         * @return the price one portion was charged at
+         */
+        public long price(int line) {
+            return buffer.getLong(lineStarts[line]+8);
+        }
+
+        /**
+         * Method which gives the reader's id of a line's dish, the same for every line naming the same dish
+         */
+        public int dish(int line) {
+            int at = lineStarts[line];
+            int length = Short.toUnsignedInt(buffer.getShort(at+4));
+            int hash=0;
+            for(int i=0; i<length; i++){
+                hash = 31*hash + buffer.getChar(at+LINE_SIZE+2*i);
+            }
+            // The same hash as the name's String has
+            int mask = slots.length-1;
+            int slot = spread(hash) & mask;
+            while(slots[slot]!=0){
+                if(sameName(dishNames[slots[slot]-1], at, length)){
+                    return slots[slot]-1;
+                }
+                slot = (slot+1) & mask;
+            }
+            char[] chars = new char[length];
+            for(int i=0; i<length; i++){
+                chars[i] = buffer.getChar(at+LINE_SIZE+2*i);
+            }
+            return addDish(new String(chars), slot);
+        }
+
+        private boolean sameName(String name, int at, int length){
+            if(name.length()!=length){
+                return false;
+            }
+            for(int i=0; i<length; i++){
+                if(name.charAt(i)!=buffer.getChar(at+LINE_SIZE+2*i)){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int addDish(String name, int slot){
+            if(dishCount==dishNames.length){
+                dishNames = Arrays.copyOf(dishNames, dishCount*2);
+            }
+            dishNames[dishCount]=name;
+            slots[slot] = ++dishCount;
+            if(dishCount*2 > slots.length){
+                // Every name is placed again in a table twice as large
+                slots = new int[slots.length*2];
+                for(int dish=0; dish<dishCount; dish++){
+                    int at = spread(dishNames[dish].hashCode()) & slots.length-1;
+                    while(slots[at]!=0){
+                        at = (at+1) & slots.length-1;
+                    }
+                    slots[at] = dish+1;
+                }
+            }
+            return dishCount-1;
+        }
+
+        private static int spread(int hash){
+            int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * @return the name of a dish by the reader's id for it
+         */
+        public String dishName(int dish) {
+            return dishNames[dish];
+        }
+
+        /**
+         * @return how many different dishes the reader has met
+         */
+        public int dishCount() {
+            return dishCount;
+        }
+
+        @Override
+        public void close() {
+            buffer=null;
+        }
+    }
+}
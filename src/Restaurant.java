@@ -1,8 +1,8 @@
 import java.io.*;
-import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Locale;
-import java.util.Random;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -20,30 +20,97 @@ import java.util.Scanner;
  */
 public class Restaurant {
 
-    // Constant variables
-    private static final int LENGTH = 50;
-    private static final double DISCOUNT = 0.85;
+    // How many bad rows of a file are printed before the rest are only counted
+    private static final int MAX_REPORTED_ROWS = 10;
 
-    // Decimal formatting for the food prices
-    private static final DecimalFormat df = new DecimalFormat("0.00");
+    // Range of new membership numbers, can be changed with -Drestaurant.memberIds.first and .size
+    private static final long MEMBER_ID_FIRST = Long.getLong("restaurant.memberIds.first", 1_166_000L);
+    private static final long MEMBER_ID_SPACE = Long.getLong("restaurant.memberIds.size", 10_000_000L);
 
-    // Initializing the HashMaps needed for this program
-    private final HashMap<String, Member> membership = new HashMap<>();
-    private final HashMap<String, Double> order = new HashMap<>();
-    private final HashMap<String, Double> menu = new HashMap<>();
+    // Initializing the stores needed for this program
+    private MemberStore membership = new MemberStore();
+    // The menu and its promotions, replaced as a whole when either file changes
+    private volatile MenuSnapshot snapshot;
 
     private final Scanner scanner = new Scanner(System.in);
-    private final Random random = new Random();
-    private double grandTotal=0;
-    private double discountedGrandTotal=0;
-    private boolean discount=false;
+    // Entered while visits and new members are recorded, and closed while the journal is compacted
+    private final ChangeGate journalGate = new ChangeGate();
+    private final String menuFile;
+    private final String pricingFile;
+    private final String membersFile;
+    // Binary copy of the menu and members list, used instead of the .csv files while it is up to date
+    private final String snapshotFile;
+    // Held while a new menu or new promotions are compiled, sessions never take it
+    private final Object reloadLock = new Object();
+    private final MemberJournal journal;
+    private final MemberIdAllocator memberIds;
+    private final Metrics metrics = new Metrics();
+    // Cooks the orders when set, otherwise food is served as soon as it is ordered
+    private volatile Kitchen kitchen;
+    // Authorizes card payments when set, otherwise a card is accepted once its details are checked
+    private volatile PaymentClient payments;
+    // Records every settled bill when set
+    private volatile ReceiptJournal receipts;
+    // Seats every party at a table when set, otherwise there is always room
+    private volatile Seating seating;
 
     /**
      * Constructor for this class
      */
     public Restaurant(){
-        this.loadMenu("res/Menu.csv");
-        this.loadMembers("res/Members.csv");
+        this("res/Menu.csv", "res/Members.csv", "res/Members.journal", "res/Restaurant.snap");
+    }
+
+    /**
+     * Constructor for this class, which always loads the .csv files
+     * @param menuFile: The .csv file of the menu
+     * @param membersFile: The .csv file of the members list
+     * @param journalFile: The journal of membership changes made since the members list was written, or null to keep
+     *                   changes in memory only, as headless and benchmark runs do
+     */
+    public Restaurant(String menuFile, String membersFile, String journalFile){
+        this(menuFile, membersFile, journalFile, null);
+    }
+
+    /**
+     * Constructor for this class
+     * @param menuFile: The .csv file of the menu
+     * @param membersFile: The .csv file of the members list
+     * @param journalFile: The journal of membership changes made since the members list was written, or null to keep
+     *                   changes in memory only, as headless and benchmark runs do
+     * @param snapshotFile: The binary snapshot which is loaded instead of the .csv files when it is up to date, and
+     *                    written after they are loaded when it is not. Null to always load the .csv files
+     */
+    public Restaurant(String menuFile, String membersFile, String journalFile, String snapshotFile){
+        this.menuFile=menuFile;
+        this.pricingFile=Path.of(menuFile).resolveSibling("Pricing.csv").toString();
+        this.membersFile=membersFile;
+        this.snapshotFile=snapshotFile;
+
+        BinarySnapshot.Loaded loaded = readSnapshot();
+        Integer membersCrc = null;
+        if(loaded != null){
+            this.install(loaded.getMenu(), menuFile, 0);
+            this.membership = loaded.getMembers();
+            membersCrc = loaded.getMembersCrc();
+        } else {
+            this.loadMenu(menuFile);
+            this.loadMembers(membersFile);
+            if(snapshotFile != null){
+                // Written before the journal is replayed, the snapshot must match Members.csv
+                membersCrc = membersChecksum();
+                this.saveSnapshot(membersCrc);
+            }
+        }
+        if(journalFile == null){
+            this.journal = null;
+        } else if(membersCrc == null){
+            this.journal = MemberJournal.open(journalFile, membersFile, membership, this::compactMembers);
+        } else {
+            this.journal = MemberJournal.open(journalFile, membersFile, membership, this::compactMembers, membersCrc);
+        }
+        this.memberIds = MemberIdAllocator.rebuild(membership, MEMBER_ID_FIRST, MEMBER_ID_SPACE);
+        this.metrics.watchIdAllocator(memberIds::getRetries);
     }
 
     /**
@@ -51,513 +118,418 @@ public class Restaurant {
      */
     public static void main(String[] args){
         Restaurant restaurant = new Restaurant();
+        restaurant.indexMembers();
+        restaurant.setReceipts(new ReceiptJournal("res/receipts"));
+        restaurant.setSeating(Seating.load("res/Tables.csv"));
+        restaurant.getMetrics().publish("console");
+        restaurant.watchMenu();
         restaurant.serve();
     }
 
     /**
-     * Method which loads the menu
+     * Method which loads the menu, or a new version of it. The promotions are compiled for the new menu before it is
+     * published, and sessions which have already started keep the menu they started with.
      * @param filename: Input to this method which is the .csv filename String of the restaurant's menu
+     * @throws IllegalStateException if a new version of the menu has no dishes or any bad row, the current menu is
+     * then kept
      */
     public void loadMenu(String filename){
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] info = line.split(",");
-                String food = info[0];
-                String price = info[1];
-
-                menu.put(food, Double.parseDouble(price));
-
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(-1);
+        CsvLoader.Result<MenuRows> result = CsvLoader.load(filename, MenuRows::new);
+        reportBadRows(filename, result);
+
+        ArrayList<String> names = new ArrayList<>();
+        long[] cents = new long[(int) result.getRows()];
+        for(MenuRows rows:result.getHandlers()){
+            System.arraycopy(rows.prices, 0, cents, names.size(), rows.names.size());
+            names.addAll(rows.names);
         }
+        install(new Menu(names.toArray(new String[0]), cents), filename, result.getErrors().size());
     }
 
     /**
-     * Method which loads the members list
-     * @param filename: Input to this method which is of type String of a .csv filename
+     * Method which publishes a menu which has been loaded, with the promotions compiled for it. At start-up bad rows
+     * are only skipped, but a new version of the menu is only published if every row of it was read.
+     * @param badRows: How many rows of the file could not be read
      */
-    public void loadMembers(String filename){
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] info = line.split(",");
-                String num = info[0];
-                String name = info[1];
-                String freq = info[2];
-                String phone = info[3];
-
-                membership.put(num, new Member(num, name,Integer.parseInt(freq), Integer.parseInt(phone)));
-
+    private void install(Menu menu, String filename, int badRows){
+        synchronized (reloadLock) {
+            MenuSnapshot current = snapshot;
+            if(current == null){
+                publish(menu, PricingEngine.load(menu, pricingFile));
+            } else if(menu.size()==0){
+                // Most likely the file is being written, the next change brings the full menu
+                throw new IllegalStateException(filename + " has no dishes, the menu was not changed");
+            } else if(badRows>0){
+                // A half saved or mistyped file would drop dishes and move the others to new positions
+                throw new IllegalStateException(filename + " has " + badRows + " bad rows, the menu was not changed");
+            } else {
+                publish(menu, current.getPricing().forMenu(menu));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(-1);
         }
     }
 
     /**
-     * Method which displays the menu to the customers
-     * @param list: The input to this method which is the menu list itself in the form of a HashMap
+     * Method which loads the promotions again, for the current menu
+     * @param filename: The .csv file of promotion rules
      */
-    public void displayFood(HashMap<String, Double> list){
-        printLine();
-        System.out.println("|                       FOOD                       |PRICE |");
-        printLine();
-
-        for(String food:list.keySet()) {
-            System.out.print("|");
-            System.out.print(food);
-            for(int i = 0; i < (LENGTH - food.length()); i++){
-                System.out.print(" ");
-            }
-
-            System.out.print("|");
-            String price = df.format(list.get(food));
-            int priceLen = price.length();
-            switch (priceLen) {
-                case (6) -> System.out.print(price + "|");
-                case (5) -> System.out.print(price + " |");
-                case (4) -> System.out.print(price + "  |");
-                default -> System.out.print(price + "   |");
-            }
-            System.out.println();
+    public void loadPricing(String filename){
+        synchronized (reloadLock) {
+            Menu menu = snapshot.getMenu();
+            publish(menu, PricingEngine.load(menu, filename));
         }
-        printLine();
     }
 
-    public void printLine(){
-        System.out.println("-----------------------------------------------------------");
+    /**
+     * Method which swaps in a new menu and its promotions in one step, with the bill tables drawn beforehand so the
+     * first sessions using them do not have to
+     */
+    private void publish(Menu menu, PricingEngine pricing){
+        menu.renderer();
+        MenuSnapshot current = snapshot;
+        snapshot = new MenuSnapshot(current == null ? 1 : current.getVersion()+1, menu, pricing);
     }
 
     /**
-     * Method which is the backbone of the program, where the restaurant serves the customers
-     * Since they arrive and leave.
+     * Method which starts loading Menu.csv and Pricing.csv again whenever they change
+     * @return the watcher, which stops when closed
      */
-    public void serve(){
-        boolean running=true;
-        System.out.println("WELCOME TO THE RESTAURANT! HERE IS THE MENU!\n");
-        this.displayFood(menu);
-
-        System.out.println("NARRATOR: If you are ready to order, just call the waiter (input waiter).");
-
-        while(running) {
-            System.out.print("CUSTOMER: ");
-            String userIn = scanner.nextLine();
-
-            if (userIn.toLowerCase(Locale.ROOT).contains("waiter")) {
-                System.out.println("WAITER: Hi my name is Java and I will be serving you today.");
-                this.customerOrder();
-                this.serveFood();
-                this.callBill();
-                this.payBill(discount);
-                running=false;
-            } else {
-                System.out.println("I am sorry I don't understand, but if you are ready just yell for the waiter! " +
-                        "(input waiter).");
-            }
+    public MenuWatcher watchMenu(){
+        try {
+            return new MenuWatcher(this, menuFile, pricingFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        this.writeToMembers("res/Members.csv");
-        System.out.println("WAITER: Thank you for eating at this restaurant! Hope you will come by again!");
-        System.out.println("\n*** END OF SIMULATION ***");
     }
 
     /**
-     * Method which asks the customer what they want to order
+     * Method which loads the binary snapshot, unless there is none or it is older than the .csv files
+     * @return what the snapshot holds, or null if the .csv files have to be loaded
      */
-    public void customerOrder(){
-        boolean validity=false;
-
-        System.out.println("WAITER: What can I get for you?");
-
-        while(!validity){
-            System.out.print("CUSTOMER: ");
-            String foodItem = scanner.nextLine();
-
-            if(menu.containsKey(foodItem.toUpperCase())){
-                boolean running=true;
-                double price = menu.get(foodItem.toUpperCase());
-                order.put(foodItem, price);
+    private BinarySnapshot.Loaded readSnapshot(){
+        if(snapshotFile == null){
+            return null;
+        }
+        try {
+            return BinarySnapshot.read(Path.of(snapshotFile), Path.of(menuFile), Path.of(membersFile));
+        } catch (IOException e) {
+            System.err.println("WARNING: " + e.getMessage() + ", loading the .csv files instead");
+            return null;
+        }
+    }
 
-                System.out.println("WAITER: Noted, is that all? (yes/no)");
+    /**
+     * Method which writes the binary snapshot of the menu and the members list. A snapshot which could not be written
+     * only makes the next start slower, so a failure is a warning
+     * @param membersCrc: The CRC32C of Members.csv
+     */
+    private void saveSnapshot(int membersCrc){
+        try {
+            BinarySnapshot.write(Path.of(snapshotFile), Path.of(menuFile), Path.of(membersFile), membersCrc,
+                    getMenu(), membership);
+        } catch (IOException e) {
+            System.err.println("WARNING: " + snapshotFile + " was not written, " + e.getMessage());
+        }
+    }
 
-                while(running) {
-                    System.out.print("CUSTOMER: ");
-                    String lastOrder = scanner.nextLine();
+    private int membersChecksum(){
+        try {
+            return MemberJournal.checksum(Path.of(membersFile));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-                    if (lastOrder.toLowerCase(Locale.ROOT).equals("yes")) {
-                        System.out.println("WAITER: Thank you, please wait for your order while we prepare it for you.");
-                        running=false;
-                        validity = true;
-                    } else if (lastOrder.toLowerCase(Locale.ROOT).equals("no")) {
-                        System.out.println("WAITER: Alright then. What can I get for you?");
-                        running=false;
-                    } else {
-                        System.out.println("WAITER: I am sorry I do not understand. Is that a yes or no?");
-                    }
-                }
-            } else {
-                System.out.println("WAITER: Sorry we do not have that in our menu.");
+    /**
+     * Method which loads the members list
+     * @param filename: Input to this method which is of type String of a .csv filename
+     */
+    public void loadMembers(String filename){
+        CsvLoader.Result<MemberRows> result = CsvLoader.load(filename, MemberRows::new);
+        reportBadRows(filename, result);
+
+        membership.ensureCapacity(membership.size() + (int) result.getRows());
+        for(MemberRows rows:result.getHandlers()){
+            int nameStart=0;
+            for(int i=0; i<rows.size; i++){
+                membership.put(rows.nums[i], rows.names, nameStart, rows.nameLengths[i], rows.freqs[i], rows.phones[i]);
+                nameStart+=rows.nameLengths[i];
             }
         }
     }
 
     /**
-     * Method which serves the food to the customers the food they have ordered
+     * Method which warns about the rows of a file which were skipped
      */
-    public void serveFood(){
-        boolean running=true;
-        int i=1;
-        System.out.println("\nWAITER: Sorry for the wait, here is your food!");
-
-        for(String food:order.keySet()){
-            System.out.println("    "+i+". "+food);
-            i++;
+    static void reportBadRows(String filename, CsvLoader.Result<?> result){
+        List<String> errors = result.getErrors();
+        for(int i=0; i<Math.min(errors.size(), MAX_REPORTED_ROWS); i++){
+            System.err.println("WARNING: skipped bad row in " + filename + ", " + errors.get(i));
+        }
+        if(errors.size()>MAX_REPORTED_ROWS){
+            System.err.println("WARNING: skipped " + (errors.size()-MAX_REPORTED_ROWS) + " more bad rows in " +
+                    filename);
         }
+    }
 
-        while(running){
-            System.out.print("TO EAT INPUT \"EAT\": ");
-            String makan = scanner.nextLine();
-            if(makan.toUpperCase(Locale.ROOT).equals("EAT")){
-                System.out.println("CUSTOMER: *eats food* *yum* (IMAGINE YOU ARE EATING GOOD FOOD!).");
-                running=false;
+    /**
+     * Collects the dishes of one chunk of Menu.csv
+     */
+    private static class MenuRows implements CsvLoader.RowHandler {
+        private final ArrayList<String> names = new ArrayList<>();
+        private long[] prices = new long[32];
+
+        @Override
+        public void row(CsvRow row) {
+            row.require(2);
+            long price = row.centsField(1);
+            if(names.size()==prices.length){
+                prices = Arrays.copyOf(prices, prices.length*2);
             }
+            prices[names.size()]=price;
+            names.add(row.stringField(0));
         }
-
     }
 
     /**
-     * Method which allows customers to call for the bill after eating
+     * Collects the members of one chunk of Members.csv in columns, with the names kept as raw bytes
      */
-    public void callBill(){
-        boolean running=true;
-        System.out.println("\nNARRATOR: If you are done, just call the bill by entering \"bill\". Thank you.");
-
-        while(running){
-            System.out.print("CUSTOMER: ");
-            String bill = scanner.nextLine();
-
-            if(bill.toLowerCase(Locale.ROOT).equals("bill")){
-                System.out.println("WAITER: Here is your bill. I hope you have enjoyed the food!");
-                printBill(false);
-                running=false;
-            } else {
-                System.out.println("NARRATOR: Sorry I did not get what you meant. " +
-                        "To call the bill, just enter \"bill\". Thank you.");
+    private static class MemberRows implements CsvLoader.RowHandler {
+        private long[] nums = new long[1024];
+        private int[] freqs = new int[1024];
+        private long[] phones = new long[1024];
+        private int[] nameLengths = new int[1024];
+        private byte[] names = new byte[16*1024];
+        private int namesSize=0;
+        private int size=0;
+
+        @Override
+        public void row(CsvRow row) {
+            row.require(4);
+            long num = row.longField(0);
+            if(num<=0){
+                throw new IllegalArgumentException("membership number must be positive");
+            }
+            int freq = row.intField(2);
+            long phone = row.longField(3);
+
+            if(size==nums.length){
+                nums = Arrays.copyOf(nums, size*2);
+                freqs = Arrays.copyOf(freqs, size*2);
+                phones = Arrays.copyOf(phones, size*2);
+                nameLengths = Arrays.copyOf(nameLengths, size*2);
+            }
+            int nameLength = row.fieldLength(1);
+            if(namesSize+nameLength > names.length){
+                names = Arrays.copyOf(names, Math.max(names.length*2, namesSize+nameLength));
             }
+            row.copyField(1, names, namesSize);
+            namesSize+=nameLength;
+
+            nums[size]=num;
+            freqs[size]=freq;
+            phones[size]=phone;
+            nameLengths[size]=nameLength;
+            size++;
         }
+    }
 
-        running=true;
-        while(running){
-            System.out.println("WAITER: Do you have a membership with us? (yes/no)");
-            System.out.print("CUSTOMER: ");
-            String member = scanner.nextLine();
-
-            if(member.toLowerCase(Locale.ROOT).equals("yes")){
-                this.membership();
-                running=false;
-            } else if(member.toLowerCase(Locale.ROOT).equals("no")){
-                this.createMembership();
-                running=false;
-            } else {
-                System.out.println("WAITER: I am sorry I did not catch that.");
-            }
+    /**
+     * Method which is the backbone of the program, where the restaurant serves the customers
+     * Since they arrive and leave.
+     */
+    public void serve(){
+        // With -Drestaurant.record=<file> the visit is kept as a transcript which the LoadGenerator can replay
+        String transcript = System.getProperty("restaurant.record");
+        Transcripts.Recorder recorder = new Transcripts.Recorder(scanner::nextLine);
+        Session session = new Session(this, transcript == null ? scanner::nextLine : recorder, System.out);
+        session.run();
+        if(transcript != null){
+            Transcripts.append(transcript, recorder.getLines());
         }
 
+        this.saveMembers();
+        this.saveReceipt(session);
+        System.out.println("WAITER: Thank you for eating at this restaurant! Hope you will come by again!");
+        System.out.println("\n*** END OF SIMULATION ***");
     }
 
     /**
-     * Method which allows the customers to pay the bill after calling and seeing the bill
+     * Method which gives the sessions access to the restaurant's menu
+     * @return the latest menu, which is never changed once it has been loaded
      */
-    public void payBill(boolean disc){
-        boolean running=true;
-
-        System.out.println("NARRATOR: Whenever you are ready to pay, please input \"pay\"");
+    public Menu getMenu(){
+        return snapshot.getMenu();
+    }
 
-        while(running){
-            System.out.print("CUSTOMER: ");
-            String payment = scanner.nextLine();
+    /**
+     * Method which gives the latest menu together with its promotions, for a session to keep for the whole visit
+     */
+    public MenuSnapshot getSnapshot(){
+        return snapshot;
+    }
 
-            if(payment.toLowerCase(Locale.ROOT).equals("pay")){
-                boolean invalidPay=true;
-                System.out.println("WAITER: Cash or card? (cash/card)");
-                while(invalidPay) {
-                    System.out.print("CUSTOMER: ");
-                    String method = scanner.nextLine();
-                    if(method.toLowerCase(Locale.ROOT).equals("cash")){
-                        this.cashPayment(disc);
-                        invalidPay=false;
-                    } else if (method.toLowerCase(Locale.ROOT).equals("card")){
-                        this.cardPayment();
-                        invalidPay=false;
-                    } else {
-                        System.out.println("WAITER: Sorry, could you please pay with cash or card? (cash/card)");
-                    }
-                }
-                running=false;
-            } else {
-                System.out.println("NARRATOR: Just input \"pay\" whenever you are ready.");
-            }
-        }
+    /**
+     * Method which gives the measurements shared by every visit to this restaurant
+     */
+    public Metrics getMetrics(){
+        return metrics;
     }
 
     /**
-     * Method which enables customers to pay with cash
+     * Method which gives the promotions compiled for the current menu
      */
-    public void cashPayment(boolean disc){
-        boolean running = true;
-        double amountPaid=0;
-        double due;
-        int[] bill = {1,2,5,10,20,50,100};
+    public PricingEngine getPricing(){
+        return snapshot.getPricing();
+    }
 
-        if(disc){
-            due=discountedGrandTotal;
-        } else {
-            due=grandTotal;
-        }
-        while(running) {
-            if(amountPaid>due){
-                running=false;
-            } else {
-                System.out.println("NARRATOR: Enter the notes to pay. (without the dollar sign)");
-                System.out.println("NARRATOR: You have paid = "+String.format("%,.2f",amountPaid)+
-                        ", remaining = "+String.format("%,.2f",due-amountPaid)+".");
-                System.out.println("NOTES: $1, $2, $5, $10, $20, $50, $100.");
-                System.out.print("ENTER CASH (per note): ");
-                String note = scanner.nextLine();
-                for(int i=0; i<note.length(); i++){
-                    if(i!=note.length()-1) {
-                        if (!Character.isDigit(note.charAt(i))) {
-                            System.out.println("WAITER: Please enter a valid cash note.");
-                            break;
-                        }
-                    } else {
-                        int cash = Integer.parseInt(note);
-                        for(int x=0; x<bill.length;x++){
-                            if(x==bill.length-1 && cash!=bill[x]){
-                                System.out.println("NARRATOR: Please enter a valid cash note in the provided list.");
-                            } else if (cash == bill[x]){
-                                amountPaid+=cash;
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
-        }
+    public Kitchen getKitchen(){
+        return kitchen;
+    }
 
-        if(amountPaid-due>0) {
-            System.out.println("WAITER: You have paid $" + amountPaid+" for $"+String.format("%,.2f",due)+
-                    ". Here is a change of $"+String.format("%,.2f",amountPaid - due) + ".");
-        } else {
-            System.out.println("WAITER: You have paid $" + String.format("%,.2f",amountPaid)+". Thank you.");
-        }
+    /**
+     * Method which makes every order go through a kitchen before it is served
+     * @param kitchen: The kitchen to cook with, or null to serve orders straight away
+     */
+    public void setKitchen(Kitchen kitchen){
+        this.kitchen=kitchen;
+    }
 
+    public PaymentClient getPayments(){
+        return payments;
     }
 
     /**
-     * Method which enables customers to pay with card
+     * Method which makes every card payment be authorized by a payment processor
+     * @param payments: The client sending payments to the processor, or null to accept cards once they are checked
      */
-    public void cardPayment(){
-        boolean running;
-        boolean runningBigLoop = true;
-        String card = "";
-        String expiryDate = "";
-
-        System.out.println("WAITER: Wait for a sec, I will get the debit machine.");
+    public void setPayments(PaymentClient payments){
+        this.payments=payments;
+    }
 
-        while(runningBigLoop) {
-            System.out.println("MACHINE: Please enter your card number. (Without spaces)");
+    public ReceiptJournal getReceipts(){
+        return receipts;
+    }
 
-            running=true;
-            while (running) {
-                System.out.print("    CARD NUMBER: ");
-                String cardNum = scanner.nextLine();
-                if (cardNum.length() == 16) {
-                    for (int i = 0; i < cardNum.length(); i++) {
-                        if (i != cardNum.length() - 1) {
-                            if (!Character.isDigit(cardNum.charAt(i))) {
-                                System.out.println("MACHINE: *ERROR* Please enter a valid card number.");
-                                break;
-                            }
-                        } else {
-                            card = cardNum;
-                            running = false;
-                        }
-                    }
-                } else {
-                    System.out.println("MACHINE: *ERROR* Card number must be 16 numbers long. Please re-enter.");
-                }
-            }
+    /**
+     * Method which makes every settled bill be recorded
+     * @param receipts: The journal to record the bills in, or null to keep no receipts
+     */
+    public void setReceipts(ReceiptJournal receipts){
+        this.receipts=receipts;
+    }
 
-            System.out.println("MACHINE: Please enter your card's expiry (month year; eg. 1221 for December 2021).");
-            running = true;
-            while (running) {
-                System.out.print("    EXPIRY: ");
-                String expiry = scanner.nextLine();
-                if (expiry.length() == 4) {
-                    for (int i = 0; i < expiry.length(); i++) {
-                        if (i != expiry.length() - 1) {
-                            if (!Character.isDigit(expiry.charAt(i))) {
-                                System.out.println("MACHINE: *ERROR* Please enter your card's expiry.");
-                                break;
-                            }
-                        } else {
-                            expiryDate = expiry;
-                            running = false;
-                        }
-                    }
-                } else {
-                    System.out.println("MACHINE: *ERROR* Expiry date must be entered with this format -> 1221 for Dec 2021." +
-                            " Please re-enter.");
-                }
-            }
+    public Seating getSeating(){
+        return seating;
+    }
 
-            System.out.println("MACHINE: Please enter your security key (eg: 123).");
-            running = true;
-            while (running) {
-                System.out.print("    SECURITY KEY: ");
-                String secKey = scanner.nextLine();
-                if (secKey.length() == 3) {
-                    for (int i = 0; i < secKey.length(); i++) {
-                        if (i != secKey.length() - 1) {
-                            if (!Character.isDigit(secKey.charAt(i))) {
-                                System.out.println("MACHINE: *ERROR* Please enter your security key correctly.");
-                                break;
-                            }
-                        } else {
-                            running = false;
-                        }
-                    }
-                } else {
-                    System.out.println("MACHINE: *ERROR* Security key must be only 3 numbers long. Please re-enter.");
-                }
-            }
+    /**
+     * Method which makes every party wait for a table which seats them before they order
+     * @param seating: The tables and their bookings, or null to seat everyone straight away
+     */
+    public void setSeating(Seating seating){
+        this.seating=seating;
+    }
 
-            System.out.print("MACHINE: You are paying with card number \"");
-            printCardNum(card);
-            System.out.println("\" with expiry date \"" + expiryDate + "\".");
-            running = true;
-            System.out.println("MACHINE: Do you want to proceed with the payment? (yes/no)");
-            while (running) {
-                System.out.print("CUSTOMER: ");
-                String agree = scanner.nextLine();
-                if (agree.toLowerCase(Locale.ROOT).equals("yes")) {
-                    running = false;
-                    runningBigLoop=false;
-                } else if (agree.toLowerCase(Locale.ROOT).equals("no")) {
-                    running = false;
-                } else {
-                    System.out.println(("MACHINE: *ERROR* Please re-enter (yes/no) to proceed with payment."));
-                }
-            }
+    /**
+     * Method which waits until a session's receipt is on disk, if it has one
+     */
+    public void saveReceipt(Session session){
+        ReceiptJournal journal = receipts;
+        if(journal != null && session.getReceipt()>=0){
+            journal.sync(session.getReceipt());
         }
+    }
 
-        System.out.println("MACHINE: Payment successful.");
-
+    /**
+     * Method which gives read access to the membership list, for tools which pick members to simulate
+     */
+    public MemberStore getMembers(){
+        return membership;
     }
 
     /**
-     * Method which prints the card number of a client
-     * @param cardNum: Input to this method which is the card number in String format
+     * Method which records a returning member's visit
+     * @param num: The membership number the customer has given
+     * @return the member with their visit counted, or null if the number is not in the membership list
      */
-    public void printCardNum(String cardNum){
-        for(int i=0; i<cardNum.length(); i++){
-            System.out.print(cardNum.charAt(i));
-            if((i+1)%4==0 && (i!=cardNum.length()-1)){
-                System.out.print(" ");
+    public Member checkIn(String num){
+        long key = MemberStore.parseNum(num);
+        Member member = membership.get(key);
+        if(member != null){
+            if(journal == null){
+                member.setFreq();
+            } else {
+                int stripe = journalGate.enter();
+                try {
+                    member.setFreq();
+                    journal.visit(key);
+                } finally {
+                    journalGate.leave(stripe);
+                }
             }
         }
+        return member;
     }
 
     /**
-     * Method which asks the customer for their membership
+     * Method which builds the indexes for finding members by phone number and name in the background, so the first
+     * search does not wait for them
      */
-    public void membership(){
-        boolean running=true;
-        System.out.println("WAITER: Could you please tell me your membership number?");
-
-        while(running){
-            System.out.print("CUSTOMER: ");
-            String membershipNum = scanner.nextLine();
+    public void indexMembers(){
+        Thread indexer = new Thread(membership::buildIndexes, "member-indexes");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
 
-            if(membership.containsKey(membershipNum)) {
-                System.out.println("WAITER: Well Hello " + membership.get(membershipNum).getName() +
-                        "! Good to have you with us for " + (membership.get(membershipNum).getFreq() + 1) + " times!");
-                System.out.println("WAITER: I have changed your bill with your membership discount.");
-                membership.get(membershipNum).setFreq();
-                this.discountBill();
-                discount=true;
-                running = false;
-            } else {
-                System.out.println("WAITER: I am sorry, I don't think you are in our membership list. Feel free " +
-                        "to retry by entering your membership number.");
-            }
+    /**
+     * Method which looks members up by phone number when the text is all digits, and by the start of their name
+     * otherwise, without counting a visit
+     * @param text: The phone number or part of the name, as the customer gave it
+     * @param limit: The most members to give
+     * @return the members found, possibly none
+     */
+    public List<Member> findMembers(String text, int limit){
+        String query = text.trim();
+        int[] rows = new int[limit];
+        long phone = MemberStore.parsePhone(query);
+        int found;
+        if(query.isEmpty()){
+            found = 0;
+        } else if(phone>=0){
+            found = membership.findByPhone(phone, rows);
+        } else {
+            found = membership.findByName(query, rows);
         }
-
+        List<Member> members = new ArrayList<>(found);
+        for(int i=0; i<found; i++){
+            members.add(new Member(membership, rows[i]));
+        }
+        return members;
     }
 
     /**
-     * Method which enables to create a new membership for the customer
-     */
-    public void createMembership(){
-        boolean running=true;
-        boolean invalidNum = true;
-        System.out.println("WAITER: Would you want a membership with us? (yes/no)");
-
-        while(running){
-            System.out.print("CUSTOMER: ");
-            String userIn = scanner.nextLine();
-
-            if(userIn.toLowerCase(Locale.ROOT).equals("yes")){
-                System.out.println("WAITER: Please enter your name.");
-                System.out.print("CUSTOMER: ");
-                String name = scanner.nextLine();
-                System.out.println("WAITER: Please enter your phone number as well.");
-
-                while(invalidNum) {
-                    System.out.print("CUSTOMER: ");
-                    String phoneNum = scanner.nextLine();
-
-                    for(int i=0; i<phoneNum.length(); i++){
-                        if(i!=phoneNum.length()-1){
-                            if(!Character.isDigit(phoneNum.charAt(i))){
-                                System.out.println("WAITER: Please enter a valid phone number.");
-                                break;
-                            }
-                        } else {
-                            invalidNum=false;
-
-                            boolean validID=false;
-                            while(!validID) {
-                                int id = random.nextInt(999);
-                                String personId = "1166"+id;
-                                if(!membership.containsKey(personId)){
-                                    System.out.println("WAITER: Thank you for joining our restaurant membership. " +
-                                            "Your Membership ID is: "+personId);
-                                    membership.put(personId,
-                                            new Member(personId, name, 1, Integer.parseInt(phoneNum)));
-                                    validID=true;
-                                }
-                            }
-
-                            System.out.println("WAITER: We have provided a discount for you. This is the new bill.");
-                            this.discountBill();
-                            running=false;
-                            discount=true;
-                            break;
-                        }
+     * Method which registers a new member under a free membership number
+     * @param name: The new member's name
+     * @param phoneNum: The new member's phone number
+     * @return the membership number given to the new member
+     */
+    public String register(String name, long phoneNum){
+        int stripe = journal != null ? journalGate.enter() : -1;
+        try {
+            while(true) {
+                long key = memberIds.allocate();
+                // Only taken if the number was added to the store without going through the allocator
+                if(membership.add(key, name, 1, phoneNum) >= 0){
+                    if(journal != null){
+                        journal.newMember(key, name, 1, phoneNum);
                     }
+                    return Long.toString(key);
                 }
-
-            } else if(userIn.toLowerCase(Locale.ROOT).equals("no")){
-                System.out.println("WAITER: Alright then, no problem.");
-                running=false;
-            } else {
-                System.out.println("WAITER: I am sorry I did not catch that. Would you want a membership with us? " +
-                        "(yes/no)");
+                metrics.idRetry();
+            }
+        } finally {
+            if(journal != null){
+                journalGate.leave(stripe);
             }
         }
     }
@@ -566,53 +538,83 @@ public class Restaurant {
      * Method which writes the new members to the .csv file
      * @param filename: Input to this method which is the filename String
      */
-    public void writeToMembers(String filename){
-        try (PrintWriter pw = new PrintWriter(new FileWriter(filename))){
-            for(String member:membership.keySet()){
-                Member person = membership.get(member);
-                pw.println(person.getNum()+","+person.getName()+","+person.getFreq()+","+person.getPhoneNum());
-            }
+    public synchronized void writeToMembers(String filename){
+        try {
+            writeMembers(Path.of(filename));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Method which calculates the discount for the customer and provides an overall discounted bill
+     * Method which makes sure every membership change so far is kept. With a journal only the journal's latest
+     * records have to reach the disk, otherwise the whole members list is written out.
      */
-    public void discountBill(){
-        for(String food:order.keySet()){
-            Double price = order.get(food);
-            order.replace(food, price*DISCOUNT);
+    public void saveMembers(){
+        if(journal != null){
+            journal.sync();
+        } else {
+            this.writeToMembers(membersFile);
         }
-        printBill(true);
     }
 
     /**
-     * Method which prints the bill for the customer
-     * @param discounted: Input to this method to know if the bill printed is discounted or not
+     * Method which folds the journal into a new members list, called by the journal when it has grown too long.
+     * Closing the gate keeps new visits and members out until the empty journal is in place.
      */
-    public void printBill(boolean discounted){
-        printLine();
-        System.out.println("|                           BILL                          |");
-        printLine();
-        System.out.println();
-
-        if(discounted){
-            this.displayFood(order);
-            for (String food:order.keySet()){
-                discountedGrandTotal+=order.get(food);
+    private void compactMembers() throws IOException {
+        journalGate.close();
+        try {
+            Path snapshot = Path.of(membersFile);
+            Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+            writeMembers(temp);
+            int membersCrc = journal.reset(temp, snapshot);
+            if(snapshotFile != null){
+                saveSnapshot(membersCrc);
             }
-            System.out.println("TOTAL: $"+String.format("%,.2f", discountedGrandTotal));
-            printLine();
-        } else {
-            this.displayFood(order);
-            for (String food:order.keySet()){
-                grandTotal+=order.get(food);
+        } finally {
+            journalGate.open();
+        }
+    }
+
+    /**
+     * Method which writes the members list and waits until it is on disk
+     */
+    private void writeMembers(Path file) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file.toFile());
+             OutputStream out = new BufferedOutputStream(stream, 1 << 16)){
+            for(int row=0; row<membership.size(); row++){
+                long num = membership.num(row);
+                if(num==0){
+                    // A row whose membership number was taken by someone else
+                    continue;
+                }
+                writeNumber(out, num);
+                out.write(',');
+                out.write(membership.namePage(row), membership.nameOffset(row), membership.nameLength(row));
+                out.write(',');
+                writeNumber(out, membership.freq(row));
+                out.write(',');
+                writeNumber(out, membership.phone(row));
+                out.write('\n');
             }
-            System.out.println("TOTAL: $" + String.format("%,.2f", grandTotal));
-            printLine();
+            out.flush();
+            stream.getFD().sync();
+        }
+    }
+
+    /**
+     * Method which writes the digits of a number without making a String of it
+     */
+    private static void writeNumber(OutputStream out, long value) throws IOException {
+        if(value<0){
+            out.write('-');
+            value=-value;
+        }
+        if(value>=10){
+            writeNumber(out, value/10);
         }
+        out.write((int) ('0' + value%10));
     }
 
 }
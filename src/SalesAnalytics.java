@@ -0,0 +1,506 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Sales and loyalty figures over every settled bill: revenue and portions by dish at the prices charged, what happy
+ * hours and combos took off the list prices apart from what the membership discount took, the spread of members'
+ * visit counts and the members who spent the most.
+ *
+ * The bills are kept as columns in fixed-size chunks, one set for the bills (member, list total, total before the
+ * membership discount, amount due) and one for their lines (dish and quantity packed in an int, amount charged), so
+ * hundreds of millions of lines take a dozen bytes each
+ * and can be scanned in parallel chunk by chunk on the fork-join pool. While bills are added, running totals by dish,
+ * the discount cost and each member's spend are kept up to date as well, so a dashboard asking for a report every few
+ * seconds only pays for the bills which arrived since, and scan is only needed to check or rebuild them. Visit counts
+ * live in the membership list, whose column is scanned in parallel for every report.
+ *
+ * Bills come from the restaurant's receipt journal, followed with a ReceiptJournal.Reader, or are added directly.
+ * Dishes are told apart by name, and numbered in the order they are first met, so bills from before a menu reload
+ * keep their dishes. Only one thread adds at a time; reports and scans can run alongside.
+ */
+public class SalesAnalytics {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // Dish and quantity share an int, so a line of more than this many portions is split in several
+    private static final int MAX_LINE_QUANTITY = 0xFFFF;
+    private static final int MAX_DISHES = 0x10000;
+
+    private final Restaurant restaurant;
+    private ReceiptJournal.Reader follower;
+
+    // The columns, chunks are only ever added and filled from the start, and a reader only looks below the size
+    private volatile BillChunk[] bills = new BillChunk[16];
+    private volatile LineChunk[] lines = new LineChunk[16];
+    private volatile long billCount=0;
+    private volatile long lineCount=0;
+
+    // The dishes' names by id, grown before a line of a new dish is published
+    private volatile String[] dishNames = new String[64];
+    private final Map<String, Integer> dishIds = new HashMap<>();
+    // The id of each dish of the receipt journal being followed, plus one, by the follower's own id for it
+    private int[] followedDishes = new int[64];
+
+    // Running totals, only changed and read while holding the analytics' lock
+    private long[] dishRevenue = new long[64];
+    private long[] dishPortions = new long[64];
+    private int dishes=0;
+    private long revenue=0;
+    private long listTotal=0;
+    private long discountCost=0;
+    private long discountedBills=0;
+    private final SpendTable spend = new SpendTable(1024);
+
+    /**
+     * Constructor for this class
+     * @param restaurant: The restaurant whose members' visits are counted
+     */
+    public SalesAnalytics(Restaurant restaurant){
+        this.restaurant=restaurant;
+    }
+
+    /**
+     * Method which makes refresh read the bills of a receipt journal, from its oldest one
+     * @param receiptFolder: The folder of the journal
+     */
+    public synchronized void follow(String receiptFolder){
+        if(follower != null){
+            follower.close();
+        }
+        follower = ReceiptJournal.read(receiptFolder);
+        Arrays.fill(followedDishes, 0);
+    }
+
+    /**
+     * Method which adds the bills settled since the last refresh from the receipt journal being followed
+     * @return how many bills were added
+     */
+    public synchronized long refresh(){
+        if(follower == null){
+            return 0;
+        }
+        long added=0;
+        while(follower.next()){
+            long bill = billCount;
+            for(int line=0; line<follower.lines(); line++){
+                addLine(followedDish(follower.dish(line)), follower.quantity(line), follower.price(line));
+            }
+            addBill(bill, follower.getMember(), follower.getListTotal(), follower.getTotal(), follower.getDue());
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Method which adds a settled bill
+     * @param member: The customer's membership number, 0 if they are not a member
+     * @param total: The bill before the membership discount, in cents
+     * @param due: The amount paid, in cents
+     * @param order: The dishes ordered
+     * @param menu: The menu the dishes were ordered from
+     * @param prices: The prices the dishes were charged at
+     */
+    public synchronized void add(long member, long total, long due, Order order, Menu menu,
+                                 PricingEngine.PriceTable prices){
+        long bill = billCount;
+        for(int line=0; line<order.size(); line++){
+            int item = order.item(line);
+            addLine(dishId(menu.name(item)), order.quantity(line), prices.price(item));
+        }
+        addBill(bill, member, order.total(menu), total, due);
+    }
+
+    /**
+     * Method which gives the id of a dish of the journal being followed, from the follower's own id for it
+     */
+    private int followedDish(int dish){
+        if(dish>=followedDishes.length){
+            followedDishes = Arrays.copyOf(followedDishes, Math.max(dish+1, followedDishes.length*2));
+        }
+        if(followedDishes[dish]==0){
+            followedDishes[dish] = dishId(follower.dishName(dish))+1;
+        }
+        return followedDishes[dish]-1;
+    }
+
+    /**
+     * Method which gives the id of a dish by name, numbering it the first time it is met
+     */
+    private int dishId(String name){
+        Integer id = dishIds.get(name);
+        if(id != null){
+            return id;
+        }
+        if(dishes==MAX_DISHES){
+            throw new IllegalStateException("More than " + MAX_DISHES + " dishes were sold");
+        }
+        int dish = dishes++;
+        if(dishes>dishRevenue.length){
+            dishRevenue = Arrays.copyOf(dishRevenue, dishRevenue.length*2);
+            dishPortions = Arrays.copyOf(dishPortions, dishRevenue.length);
+        }
+        String[] names = dishNames;
+        if(dish==names.length){
+            names = Arrays.copyOf(names, names.length*2);
+        }
+        names[dish]=name;
+        dishNames=names;
+        dishIds.put(name, dish);
+        return dish;
+    }
+
+    private void addLine(int item, int quantity, long price){
+        if(quantity<0){
+            throw new IllegalArgumentException("Invalid bill line: dish " + item + ", quantity " + quantity);
+        }
+        while(quantity>0){
+            int portions = Math.min(quantity, MAX_LINE_QUANTITY);
+            long amount = portions*price;
+            long row = lineCount;
+            LineChunk chunk = lineChunk(row);
+            int at = (int) (row & (CHUNK_SIZE-1));
+            chunk.dishQuantity[at] = item<<16 | portions;
+            chunk.amount[at] = amount;
+            // Published after the row is written
+            lineCount = row+1;
+
+            dishRevenue[item]+=amount;
+            dishPortions[item]+=portions;
+            quantity-=portions;
+        }
+    }
+
+    private void addBill(long row, long member, long list, long total, long due){
+        BillChunk chunk = billChunk(row);
+        int at = (int) (row & (CHUNK_SIZE-1));
+        chunk.member[at] = member;
+        chunk.list[at] = list;
+        chunk.total[at] = total;
+        chunk.due[at] = due;
+        billCount = row+1;
+
+        revenue+=due;
+        listTotal+=list;
+        // Only the membership discount counts, happy hours and combos are already off the total
+        if(due<total){
+            discountCost+=total-due;
+            discountedBills++;
+        }
+        if(member!=0){
+            spend.add(member, due);
+        }
+    }
+
+    private LineChunk lineChunk(long row){
+        int index = (int) (row >>> CHUNK_BITS);
+        LineChunk[] chunks = lines;
+        if(index==chunks.length){
+            chunks = Arrays.copyOf(chunks, chunks.length*2);
+            lines = chunks;
+        }
+        if(chunks[index] == null){
+            chunks[index] = new LineChunk();
+        }
+        return chunks[index];
+    }
+
+    private BillChunk billChunk(long row){
+        int index = (int) (row >>> CHUNK_BITS);
+        BillChunk[] chunks = bills;
+        if(index==chunks.length){
+            chunks = Arrays.copyOf(chunks, chunks.length*2);
+            bills = chunks;
+        }
+        if(chunks[index] == null){
+            chunks[index] = new BillChunk();
+        }
+        return chunks[index];
+    }
+
+    /**
+     * Method which gives the figures from the running totals, after catching up with the receipt journal
+     * @param topMembers: How many of the members who spent the most to list
+     */
+    public SalesReport report(int topMembers){
+        TopMembers top = new TopMembers(topMembers);
+        long[] visits = visitDistribution();
+        synchronized (this) {
+            refresh();
+            spend.offerAll(top);
+            return new SalesReport(dishNames(dishes), Arrays.copyOf(dishRevenue, dishes),
+                    Arrays.copyOf(dishPortions, dishes), billCount, lineCount, revenue, listTotal, discountCost,
+                    discountedBills, visits, top.members(), top.spends());
+        }
+    }
+
+    /**
+     * Method which works the figures out again from the columns alone, in parallel, without the running totals
+     * @param topMembers: How many of the members who spent the most to list
+     */
+    public SalesReport scan(int topMembers){
+        // Everything below these counts is written, whatever is added meanwhile
+        long billRows = billCount;
+        long lineRows = lineCount;
+        BillChunk[] billChunks = bills;
+        LineChunk[] lineChunks = lines;
+
+        long[] byDish = IntStream.range(0, chunks(lineRows)).parallel()
+                .mapToObj(chunk -> sumDishes(lineChunks[chunk], rowsIn(chunk, lineRows)))
+                .reduce(new long[0], SalesAnalytics::addUp);
+        long[] totals = IntStream.range(0, chunks(billRows)).parallel()
+                .mapToObj(chunk -> sumBills(billChunks[chunk], rowsIn(chunk, billRows)))
+                .reduce(new long[4], SalesAnalytics::addUp);
+
+        // Members are split by hash between the tasks, so each task adds up its own members' spend from the
+        // member and amount columns, and only the short lists of top members are merged
+        int partitions = ForkJoinPool.getCommonPoolParallelism();
+        TopMembers top = IntStream.range(0, partitions).parallel()
+                .mapToObj(partition -> {
+                    SpendTable table = new SpendTable(1024);
+                    for(int chunk=0; chunk<chunks(billRows); chunk++){
+                        BillChunk columns = billChunks[chunk];
+                        int rows = rowsIn(chunk, billRows);
+                        for(int at=0; at<rows; at++){
+                            long member = columns.member[at];
+                            if(member!=0 && Math.floorMod(SpendTable.hash(member), partitions)==partition){
+                                table.add(member, columns.due[at]);
+                            }
+                        }
+                    }
+                    TopMembers partial = new TopMembers(topMembers);
+                    table.offerAll(partial);
+                    return partial;
+                })
+                .reduce(new TopMembers(topMembers), TopMembers::merge);
+
+        int dishCount = byDish.length/2;
+        while(dishCount>0 && byDish[2*dishCount-1]==0){
+            dishCount--;
+        }
+        long[] revenueByDish = new long[dishCount];
+        long[] portionsByDish = new long[dishCount];
+        for(int dish=0; dish<dishCount; dish++){
+            revenueByDish[dish] = byDish[2*dish];
+            portionsByDish[dish] = byDish[2*dish+1];
+        }
+        return new SalesReport(dishNames(dishCount), revenueByDish, portionsByDish, billRows, lineRows, totals[0],
+                totals[1], totals[2], totals[3], visitDistribution(), top.members(), top.spends());
+    }
+
+    /**
+     * Method which adds up one chunk of lines
+     * @return the revenue and portions of every dish, one after the other
+     */
+    private static long[] sumDishes(LineChunk chunk, int rows){
+        long[] sums = new long[128];
+        for(int at=0; at<rows; at++){
+            int packed = chunk.dishQuantity[at];
+            int dish = packed >>> 16;
+            if(2*dish+1 >= sums.length){
+                sums = Arrays.copyOf(sums, Math.max(2*dish+2, sums.length*2));
+            }
+            sums[2*dish] += chunk.amount[at];
+            sums[2*dish+1] += packed & 0xFFFF;
+        }
+        return sums;
+    }
+
+    /**
+     * Method which adds up one chunk of bills
+     * @return the revenue, the list total, the membership discount's cost and the number of discounted bills
+     */
+    private static long[] sumBills(BillChunk chunk, int rows){
+        long revenue=0;
+        long list=0;
+        long discountCost=0;
+        long discounted=0;
+        for(int at=0; at<rows; at++){
+            long due = chunk.due[at];
+            long off = chunk.total[at]-due;
+            revenue+=due;
+            list+=chunk.list[at];
+            if(off>0){
+                discountCost+=off;
+                discounted++;
+            }
+        }
+        return new long[]{revenue, list, discountCost, discounted};
+    }
+
+    private static long[] addUp(long[] a, long[] b){
+        long[] sum = Arrays.copyOf(a.length>=b.length ? a : b, Math.max(a.length, b.length));
+        long[] other = a.length>=b.length ? b : a;
+        for(int i=0; i<other.length; i++){
+            sum[i]+=other[i];
+        }
+        return sum;
+    }
+
+    private static int chunks(long rows){
+        return (int) ((rows + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+    }
+
+    private static int rowsIn(int chunk, long rows){
+        return (int) Math.min(CHUNK_SIZE, rows - ((long) chunk << CHUNK_BITS));
+    }
+
+    /**
+     * Method which counts the members by visits, in buckets which double in width: 0, 1, 2-3, 4-7 and so on
+     */
+    private long[] visitDistribution(){
+        MemberStore members = restaurant.getMembers();
+        int size = members.size();
+        return IntStream.range(0, chunks(size)).parallel()
+                .mapToObj(chunk -> {
+                    long[] buckets = new long[SalesReport.VISIT_BUCKETS];
+                    int end = chunk*CHUNK_SIZE + rowsIn(chunk, size);
+                    for(int row=chunk*CHUNK_SIZE; row<end; row++){
+                        if(members.num(row)!=0){
+                            buckets[SalesReport.visitBucket(members.freq(row))]++;
+                        }
+                    }
+                    return buckets;
+                })
+                .reduce(new long[SalesReport.VISIT_BUCKETS], SalesAnalytics::addUp);
+    }
+
+    /**
+     * Method which gives the names of the first dishes, every dish of a published line being named already
+     */
+    private String[] dishNames(int count){
+        return Arrays.copyOf(dishNames, count);
+    }
+
+    /**
+     * @return the size of the columns and running totals in bytes
+     */
+    public synchronized long memoryBytes(){
+        return chunks(billCount)*(CHUNK_SIZE*32L) + chunks(lineCount)*(CHUNK_SIZE*12L) + spend.memoryBytes() +
+                dishRevenue.length*16L;
+    }
+
+    /**
+     * One chunk of the bill columns
+     */
+    private static final class BillChunk {
+        private final long[] member = new long[CHUNK_SIZE];
+        private final long[] list = new long[CHUNK_SIZE];
+        private final long[] total = new long[CHUNK_SIZE];
+        private final long[] due = new long[CHUNK_SIZE];
+    }
+
+    /**
+     * One chunk of the line columns
+     */
+    private static final class LineChunk {
+        private final int[] dishQuantity = new int[CHUNK_SIZE];
+        private final long[] amount = new long[CHUNK_SIZE];
+    }
+
+    /**
+     * Each member's spend, in an open-addressed table of long keys
+     */
+    private static final class SpendTable {
+        private long[] members;
+        private long[] spends;
+        private int used=0;
+
+        private SpendTable(int capacity){
+            members = new long[capacity];
+            spends = new long[capacity];
+        }
+
+        private void add(long member, long amount){
+            if((used+1)*2 > members.length){
+                long[] oldMembers = members;
+                long[] oldSpends = spends;
+                members = new long[oldMembers.length*2];
+                spends = new long[oldMembers.length*2];
+                used=0;
+                for(int slot=0; slot<oldMembers.length; slot++){
+                    if(oldMembers[slot]!=0){
+                        add(oldMembers[slot], oldSpends[slot]);
+                    }
+                }
+            }
+            int mask = members.length-1;
+            int slot = hash(member) & mask;
+            while(members[slot]!=0 && members[slot]!=member){
+                slot = (slot+1) & mask;
+            }
+            if(members[slot]==0){
+                members[slot]=member;
+                used++;
+            }
+            spends[slot]+=amount;
+        }
+
+        private void offerAll(TopMembers top){
+            for(int slot=0; slot<members.length; slot++){
+                if(members[slot]!=0){
+                    top.offer(members[slot], spends[slot]);
+                }
+            }
+        }
+
+        private long memoryBytes(){
+            return members.length*16L;
+        }
+
+        private static int hash(long member){
+            long h = member * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * The members who spent the most, best first, ties going to the lower membership number
+     */
+    private static final class TopMembers {
+        private final long[] members;
+        private final long[] spends;
+        private int size=0;
+
+        private TopMembers(int limit){
+            members = new long[limit];
+            spends = new long[limit];
+        }
+
+        private void offer(long member, long spend){
+            int at = size;
+            while(at>0 && (spends[at-1]<spend || (spends[at-1]==spend && members[at-1]>member))){
+                at--;
+            }
+            if(at>=members.length){
+                return;
+            }
+            int moved = Math.min(size, members.length-1) - at;
+            System.arraycopy(members, at, members, at+1, moved);
+            System.arraycopy(spends, at, spends, at+1, moved);
+            members[at]=member;
+            spends[at]=spend;
+            size = Math.min(size+1, members.length);
+        }
+
+        private static TopMembers merge(TopMembers a, TopMembers b){
+            TopMembers merged = new TopMembers(a.members.length);
+            for(TopMembers top:new TopMembers[]{a, b}){
+                for(int i=0; i<top.size; i++){
+                    merged.offer(top.members[i], top.spends[i]);
+                }
+            }
+            return merged;
+        }
+
+        private long[] members(){
+            return Arrays.copyOf(members, size);
+        }
+
+        private long[] spends(){
+            return Arrays.copyOf(spends, size);
+        }
+    }
+}
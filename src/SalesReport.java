@@ -0,0 +1,189 @@
+import java.util.Arrays;
+
+/**
+ * The sales and loyalty figures given by SalesAnalytics at one moment. Amounts are in cents.
+ *
+ * The figures add up: the list total, less what promotions and the membership discount took off, is the revenue, and
+ * so is the revenue of every dish at the prices charged, less what combos took off.
+ */
+public class SalesReport {
+
+    // Members are counted by visits in buckets 0, 1, 2-3, 4-7 and so on, the last one holding everyone above
+    static final int VISIT_BUCKETS = 12;
+
+    private final String[] dishes;
+    private final long[] dishRevenue;
+    private final long[] dishPortions;
+    private final long bills;
+    private final long lines;
+    private final long revenue;
+    private final long listTotal;
+    private final long discountCost;
+    private final long discountedBills;
+    private final long[] visitBuckets;
+    private final long[] topMembers;
+    private final long[] topSpends;
+
+    SalesReport(String[] dishes, long[] dishRevenue, long[] dishPortions, long bills, long lines, long revenue,
+                long listTotal, long discountCost, long discountedBills, long[] visitBuckets, long[] topMembers,
+                long[] topSpends){
+        this.dishes=dishes;
+        this.dishRevenue=dishRevenue;
+        this.dishPortions=dishPortions;
+        this.bills=bills;
+        this.lines=lines;
+        this.revenue=revenue;
+        this.listTotal=listTotal;
+        this.discountCost=discountCost;
+        this.discountedBills=discountedBills;
+        this.visitBuckets=visitBuckets;
+        this.topMembers=topMembers;
+        this.topSpends=topSpends;
+    }
+
+    /**
+     * Method which gives the bucket of a visit count
+     */
+    static int visitBucket(int visits){
+        return Math.min(VISIT_BUCKETS-1, 32 - Integer.numberOfLeadingZeros(Math.max(0, visits)));
+    }
+
+    /**
+     * Method which gives the fewest visits counted in a bucket
+     */
+    public static int bucketStart(int bucket){
+        return bucket==0 ? 0 : 1 << (bucket-1);
+    }
+
+    public int dishCount(){
+        return dishes.length;
+    }
+
+    public String dishName(int dish){
+        return dishes[dish];
+    }
+
+    /**
+     * @return what the dish's portions were charged at, before combos
+     */
+    public long dishRevenue(int dish){
+        return dishRevenue[dish];
+    }
+
+    public long dishPortions(int dish){
+        return dishPortions[dish];
+    }
+
+    public long getBills() {
+        return bills;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return what was paid for all the bills
+     */
+    public long getRevenue() {
+        return revenue;
+    }
+
+    /**
+     * @return what the bills came to at the menu's list prices
+     */
+    public long getListTotal() {
+        return listTotal;
+    }
+
+    /**
+     * @return what happy hours and combos took off the list prices, for members and non-members alike
+     */
+    public long getPromotionCost() {
+        return listTotal-revenue-discountCost;
+    }
+
+    /**
+     * @return what combos took off the dishes' revenue
+     */
+    public long getCombosOff() {
+        long dishTotal=0;
+        for(long amount:dishRevenue){
+            dishTotal+=amount;
+        }
+        return dishTotal-revenue;
+    }
+
+    /**
+     * @return what the membership discount took off the bills, on top of any promotion
+     */
+    public long getDiscountCost() {
+        return discountCost;
+    }
+
+    public long getDiscountedBills() {
+        return discountedBills;
+    }
+
+    public int visitBucketCount(){
+        return visitBuckets.length;
+    }
+
+    /**
+     * @return how many members have a visit count in the bucket
+     */
+    public long membersInBucket(int bucket){
+        return visitBuckets[bucket];
+    }
+
+    public int topMemberCount(){
+        return topMembers.length;
+    }
+
+    public long topMember(int rank){
+        return topMembers[rank];
+    }
+
+    public long topSpend(int rank){
+        return topSpends[rank];
+    }
+
+    /**
+     * Method which checks that two reports hold the same figures, apart from the dishes' names
+     */
+    public boolean sameFigures(SalesReport other){
+        return Arrays.equals(dishRevenue, other.dishRevenue) &&
+                Arrays.equals(dishPortions, other.dishPortions) && bills==other.bills &&
+                lines==other.lines && revenue==other.revenue && listTotal==other.listTotal &&
+                discountCost==other.discountCost &&
+                discountedBills==other.discountedBills && Arrays.equals(visitBuckets, other.visitBuckets) &&
+                Arrays.equals(topMembers, other.topMembers) &&
+                Arrays.equals(topSpends, other.topSpends);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%,d bills, %,d lines, revenue $%s%n", bills, lines, Money.formatGrouped(revenue)));
+        text.append(String.format("list prices $%s, promotions took $%s, membership discount took $%s on %,d bills%n",
+                Money.formatGrouped(listTotal), Money.formatGrouped(this.getPromotionCost()),
+                Money.formatGrouped(discountCost), discountedBills));
+        text.append(String.format("%-28s %14s %12s%n", "dish", "revenue", "portions"));
+        for(int dish=0; dish<dishes.length; dish++){
+            text.append(String.format("%-28s %14s %,12d%n", dishes[dish], Money.formatGrouped(dishRevenue[dish]),
+                    dishPortions[dish]));
+        }
+        text.append(String.format("%-28s %14s%n", "less combos", Money.formatGrouped(-this.getCombosOff())));
+        text.append(String.format("%-12s %12s%n", "visits", "members"));
+        for(int bucket=0; bucket<visitBuckets.length; bucket++){
+            String range = bucket==0 || bucket==1 ? Integer.toString(bucket) : bucket==visitBuckets.length-1 ?
+                    bucketStart(bucket) + "+" : bucketStart(bucket) + "-" + (bucketStart(bucket+1)-1);
+            text.append(String.format("%-12s %,12d%n", range, visitBuckets[bucket]));
+        }
+        text.append("top members by spend:");
+        for(int rank=0; rank<topMembers.length; rank++){
+            text.append(String.format("%n  %d. %d $%s", rank+1, topMembers[rank], Money.formatGrouped(topSpends[rank])));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Input source which replays a fixed list of customer lines, used to drive sessions without a terminal.
+ */
+public class ScriptedInput implements InputSource {
+
+    private final List<String> lines;
+    private int next=0;
+
+    public ScriptedInput(List<String> lines){
+        this.lines=lines;
+    }
+
+    public ScriptedInput(String... lines){
+        this(List.of(lines));
+    }
+
+    @Override
+    public String nextLine() {
+        if(next>=lines.size()){
+            throw new NoSuchElementException("No line found");
+        }
+        return lines.get(next++);
+    }
+}
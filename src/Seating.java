@@ -0,0 +1,560 @@
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The restaurant's tables and their bookings, and the allocator which seats parties as they arrive.
+ *
+ * Time is counted in minutes from the start of the day the seating plan was made, and booked in slots of 15 minutes.
+ * For every slot the index keeps a bitmap of the tables booked in it, so whether a table is free over an interval is a
+ * few word operations, and finding one is an AND of the slots' bitmaps. Tables are numbered from the fewest seats to
+ * the most, so the lowest free table number which seats the party is also the smallest table which fits it. The
+ * bitmaps grow with the bookings, so a season of bookings for a few hundred tables takes well under a megabyte.
+ *
+ * Reservations get their table when they are booked. A walk-in gets the smallest table which is free now and not
+ * booked for the time they are expected to stay. A party staying longer than expected keeps their table, so a
+ * reserved party arriving to find it taken is moved to another free table when there is one. Every method is
+ * synchronized, each one only takes microseconds.
+ */
+public class Seating {
+
+    public static final int SLOT_MINUTES = 15;
+    public static final int SLOTS_PER_DAY = 24*60/SLOT_MINUTES;
+
+    // States of a booking
+    private static final byte UNUSED = 0;
+    private static final byte BOOKED = 1;
+    private static final byte SEATED = 2;
+
+    private final String[] names;
+    private final int[] seats;
+    private final int words;
+    // The lowest table number seating each party size
+    private final int[] firstFit;
+    private final Clock clock;
+    private final Instant opened;
+
+    // Bitmap of the tables booked in each slot, slot after slot, and of the tables with a party sitting at them
+    private long[] booked;
+    private int slots=0;
+    private final long[] occupied;
+    private final int[] occupant;
+
+    // Per booking state, booking numbers are recycled once the party has left or the booking is cancelled
+    private int[] bookingTable = new int[64];
+    private int[] bookingParty = new int[64];
+    private int[] bookingStart = new int[64];
+    private int[] bookingEnd = new int[64];
+    private byte[] bookingState = new byte[64];
+    private String[] bookingName = new String[64];
+    private int[] freeBookings = new int[64];
+    private int freeBookingCount=0;
+    private int bookingCount=0;
+    private int activeBookings=0;
+
+    /**
+     * Constructor for this class, whose clock starts at the beginning of today
+     * @param names: The name of each table
+     * @param seats: How many people each table seats
+     */
+    public Seating(String[] names, int[] seats){
+        this(names, seats, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Constructor for this class
+     * @param clock: The clock which gives the time for walk-ins, minute 0 being the start of its current day
+     */
+    public Seating(String[] names, int[] seats, Clock clock){
+        if(names.length!=seats.length || names.length==0){
+            throw new IllegalArgumentException("Every table needs a name and a number of seats");
+        }
+        Integer[] order = new Integer[seats.length];
+        for(int i=0; i<order.length; i++){
+            if(seats[i]<1){
+                throw new IllegalArgumentException("Table " + names[i] + " has no seats");
+            }
+            order[i]=i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(seats[a], seats[b]));
+        this.names = new String[seats.length];
+        this.seats = new int[seats.length];
+        for(int table=0; table<order.length; table++){
+            this.names[table] = names[order[table]];
+            this.seats[table] = seats[order[table]];
+        }
+        int largest = this.seats[this.seats.length-1];
+        this.firstFit = new int[largest+1];
+        for(int party=1, table=0; party<=largest; party++){
+            while(this.seats[table]<party){
+                table++;
+            }
+            firstFit[party]=table;
+        }
+        this.words = (seats.length+63) >>> 6;
+        this.booked = new long[SLOTS_PER_DAY*words];
+        this.occupied = new long[words];
+        this.occupant = new int[seats.length];
+        Arrays.fill(occupant, -1);
+        this.clock=clock;
+        this.opened = LocalDate.now(clock).atStartOfDay(clock.getZone()).toInstant();
+    }
+
+    /**
+     * Method which makes a seating plan of tables which all seat the same number of people
+     */
+    public static Seating uniform(int tables, int seats){
+        String[] names = new String[tables];
+        int[] counts = new int[tables];
+        for(int i=0; i<tables; i++){
+            names[i] = "T" + (i+1);
+            counts[i] = seats;
+        }
+        return new Seating(names, counts);
+    }
+
+    /**
+     * Method which reads the tables from a .csv file with the name and number of seats of each table
+     */
+    public static Seating load(String filename){
+        CsvLoader.Result<TableRows> result = CsvLoader.load(filename, TableRows::new);
+        Restaurant.reportBadRows(filename, result);
+        List<String> names = new ArrayList<>();
+        List<Integer> seats = new ArrayList<>();
+        for(TableRows rows:result.getHandlers()){
+            names.addAll(rows.names);
+            seats.addAll(rows.seats);
+        }
+        return new Seating(names.toArray(new String[0]), seats.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Method which gives the minute it is now on the seating plan's clock
+     */
+    public long minuteNow(){
+        return Duration.between(opened, clock.instant()).toMinutes();
+    }
+
+    /**
+     * Method which books a table ahead
+     * @param name: Who the table is booked for
+     * @param party: How many people are coming
+     * @param start: The minute they are coming at
+     * @param minutes: How long they will stay
+     * @return the booking number, or -1 if no table which seats the party is free for the whole time
+     */
+    public synchronized int book(String name, int party, long start, int minutes){
+        int first = slot(start);
+        int end = endSlot(start, minutes);
+        int table = findTable(party, first, end, false);
+        if(table<0){
+            return -1;
+        }
+        return newBooking(name, table, party, first, end, BOOKED);
+    }
+
+    /**
+     * Method which counts the tables which seat a party and are free for a whole interval
+     */
+    public synchronized int available(int party, long start, int minutes){
+        int first = slot(start);
+        int end = endSlot(start, minutes);
+        int count=0;
+        for(int word=0; word<words; word++){
+            count+=Long.bitCount(freeTables(party, first, end, word, false));
+        }
+        return count;
+    }
+
+    /**
+     * Method which checks whether a table is free for a whole interval
+     */
+    public synchronized boolean isFree(int table, long start, int minutes){
+        int end = endSlot(start, minutes);
+        long bit = 1L << table;
+        for(int slot=slot(start); slot<Math.min(end, slots); slot++){
+            if((booked[slot*words + (table>>>6)] & bit)!=0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method which seats a party who walked in, at the smallest table free now and for the time they will stay
+     * @param now: The minute they walked in at
+     * @param minutes: How long they are expected to stay
+     * @return the booking number, or -1 if no table is free for them
+     */
+    public synchronized int walkIn(int party, long now, int minutes){
+        int first = slot(now);
+        int end = endSlot(now, minutes);
+        int table = findTable(party, first, end, true);
+        if(table<0){
+            return -1;
+        }
+        int booking = newBooking(null, table, party, first, end, SEATED);
+        occupy(table, booking);
+        return booking;
+    }
+
+    /**
+     * Method which seats a party who walked in now by the seating plan's clock, waiting until a table is free for them
+     * @param minutes: How long they are expected to stay
+     * @return the booking number, or -1 if the thread was interrupted while waiting
+     */
+    public synchronized int awaitWalkIn(int party, int minutes){
+        if(!fits(party)){
+            throw new IllegalArgumentException("No table seats a party of " + party);
+        }
+        int booking;
+        while((booking = walkIn(party, minuteNow(), minutes))<0){
+            try {
+                // Tables are freed by parties leaving, and booked slots pass with time
+                wait(SLOT_MINUTES*60_000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+        return booking;
+    }
+
+    /**
+     * Method which seats a party who booked ahead, at their own table or, if it is still taken, at another one which is
+     * free now and for the rest of their booking
+     * @return the table they sit at, or -1 if none is free yet, in which case the booking is kept
+     */
+    public synchronized int arrive(int booking, long now){
+        if(bookingState[booking]!=BOOKED){
+            throw new IllegalStateException("Booking " + booking + " is not waiting to be seated");
+        }
+        int table = bookingTable[booking];
+        if(occupant[table]<0){
+            bookingState[booking]=SEATED;
+            occupy(table, booking);
+            return table;
+        }
+        int first = Math.max(bookingStart[booking], slot(now));
+        int end = Math.max(bookingEnd[booking], first+1);
+        mark(table, bookingStart[booking], bookingEnd[booking], false);
+        int other = findTable(bookingParty[booking], first, end, true);
+        if(other<0){
+            mark(table, bookingStart[booking], bookingEnd[booking], true);
+            return -1;
+        }
+        mark(other, first, end, true);
+        bookingTable[booking]=other;
+        bookingStart[booking]=first;
+        bookingEnd[booking]=end;
+        bookingState[booking]=SEATED;
+        occupy(other, booking);
+        return other;
+    }
+
+    /**
+     * Method which frees a party's table when they leave, along with whatever is left of their booking
+     */
+    public synchronized void leave(int booking, long now){
+        if(bookingState[booking]!=SEATED){
+            throw new IllegalStateException("Booking " + booking + " is not seated");
+        }
+        int table = bookingTable[booking];
+        mark(table, Math.max(bookingStart[booking], slot(now)), bookingEnd[booking], false);
+        occupant[table]=-1;
+        occupied[table>>>6] &= ~(1L << table);
+        freeBooking(booking);
+        notifyAll();
+    }
+
+    /**
+     * Method which frees a party's table when they leave now by the seating plan's clock
+     */
+    public void leave(int booking){
+        leave(booking, minuteNow());
+    }
+
+    /**
+     * Method which cancels a booking made ahead
+     */
+    public synchronized void cancel(int booking){
+        if(bookingState[booking]!=BOOKED){
+            throw new IllegalStateException("Booking " + booking + " cannot be cancelled");
+        }
+        mark(bookingTable[booking], bookingStart[booking], bookingEnd[booking], false);
+        freeBooking(booking);
+        notifyAll();
+    }
+
+    /**
+     * Method which finds the smallest table seating a party which is free over the slots given
+     * @param now: Whether the party sits down straight away, so a table with someone still sitting at it will not do
+     */
+    private int findTable(int party, int first, int end, boolean now){
+        for(int word=0; word<words; word++){
+            long free = freeTables(party, first, end, word, now);
+            if(free!=0){
+                return (word<<6) + Long.numberOfTrailingZeros(free);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method which gives the bitmap of one word of tables which seat a party and are free over the slots given
+     */
+    private long freeTables(int party, int first, int end, int word, boolean now){
+        if(party<1 || party>=firstFit.length){
+            return 0;
+        }
+        int from = firstFit[party];
+        if(from >= (word+1)<<6){
+            return 0;
+        }
+        long free = from > word<<6 ? -1L << (from & 63) : -1L;
+        if(word==words-1 && (seats.length & 63)!=0){
+            free &= (1L << (seats.length & 63)) - 1;
+        }
+        if(now){
+            free &= ~occupied[word];
+        }
+        for(int slot=first; slot<Math.min(end, slots) && free!=0; slot++){
+            free &= ~booked[slot*words + word];
+        }
+        return free;
+    }
+
+    private void mark(int table, int first, int end, boolean busy){
+        if(end>slots){
+            grow(end);
+        }
+        long bit = 1L << table;
+        for(int slot=first; slot<end; slot++){
+            if(busy){
+                booked[slot*words + (table>>>6)] |= bit;
+            } else {
+                booked[slot*words + (table>>>6)] &= ~bit;
+            }
+        }
+    }
+
+    private void grow(int end){
+        if((long) end*words > Integer.MAX_VALUE - 8){
+            throw new IllegalArgumentException("Booking too far ahead");
+        }
+        if(end*words > booked.length){
+            booked = Arrays.copyOf(booked, (int) Math.min(Integer.MAX_VALUE - 8,
+                    Math.max((long) end*words, booked.length*2L)));
+        }
+        slots = end;
+    }
+
+    private void occupy(int table, int booking){
+        occupant[table]=booking;
+        occupied[table>>>6] |= 1L << table;
+    }
+
+    private int newBooking(String name, int table, int party, int first, int end, byte state){
+        int booking;
+        if(freeBookingCount>0){
+            booking = freeBookings[--freeBookingCount];
+        } else {
+            if(bookingCount==bookingTable.length){
+                int capacity = bookingCount*2;
+                bookingTable = Arrays.copyOf(bookingTable, capacity);
+                bookingParty = Arrays.copyOf(bookingParty, capacity);
+                bookingStart = Arrays.copyOf(bookingStart, capacity);
+                bookingEnd = Arrays.copyOf(bookingEnd, capacity);
+                bookingState = Arrays.copyOf(bookingState, capacity);
+                bookingName = Arrays.copyOf(bookingName, capacity);
+                freeBookings = Arrays.copyOf(freeBookings, capacity);
+            }
+            booking = bookingCount++;
+        }
+        mark(table, first, end, true);
+        bookingTable[booking]=table;
+        bookingParty[booking]=party;
+        bookingStart[booking]=first;
+        bookingEnd[booking]=end;
+        bookingState[booking]=state;
+        bookingName[booking]=name;
+        activeBookings++;
+        return booking;
+    }
+
+    private void freeBooking(int booking){
+        bookingState[booking]=UNUSED;
+        bookingName[booking]=null;
+        freeBookings[freeBookingCount++]=booking;
+        activeBookings--;
+    }
+
+    private static int slot(long minute){
+        if(minute<0 || minute/SLOT_MINUTES > Integer.MAX_VALUE/2){
+            throw new IllegalArgumentException("Minute " + minute + " is outside the seating plan");
+        }
+        return (int) (minute/SLOT_MINUTES);
+    }
+
+    private static int endSlot(long start, int minutes){
+        if(minutes<1){
+            throw new IllegalArgumentException("A party stays for at least a minute");
+        }
+        return slot(start + minutes + SLOT_MINUTES - 1);
+    }
+
+    /**
+     * Method which writes the tables and bookings for a checkpoint. Slots before the one given are left out, as nothing
+     * can be booked or seated in the past any more.
+     * @param now: The minute it is now
+     */
+    synchronized void write(ByteBuffer out, long now){
+        out.putInt(seats.length);
+        for(int table=0; table<seats.length; table++){
+            Checkpoint.putString(out, names[table]);
+            out.putInt(seats[table]);
+        }
+        int from = Math.min(slot(now), slots);
+        out.putInt(from).putInt(slots);
+        for(int i=from*words; i<slots*words; i++){
+            out.putLong(booked[i]);
+        }
+        for(int table=0; table<seats.length; table++){
+            out.putInt(occupant[table]);
+        }
+        out.putInt(bookingCount).putInt(freeBookingCount);
+        for(int booking=0; booking<bookingCount; booking++){
+            out.putInt(bookingTable[booking]).putInt(bookingParty[booking]).putInt(bookingStart[booking])
+                    .putInt(bookingEnd[booking]).put(bookingState[booking]);
+            Checkpoint.putString(out, bookingName[booking]);
+        }
+        for(int i=0; i<freeBookingCount; i++){
+            out.putInt(freeBookings[i]);
+        }
+    }
+
+    /**
+     * Method which reads back the tables and bookings written by write()
+     */
+    static Seating read(ByteBuffer in){
+        String[] names = new String[in.getInt()];
+        int[] seats = new int[names.length];
+        for(int table=0; table<names.length; table++){
+            names[table] = Checkpoint.getString(in);
+            seats[table] = in.getInt();
+        }
+        Seating seating = new Seating(names, seats);
+        int from = in.getInt();
+        int end = in.getInt();
+        if(end>0){
+            seating.grow(end);
+        }
+        for(int i=from*seating.words; i<end*seating.words; i++){
+            seating.booked[i] = in.getLong();
+        }
+        for(int table=0; table<seats.length; table++){
+            int booking = in.getInt();
+            if(booking>=0){
+                seating.occupy(table, booking);
+            }
+        }
+        int count = in.getInt();
+        int free = in.getInt();
+        int capacity = Math.max(64, Integer.highestOneBit(Math.max(1, count))*2);
+        seating.bookingTable = new int[capacity];
+        seating.bookingParty = new int[capacity];
+        seating.bookingStart = new int[capacity];
+        seating.bookingEnd = new int[capacity];
+        seating.bookingState = new byte[capacity];
+        seating.bookingName = new String[capacity];
+        seating.freeBookings = new int[capacity];
+        for(int booking=0; booking<count; booking++){
+            seating.bookingTable[booking] = in.getInt();
+            seating.bookingParty[booking] = in.getInt();
+            seating.bookingStart[booking] = in.getInt();
+            seating.bookingEnd[booking] = in.getInt();
+            seating.bookingState[booking] = in.get();
+            seating.bookingName[booking] = Checkpoint.getString(in);
+        }
+        for(int i=0; i<free; i++){
+            seating.freeBookings[i] = in.getInt();
+        }
+        seating.bookingCount=count;
+        seating.freeBookingCount=free;
+        seating.activeBookings=count-free;
+        return seating;
+    }
+
+    /**
+     * Method which checks whether any table seats a party
+     */
+    public boolean fits(int party){
+        return party>=1 && party<firstFit.length;
+    }
+
+    public int largestTable(){
+        return seats[seats.length-1];
+    }
+
+    public int tables(){
+        return seats.length;
+    }
+
+    public String tableName(int table){
+        return names[table];
+    }
+
+    public int seats(int table){
+        return seats[table];
+    }
+
+    public synchronized int table(int booking){
+        return bookingTable[booking];
+    }
+
+    public synchronized int partySize(int booking){
+        return bookingParty[booking];
+    }
+
+    public synchronized String bookedFor(int booking){
+        return bookingName[booking];
+    }
+
+    /**
+     * @return how many bookings are waiting or seated
+     */
+    public synchronized int getBookings(){
+        return activeBookings;
+    }
+
+    /**
+     * @return the size of the bitmaps and bookings in bytes
+     */
+    public synchronized long memoryBytes(){
+        return booked.length*8L + bookingTable.length*25L;
+    }
+
+    /**
+     * Collects the rows of one chunk of Tables.csv
+     */
+    private static class TableRows implements CsvLoader.RowHandler {
+        private final List<String> names = new ArrayList<>();
+        private final List<Integer> seats = new ArrayList<>();
+
+        @Override
+        public void row(CsvRow row) {
+            row.require(2);
+            int count = row.intField(1);
+            if(count<1){
+                throw new IllegalArgumentException("a table needs at least one seat");
+            }
+            names.add(row.stringField(0).trim());
+            seats.add(count);
+        }
+    }
+}
@@ -0,0 +1,668 @@
+import java.io.PrintStream;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A single diner's visit to the restaurant, from calling the waiter until the bill is paid.
+ *
+ * All the per-diner state (the order, the totals and whether a discount applies) lives here, while the menu and the
+ * membership list are shared through the Restaurant. Input and output are pluggable so that many sessions can run at
+ * the same time without a terminal.
+ */
+public class Session {
+
+    // Most members the waiter lists when looking a customer up by phone number or name
+    private static final int MAX_MATCHES = 5;
+    // How long a party is expected to stay at their table, in minutes
+    private static final int STAY_MINUTES = 90;
+
+    private final Restaurant restaurant;
+    private final InputSource in;
+    private final PrintStream out;
+    private final Metrics metrics;
+    // The menu and promotions as they were when the diner came in, kept even if the menu is reloaded meanwhile
+    private final MenuSnapshot snapshot;
+
+    private final Order order = Order.obtain();
+    private long grandTotal=0;
+    private long discountedGrandTotal=0;
+    // The prices each total was worked out with, for the receipt
+    private PricingEngine.PriceTable billPrices;
+    private PricingEngine.PriceTable discountedPrices;
+    private boolean discount=false;
+    // Visits of the diner as a member, which picks their loyalty tier, 0 while they are not a member
+    private int visits=0;
+    private long memberNum=0;
+    // How the bill was paid and how much was handed over, for the receipt
+    private byte paymentMethod=0;
+    private long tendered=0;
+    // Position of the visit's receipt in the restaurant's receipt journal, -1 if none was recorded
+    private long receipt=-1;
+    // The party's booking in the restaurant's seating plan, -1 while they are not seated
+    private Seating seating;
+    private int booking=-1;
+
+    /**
+     * Constructor for this class
+     * @param restaurant: The restaurant providing the menu and the membership list
+     * @param in: Where the customer's lines are read from
+     * @param out: Where the dialogue is written to
+     */
+    public Session(Restaurant restaurant, InputSource in, PrintStream out){
+        this.restaurant=restaurant;
+        this.in=in;
+        this.out=out;
+        this.metrics=restaurant.getMetrics();
+        this.snapshot=restaurant.getSnapshot();
+    }
+
+    /**
+     * Method which runs the whole visit, from the menu being shown until the bill is paid
+     */
+    public void run(){
+        boolean running=true;
+        long visit = metrics.start();
+        out.println("WELCOME TO THE RESTAURANT! HERE IS THE MENU!\n");
+        this.displayFood(snapshot.getMenu());
+
+        out.println("NARRATOR: If you are ready to order, just call the waiter (input waiter).");
+
+        try {
+            while(running) {
+                out.print("CUSTOMER: ");
+                String userIn = in.nextLine();
+
+                if (userIn.toLowerCase(Locale.ROOT).contains("waiter")) {
+                    out.println("WAITER: Hi my name is Java and I will be serving you today.");
+                    this.seatParty();
+                    long phase = metrics.start();
+                    this.customerOrder();
+                    metrics.stop(Metrics.Phase.ORDER, phase);
+                    phase = metrics.start();
+                    this.serveFood();
+                    metrics.stop(Metrics.Phase.SERVE, phase);
+                    this.callBill();
+                    this.payBill(discount);
+                    this.recordReceipt();
+                    running=false;
+                } else {
+                    out.println("I am sorry I don't understand, but if you are ready just yell for the waiter! " +
+                            "(input waiter).");
+                }
+            }
+        } finally {
+            // The table is freed and the order given back to the pool even if the customer leaves halfway
+            this.leaveTable();
+            order.recycle();
+        }
+        metrics.stop(Metrics.Phase.SESSION, visit);
+    }
+
+    /**
+     * Method which asks how many people are in the party and seats them at a table, if the restaurant keeps a seating
+     * plan. The party waits until a table which seats them is free.
+     */
+    private void seatParty(){
+        seating = restaurant.getSeating();
+        if(seating == null){
+            return;
+        }
+        long phase = metrics.start();
+        out.println("WAITER: How many people are in your party?");
+        int party=0;
+        while(party==0) {
+            out.print("CUSTOMER: ");
+            String size = in.nextLine().trim();
+            if(size.isEmpty() || size.length()>3 || !CardCheck.isDigits(size, size.length())){
+                out.println("WAITER: Sorry, how many people was that? (input a number)");
+            } else if(!seating.fits(Integer.parseInt(size))){
+                out.println("WAITER: I am sorry, our largest table seats " + seating.largestTable() +
+                        ". How many of you will sit together?");
+            } else {
+                party = Integer.parseInt(size);
+            }
+        }
+        booking = seating.walkIn(party, seating.minuteNow(), STAY_MINUTES);
+        if(booking<0){
+            out.println("WAITER: All our tables for " + party + " are taken, I will seat you as soon as one is free.");
+            out.flush();
+            booking = seating.awaitWalkIn(party, STAY_MINUTES);
+        }
+        if(booking>=0){
+            out.println("WAITER: Right this way, please take table " + seating.tableName(seating.table(booking)) + ".");
+        }
+        metrics.stop(Metrics.Phase.SEATING, phase);
+    }
+
+    /**
+     * Method which frees the party's table when they leave
+     */
+    private void leaveTable(){
+        if(booking>=0){
+            seating.leave(booking);
+            booking=-1;
+        }
+    }
+
+    /**
+     * Method which records the settled bill in the restaurant's receipt journal, if it keeps one
+     */
+    private void recordReceipt(){
+        ReceiptJournal receipts = restaurant.getReceipts();
+        if(receipts != null){
+            receipt = receipts.append(snapshot.getMenu(), discount ? discountedPrices : billPrices, order, memberNum,
+                    grandTotal, this.amountDue(discount), discount, paymentMethod, tendered);
+        }
+    }
+
+    /**
+     * @return the position of the visit's receipt in the receipt journal, -1 if none was recorded
+     */
+    public long getReceipt() {
+        return receipt;
+    }
+
+    /**
+     * Method which displays the menu to the customers
+     * @param menu: The input to this method which is the menu itself
+     */
+    public void displayFood(Menu menu){
+        menu.renderer().writeMenu(out);
+    }
+
+    /**
+     * Method which asks the customer what they want to order
+     */
+    public void customerOrder(){
+        boolean validity=false;
+        Menu menu = snapshot.getMenu();
+
+        out.println("WAITER: What can I get for you?");
+
+        while(!validity){
+            out.print("CUSTOMER: ");
+            String foodItem = in.nextLine();
+
+            int item = menu.indexOf(foodItem);
+            if(item >= 0){
+                boolean running=true;
+                metrics.menuHit();
+                order.add(item);
+
+                out.println("WAITER: Noted, is that all? (yes/no)");
+
+                while(running) {
+                    out.print("CUSTOMER: ");
+                    String lastOrder = in.nextLine();
+
+                    if (lastOrder.toLowerCase(Locale.ROOT).equals("yes")) {
+                        out.println("WAITER: Thank you, please wait for your order while we prepare it for you.");
+                        running=false;
+                        validity = true;
+                    } else if (lastOrder.toLowerCase(Locale.ROOT).equals("no")) {
+                        out.println("WAITER: Alright then. What can I get for you?");
+                        running=false;
+                    } else {
+                        out.println("WAITER: I am sorry I do not understand. Is that a yes or no?");
+                    }
+                }
+            } else {
+                metrics.menuMiss();
+                out.println("WAITER: Sorry we do not have that in our menu.");
+            }
+        }
+    }
+
+    /**
+     * Method which serves the food to the customers the food they have ordered
+     */
+    public void serveFood(){
+        boolean running=true;
+        int i=1;
+        Kitchen kitchen = restaurant.getKitchen();
+        if(kitchen != null){
+            try {
+                kitchen.submit(snapshot.getMenu(), order).await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        out.println("\nWAITER: Sorry for the wait, here is your food!");
+
+        Menu menu = snapshot.getMenu();
+        for(int line=0; line<order.size(); line++){
+            int quantity = order.quantity(line);
+            out.println("    "+i+". "+menu.name(order.item(line))+(quantity>1 ? " x"+quantity : ""));
+            i++;
+        }
+
+        while(running){
+            out.print("TO EAT INPUT \"EAT\": ");
+            String makan = in.nextLine();
+            if(makan.toUpperCase(Locale.ROOT).equals("EAT")){
+                out.println("CUSTOMER: *eats food* *yum* (IMAGINE YOU ARE EATING GOOD FOOD!).");
+                running=false;
+            }
+        }
+
+    }
+
+    /**
+     * Method which allows customers to call for the bill after eating
+     */
+    public void callBill(){
+        boolean running=true;
+        long phase = metrics.start();
+        out.println("\nNARRATOR: If you are done, just call the bill by entering \"bill\". Thank you.");
+
+        while(running){
+            out.print("CUSTOMER: ");
+            String bill = in.nextLine();
+
+            if(bill.toLowerCase(Locale.ROOT).equals("bill")){
+                out.println("WAITER: Here is your bill. I hope you have enjoyed the food!");
+                printBill(false);
+                running=false;
+            } else {
+                out.println("NARRATOR: Sorry I did not get what you meant. " +
+                        "To call the bill, just enter \"bill\". Thank you.");
+            }
+        }
+
+        metrics.stop(Metrics.Phase.BILL, phase);
+
+        running=true;
+        phase = metrics.start();
+        while(running){
+            out.println("WAITER: Do you have a membership with us? (yes/no)");
+            out.print("CUSTOMER: ");
+            String member = in.nextLine();
+
+            if(member.toLowerCase(Locale.ROOT).equals("yes")){
+                this.membership();
+                running=false;
+            } else if(member.toLowerCase(Locale.ROOT).equals("no")){
+                this.createMembership();
+                running=false;
+            } else {
+                out.println("WAITER: I am sorry I did not catch that.");
+            }
+        }
+        metrics.stop(Metrics.Phase.MEMBERSHIP, phase);
+
+    }
+
+    /**
+     * Method which allows the customers to pay the bill after calling and seeing the bill
+     */
+    public void payBill(boolean disc){
+        boolean running=true;
+
+        out.println("NARRATOR: Whenever you are ready to pay, please input \"pay\"");
+
+        while(running){
+            out.print("CUSTOMER: ");
+            String payment = in.nextLine();
+
+            if(payment.toLowerCase(Locale.ROOT).equals("pay")){
+                boolean invalidPay=true;
+                out.println("WAITER: Cash or card? (cash/card)");
+                while(invalidPay) {
+                    out.print("CUSTOMER: ");
+                    String method = in.nextLine();
+                    if(method.toLowerCase(Locale.ROOT).equals("cash")){
+                        long phase = metrics.start();
+                        this.cashPayment(disc);
+                        metrics.stop(Metrics.Phase.CASH_PAYMENT, phase);
+                        invalidPay=false;
+                    } else if (method.toLowerCase(Locale.ROOT).equals("card")){
+                        long phase = metrics.start();
+                        this.cardPayment(disc);
+                        metrics.stop(Metrics.Phase.CARD_PAYMENT, phase);
+                        invalidPay=false;
+                    } else {
+                        out.println("WAITER: Sorry, could you please pay with cash or card? (cash/card)");
+                    }
+                }
+                running=false;
+            } else {
+                out.println("NARRATOR: Just input \"pay\" whenever you are ready.");
+            }
+        }
+    }
+
+    /**
+     * Method which enables customers to pay with cash
+     */
+    public void cashPayment(boolean disc){
+        boolean running = true;
+        long amountPaid=0;
+        long due = this.amountDue(disc);
+
+        while(running) {
+            if(amountPaid>=due){
+                running=false;
+            } else {
+                out.println("NARRATOR: Enter the notes to pay. (without the dollar sign)");
+                out.println("NARRATOR: You have paid = "+Money.formatGrouped(amountPaid)+
+                        ", remaining = "+Money.formatGrouped(due-amountPaid)+".");
+                out.println("NOTES: $1, $2, $5, $10, $20, $50, $100.");
+                out.print("ENTER CASH (per note): ");
+                String note = in.nextLine();
+                int cash = noteValue(note);
+                if(cash>0){
+                    amountPaid+=cash*100L;
+                } else if(CardCheck.isDigits(note, note.length())){
+                    out.println("NARRATOR: Please enter a valid cash note in the provided list.");
+                } else {
+                    out.println("WAITER: Please enter a valid cash note.");
+                }
+            }
+        }
+
+        paymentMethod=ReceiptJournal.CASH;
+        tendered=amountPaid;
+        if(amountPaid-due>0) {
+            out.println("WAITER: You have paid $" + Money.formatGrouped(amountPaid)+" for $"+Money.formatGrouped(due)+
+                    ". Here is a change of $"+Money.formatGrouped(amountPaid - due) + ".");
+        } else {
+            out.println("WAITER: You have paid $" + Money.formatGrouped(amountPaid)+". Thank you.");
+        }
+
+    }
+
+    /**
+     * Method which gives the dollars of a cash note
+     * @param note: The note as the customer typed it
+     * @return the note's value, or 0 if there is no such note
+     */
+    private static int noteValue(String note){
+        return switch (note) {
+            case "1" -> 1;
+            case "2" -> 2;
+            case "5" -> 5;
+            case "10" -> 10;
+            case "20" -> 20;
+            case "50" -> 50;
+            case "100" -> 100;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Method which gives the amount to pay in cents
+     * @param disc: Whether the member's discount applies
+     */
+    private long amountDue(boolean disc){
+        return disc ? discountedGrandTotal : grandTotal;
+    }
+
+    /**
+     * Method which enables customers to pay with card. The card's details are checked on the machine first, then the
+     * payment is sent to the restaurant's payment processor, if it has one, and the customer waits for its answer.
+     */
+    public void cardPayment(boolean disc){
+        boolean running;
+        boolean paid = false;
+        PaymentClient payments = restaurant.getPayments();
+
+        out.println("WAITER: Wait for a sec, I will get the debit machine.");
+
+        while(!paid) {
+            String card = this.readCardNumber();
+            YearMonth expiry = this.readExpiry();
+            if(CardCheck.isExpired(expiry, YearMonth.now())){
+                out.println("MACHINE: *ERROR* This card has expired. Please use another card.");
+                continue;
+            }
+            this.readSecurityKey();
+
+            out.print("MACHINE: You are paying with card number \"");
+            printCardNum(card);
+            out.println("\" with expiry date \"" + String.format("%02d%02d", expiry.getMonthValue(),
+                    expiry.getYear()%100) + "\".");
+            running = true;
+            boolean agreed = false;
+            out.println("MACHINE: Do you want to proceed with the payment? (yes/no)");
+            while (running) {
+                out.print("CUSTOMER: ");
+                String agree = in.nextLine();
+                if (agree.toLowerCase(Locale.ROOT).equals("yes")) {
+                    running = false;
+                    agreed = true;
+                } else if (agree.toLowerCase(Locale.ROOT).equals("no")) {
+                    running = false;
+                } else {
+                    out.println(("MACHINE: *ERROR* Please re-enter (yes/no) to proceed with payment."));
+                }
+            }
+
+            if(agreed && payments == null){
+                paid = true;
+            } else if(agreed){
+                out.println("MACHINE: Processing...");
+                PaymentClient.Result result;
+                try {
+                    result = payments.authorize(card, expiry, this.amountDue(disc)).await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result = PaymentClient.Result.UNAVAILABLE;
+                }
+                switch (result) {
+                    case APPROVED -> paid = true;
+                    case DECLINED -> out.println("MACHINE: *ERROR* Your card was declined. Please use another card.");
+                    default -> out.println("MACHINE: *ERROR* The payment could not be processed. Please try again.");
+                }
+            }
+        }
+
+        paymentMethod=ReceiptJournal.CARD;
+        tendered=this.amountDue(disc);
+        out.println("MACHINE: Payment successful.");
+
+    }
+
+    /**
+     * Method which asks for the card number until it is 16 digits with a valid check digit
+     */
+    private String readCardNumber(){
+        out.println("MACHINE: Please enter your card number. (Without spaces)");
+        while(true) {
+            out.print("    CARD NUMBER: ");
+            String cardNum = in.nextLine();
+            if(cardNum.length()!=16){
+                out.println("MACHINE: *ERROR* Card number must be 16 numbers long. Please re-enter.");
+            } else if(!CardCheck.isDigits(cardNum, 16) || !CardCheck.luhn(cardNum)){
+                out.println("MACHINE: *ERROR* Please enter a valid card number.");
+            } else {
+                return cardNum;
+            }
+        }
+    }
+
+    /**
+     * Method which asks for the card's expiry until it is a valid month and year
+     */
+    private YearMonth readExpiry(){
+        out.println("MACHINE: Please enter your card's expiry (month year; eg. 1221 for December 2021).");
+        while(true) {
+            out.print("    EXPIRY: ");
+            String text = in.nextLine();
+            YearMonth expiry = CardCheck.expiry(text);
+            if(text.length()!=4){
+                out.println("MACHINE: *ERROR* Expiry date must be entered with this format -> 1221 for Dec 2021." +
+                        " Please re-enter.");
+            } else if(expiry == null){
+                out.println("MACHINE: *ERROR* Please enter your card's expiry.");
+            } else {
+                return expiry;
+            }
+        }
+    }
+
+    /**
+     * Method which asks for the card's security key until it is 3 digits
+     */
+    private void readSecurityKey(){
+        out.println("MACHINE: Please enter your security key (eg: 123).");
+        while(true) {
+            out.print("    SECURITY KEY: ");
+            String secKey = in.nextLine();
+            if(secKey.length()!=3){
+                out.println("MACHINE: *ERROR* Security key must be only 3 numbers long. Please re-enter.");
+            } else if(!CardCheck.isDigits(secKey, 3)){
+                out.println("MACHINE: *ERROR* Please enter your security key correctly.");
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Method which prints the card number of a client
+     * @param cardNum: Input to this method which is the card number in String format
+     */
+    public void printCardNum(String cardNum){
+        for(int i=0; i<cardNum.length(); i++){
+            out.print(cardNum.charAt(i));
+            if((i+1)%4==0 && (i!=cardNum.length()-1)){
+                out.print(" ");
+            }
+        }
+    }
+
+    /**
+     * Method which asks the customer for their membership
+     */
+    public void membership(){
+        boolean running=true;
+        out.println("WAITER: Could you please tell me your membership number?");
+
+        while(running){
+            out.print("CUSTOMER: ");
+            String membershipNum = in.nextLine();
+
+            Member member = restaurant.checkIn(membershipNum);
+            List<Member> matches = null;
+            if(member == null){
+                // Not a membership number, so try it as a phone number or the start of a name
+                matches = restaurant.findMembers(membershipNum, MAX_MATCHES);
+                if(matches.size()==1 && MemberStore.parseNum(membershipNum.trim())>0){
+                    member = restaurant.checkIn(matches.get(0).getNum());
+                }
+            }
+            if(member != null) {
+                metrics.memberHit();
+                visits = member.getFreq();
+                memberNum = Long.parseLong(member.getNum());
+                out.println("WAITER: Well Hello " + member.getName() +
+                        "! Good to have you with us for " + member.getFreq() + " times!");
+                this.applyDiscount("WAITER: I have changed your bill with your membership discount.");
+                running = false;
+            } else if(!matches.isEmpty()){
+                metrics.memberMiss();
+                out.println("WAITER: I have found these members:");
+                for(Member match:matches){
+                    out.println("    " + match.getNum() + " " + match.getName());
+                }
+                out.println("WAITER: Which membership number is yours?");
+            } else {
+                metrics.memberMiss();
+                out.println("WAITER: I am sorry, I don't think you are in our membership list. Feel free " +
+                        "to retry by entering your membership number, phone number or name.");
+            }
+        }
+
+    }
+
+    /**
+     * Method which enables to create a new membership for the customer
+     */
+    public void createMembership(){
+        boolean running=true;
+        boolean invalidNum = true;
+        out.println("WAITER: Would you want a membership with us? (yes/no)");
+
+        while(running){
+            out.print("CUSTOMER: ");
+            String userIn = in.nextLine();
+
+            if(userIn.toLowerCase(Locale.ROOT).equals("yes")){
+                out.println("WAITER: Please enter your name.");
+                out.print("CUSTOMER: ");
+                String name = in.nextLine();
+                out.println("WAITER: Please enter your phone number as well.");
+
+                while(invalidNum) {
+                    out.print("CUSTOMER: ");
+                    long phoneNum = MemberStore.parsePhone(in.nextLine().trim());
+
+                    if(phoneNum<0){
+                        out.println("WAITER: Please enter a valid phone number.");
+                    } else {
+                        invalidNum=false;
+
+                        String personId = restaurant.register(name, phoneNum);
+                        visits = 1;
+                        memberNum = Long.parseLong(personId);
+                        out.println("WAITER: Thank you for joining our restaurant membership. " +
+                                "Your Membership ID is: "+personId);
+
+                        this.applyDiscount("WAITER: We have provided a discount for you. This is the new bill.");
+                        running=false;
+                    }
+                }
+
+            } else if(userIn.toLowerCase(Locale.ROOT).equals("no")){
+                out.println("WAITER: Alright then, no problem.");
+                running=false;
+            } else {
+                out.println("WAITER: I am sorry I did not catch that. Would you want a membership with us? " +
+                        "(yes/no)");
+            }
+        }
+    }
+
+    /**
+     * Method which gives the member the discount of their tier, if their tier takes anything off
+     * @param announcement: What the waiter says before showing the discounted bill
+     */
+    private void applyDiscount(String announcement){
+        if(snapshot.getPricing().discounts(visits)){
+            out.println(announcement);
+            this.discountBill();
+            discount=true;
+        } else {
+            out.println("WAITER: Your visits with us count towards our member discounts.");
+        }
+    }
+
+    /**
+     * Method which applies the membership discount for the customer and provides an overall discounted bill
+     */
+    public void discountBill(){
+        long phase = metrics.start();
+        printBill(true);
+        metrics.stop(Metrics.Phase.DISCOUNT, phase);
+    }
+
+    /**
+     * Method which prints the bill for the customer, the totals are worked out again from the order every time
+     * @param discounted: Input to this method to know if the bill printed is discounted or not
+     */
+    public void printBill(boolean discounted){
+        PricingEngine pricing = snapshot.getPricing();
+        PricingEngine.PriceTable table = pricing.table(discounted ? visits : 0);
+        long total = pricing.total(order, table);
+        if(discounted){
+            discountedGrandTotal=total;
+            discountedPrices=table;
+        } else {
+            grandTotal=total;
+            billPrices=table;
+        }
+        pricing.getMenu().renderer().writeBill(out, order, pricing, table, total);
+    }
+
+}
@@ -0,0 +1,121 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Headless engine which serves many diners at the same time against one restaurant's menu and membership list.
+ *
+ * Every diner gets their own Session reading from an InputSource, so nothing but the shared restaurant data is touched
+ * by more than one thread. The project targets Java 15, so sessions run on a fixed pool of platform threads (one per
+ * core by default) rather than on virtual threads.
+ */
+public class SessionEngine {
+
+    // A full visit: two dishes, no membership, paid in cash
+    private static final String[] DEFAULT_SCRIPT = {
+            "waiter", "steak", "no", "sushi", "yes", "eat", "bill", "no", "no", "pay", "cash", "100", "10"
+    };
+
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    private final Restaurant restaurant;
+    private final int threads;
+
+    /**
+     * Constructor for this class
+     * @param restaurant: The restaurant every session is served by
+     * @param threads: How many sessions may run at the same time
+     */
+    public SessionEngine(Restaurant restaurant, int threads){
+        this.restaurant=restaurant;
+        this.threads=threads;
+    }
+
+    /**
+     * Method which serves a number of diners and waits for all of them to leave
+     * @param sessions: How many sessions to run
+     * @param script: Gives the input source for the session with the given index
+     * @return the report of the run
+     */
+    public Report run(int sessions, IntFunction<InputSource> script) throws InterruptedException {
+        AtomicLong completed = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        long start = System.nanoTime();
+        for(int i=0; i<sessions; i++){
+            int index = i;
+            pool.execute(() -> {
+                try {
+                    new Session(restaurant, script.apply(index), DISCARD).run();
+                    completed.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        return new Report(completed.get(), failed.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Runs the default scripted visit many times and prints the throughput.
+     * Arguments: [sessions] [threads]
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Restaurant restaurant = new Restaurant("res/Menu.csv", "res/Members.csv", null);
+        SessionEngine engine = new SessionEngine(restaurant, threads);
+        // Warm up before the measured run
+        engine.run(Math.min(sessions, 10_000), i -> new ScriptedInput(DEFAULT_SCRIPT));
+        restaurant.getMetrics().reset();
+        Report report = engine.run(sessions, i -> new ScriptedInput(DEFAULT_SCRIPT));
+        System.out.println(report);
+        System.out.println(restaurant.getMetrics());
+    }
+
+    /**
+     * Result of a run of the engine
+     */
+    public static class Report {
+        private final long completed;
+        private final long failed;
+        private final long elapsedNanos;
+
+        public Report(long completed, long failed, long elapsedNanos){
+            this.completed=completed;
+            this.failed=failed;
+            this.elapsedNanos=elapsedNanos;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double sessionsPerSecond(){
+            return completed / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d sessions (%d failed) in %.3f s = %,.0f sessions/s",
+                    completed, failed, elapsedNanos / 1e9, sessionsPerSecond());
+        }
+    }
+}
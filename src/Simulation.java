@@ -0,0 +1,736 @@
+import java.io.PrintStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Discrete-event simulation of a busy service, where the clock jumps from one event to the next instead of waiting for
+ * a customer to type.
+ *
+ * Parties of different sizes walk in as a Poisson process, and others phone ahead to book a table for later. The
+ * Seating plan gives every party the smallest table which seats them, walk-ins waiting in line until one is free, and
+ * they then go through the same order, serve, bill and pay steps as a Session. Every step that needs a waiter waits
+ * for one of a limited number of waiters. Each party's dishes are an Order, and the bill is priced as a Session prices
+ * it, by the restaurant's PricingEngine at the simulated time of day, with the tier of members' visits. Parties and
+ * events are kept in primitive arrays which are reused, so a long run allocates next to nothing per event.
+ *
+ * A long run can be checkpointed at a set interval of simulated time. The state is encoded between two events, which
+ * takes as long as the parties inside and the bookings ahead need, however long the run has been going, and a
+ * Checkpoint writes it in the background while the run carries on. The random generator is reseeded from itself
+ * at every checkpoint and the seed kept, so a run resumed from a checkpoint goes on exactly as it would have.
+ */
+public class Simulation {
+
+    // Constant variables
+    private static final long MINUTE = 60_000;
+    private static final int MINUTES_PER_DAY = 24*60;
+    // Members' visits are drawn from 1 up to this many, which spans the tiers of res/Pricing.csv
+    private static final int MEMBER_VISITS = 40;
+    // Layout of the checkpoint image, a checkpoint of another layout cannot be resumed
+    private static final int IMAGE_VERSION = 2;
+    // How long a table is held for a party, in minutes
+    private static final int STAY_MINUTES = 90;
+    // Sizes of party drawn from, with the common ones repeated
+    private static final int[] PARTY_SIZES = {1, 2, 2, 2, 2, 3, 3, 4, 4, 4, 5, 6, 6, 8};
+    // How far ahead tables are booked, in minutes
+    private static final int MIN_LEAD = 60;
+    private static final int MAX_LEAD = 14*24*60;
+
+    // Event types, the clock is kept in milliseconds
+    private static final int ARRIVAL = 0;
+    private static final int ORDER_TAKEN = 1;
+    private static final int FOOD_READY = 2;
+    private static final int FOOD_SERVED = 3;
+    private static final int DONE_EATING = 4;
+    private static final int BILL_BROUGHT = 5;
+    private static final int PAID = 6;
+    private static final int RESERVATION_CALL = 7;
+    private static final int RESERVED_ARRIVAL = 8;
+
+    // Mean length of the step ending with each event type, in minutes
+    private static final double[] MEAN_MINUTES = {0, 3, 15, 1, 35, 2, 2, 0, 0};
+
+    private final PricingEngine pricing;
+    private final Seating seating;
+    private final int seats;
+    private final int waiters;
+    private final double meanArrivalGap;
+    private final double meanCallGap;
+    private final double memberShare;
+    private SplittableRandom random;
+    private long duration;
+
+    private final EventQueue events = new EventQueue();
+    private final IntQueue tableQueue = new IntQueue();
+    private final IntQueue waiterQueue = new IntQueue();
+    private int busyTables=0;
+    private int busySeats=0;
+    private int freeWaiters;
+    private long now=0;
+
+    // Per party state, party numbers are recycled once a party has paid
+    private long[] arrivedAt = new long[64];
+    private long[] waitingSince = new long[64];
+    private int[] pendingTask = new int[64];
+    private Order[] orders = new Order[64];
+    private long[] bill = new long[64];
+    private int[] partySize = new int[64];
+    // The party's booking in the seating plan, -1 for a walk-in who is not seated yet
+    private int[] partyBooking = new int[64];
+    private int[] freeParties = new int[64];
+    private int freePartyCount=0;
+    private int partyCount=0;
+
+    // Statistics
+    private long eventCount=0;
+    private long arrived=0;
+    private long served=0;
+    private long tableWaits=0;
+    private long tableWaitSum=0;
+    private long tableWaitMax=0;
+    private long waiterWaits=0;
+    private long waiterWaitSum=0;
+    private long waiterWaitMax=0;
+    private double tableQueueArea=0;
+    private double waiterQueueArea=0;
+    private int tableQueueMax=0;
+    private int waiterQueueMax=0;
+    private double busyTableArea=0;
+    private double busySeatArea=0;
+    private long reservationsMade=0;
+    private long reservationsRefused=0;
+    private long reservationsMoved=0;
+    private double busyWaiterArea=0;
+    private long revenue=0;
+    private long discountGiven=0;
+    private long promotionsGiven=0;
+
+    // Checkpoints, taken when the clock passes the next multiple of the interval
+    private Checkpoint checkpoint;
+    private long checkpointEvery=0;
+    private long nextCheckpoint=0;
+    private ByteBuffer image = ByteBuffer.allocate(1 << 16);
+    private final LatencyHistogram checkpointPauses = new LatencyHistogram();
+
+    /**
+     * Constructor for this class, with tables of 4 and no bookings ahead
+     * @param pricing: The restaurant's menu and promotions, which price every bill
+     * @param tables: How many tables the restaurant has
+     * @param waiters: How many waiters are working
+     * @param arrivalsPerHour: The average number of parties walking in per hour
+     * @param memberShare: The share of parties who are members, between 0 and 1
+     * @param seed: Seed of the random generator, so that a run can be repeated
+     */
+    public Simulation(PricingEngine pricing, int tables, int waiters, double arrivalsPerHour, double memberShare,
+                      long seed){
+        this(pricing, Seating.uniform(tables, 4), waiters, arrivalsPerHour, 0, memberShare, seed);
+    }
+
+    /**
+     * Constructor for this class
+     * @param seating: The tables, which should have no bookings yet
+     * @param reservationsPerHour: The average number of parties phoning to book a table per hour
+     */
+    public Simulation(PricingEngine pricing, Seating seating, int waiters, double arrivalsPerHour,
+                      double reservationsPerHour, double memberShare, long seed){
+        this.pricing=pricing;
+        this.seating=seating;
+        int total=0;
+        for(int table=0; table<seating.tables(); table++){
+            total+=seating.seats(table);
+        }
+        this.seats=total;
+        this.waiters=waiters;
+        this.meanArrivalGap=60.0/arrivalsPerHour;
+        this.meanCallGap=reservationsPerHour>0 ? 60.0/reservationsPerHour : 0;
+        this.memberShare=memberShare;
+        this.random=new SplittableRandom(seed);
+        this.freeWaiters=waiters;
+    }
+
+    /**
+     * Method which reads back a run from its checkpoint
+     * @param file: The checkpoint file
+     * @param pricing: The restaurant's menu and promotions, which must still have every dish ordered at the checkpoint
+     * @return the run as it was at the checkpoint, ready to carry on with run(), or null if there is no checkpoint
+     * @throws IllegalStateException if the checkpoint cannot be carried on with this menu
+     */
+    public static Simulation resume(String file, PricingEngine pricing){
+        ByteBuffer image = Checkpoint.read(file);
+        if(image == null){
+            return null;
+        }
+        if(image.getInt() != IMAGE_VERSION){
+            throw new IllegalStateException(file + " is a checkpoint of another version of the simulation");
+        }
+        return new Simulation(image, pricing);
+    }
+
+    /**
+     * Constructor for this class which reads the state written by write()
+     */
+    private Simulation(ByteBuffer in, PricingEngine pricing){
+        this.pricing=pricing;
+        this.waiters = in.getInt();
+        this.meanArrivalGap = in.getDouble();
+        this.meanCallGap = in.getDouble();
+        this.memberShare = in.getDouble();
+        this.duration = in.getLong();
+        this.now = in.getLong();
+        this.random = new SplittableRandom(in.getLong());
+        this.checkpointEvery = in.getLong();
+        this.nextCheckpoint = in.getLong();
+        this.freeWaiters = in.getInt();
+        this.busyTables = in.getInt();
+        this.busySeats = in.getInt();
+
+        this.partyCount = in.getInt();
+        this.freePartyCount = in.getInt();
+        int capacity = Math.max(64, Integer.highestOneBit(Math.max(1, partyCount))*2);
+        arrivedAt = new long[capacity];
+        waitingSince = new long[capacity];
+        pendingTask = new int[capacity];
+        orders = new Order[capacity];
+        bill = new long[capacity];
+        partySize = new int[capacity];
+        partyBooking = new int[capacity];
+        freeParties = new int[capacity];
+        Menu menu = pricing.getMenu();
+        for(int party=0; party<partyCount; party++){
+            arrivedAt[party] = in.getLong();
+            waitingSince[party] = in.getLong();
+            pendingTask[party] = in.getInt();
+            bill[party] = in.getLong();
+            partySize[party] = in.getInt();
+            partyBooking[party] = in.getInt();
+            orders[party] = Order.obtain();
+            for(int line=in.getInt(); line>0; line--){
+                String dish = Checkpoint.getString(in);
+                int item = menu.indexOf(dish);
+                if(item<0){
+                    throw new IllegalStateException(dish + " was ordered at the checkpoint but is no longer on the " +
+                            "menu");
+                }
+                orders[party].add(item, in.getInt());
+            }
+        }
+        for(int i=0; i<freePartyCount; i++){
+            freeParties[i] = in.getInt();
+        }
+        readQueue(in, tableQueue);
+        readQueue(in, waiterQueue);
+        events.read(in);
+        this.seating = Seating.read(in);
+        int total=0;
+        for(int table=0; table<seating.tables(); table++){
+            total+=seating.seats(table);
+        }
+        this.seats=total;
+
+        eventCount = in.getLong();
+        arrived = in.getLong();
+        served = in.getLong();
+        tableWaits = in.getLong();
+        tableWaitSum = in.getLong();
+        tableWaitMax = in.getLong();
+        waiterWaits = in.getLong();
+        waiterWaitSum = in.getLong();
+        waiterWaitMax = in.getLong();
+        revenue = in.getLong();
+        discountGiven = in.getLong();
+        promotionsGiven = in.getLong();
+        reservationsMade = in.getLong();
+        reservationsRefused = in.getLong();
+        reservationsMoved = in.getLong();
+        tableQueueArea = in.getDouble();
+        waiterQueueArea = in.getDouble();
+        busyTableArea = in.getDouble();
+        busySeatArea = in.getDouble();
+        busyWaiterArea = in.getDouble();
+        tableQueueMax = in.getInt();
+        waiterQueueMax = in.getInt();
+    }
+
+    /**
+     * Method which has the run checkpointed from now on
+     * @param checkpoint: Where the checkpoints are written
+     * @param every: How often a checkpoint is taken, in milliseconds of simulated time
+     */
+    public void checkpointTo(Checkpoint checkpoint, long every){
+        if(every<=0){
+            throw new IllegalArgumentException("Invalid checkpoint interval");
+        }
+        this.checkpoint=checkpoint;
+        // A resumed run keeps the checkpoint times it had
+        if(every!=checkpointEvery){
+            this.checkpointEvery=every;
+            this.nextCheckpoint=(now/every + 1)*every;
+        }
+    }
+
+    /**
+     * Method which runs the simulation until no more parties arrive and every party inside has paid, carrying on from
+     * where it is if it was resumed from a checkpoint
+     * @param duration: How long the doors are open for, in milliseconds of simulated time
+     */
+    public void run(long duration){
+        this.duration=duration;
+        if(eventCount==0){
+            events.schedule(now + sample(meanArrivalGap), ARRIVAL, -1);
+            if(meanCallGap>0){
+                events.schedule(now + sample(meanCallGap), RESERVATION_CALL, -1);
+            }
+        }
+
+        while(events.poll()){
+            advanceClock(events.time());
+            eventCount++;
+            int party = events.subject();
+
+            switch (events.type()) {
+                case ARRIVAL -> {
+                    if(now < duration){
+                        events.schedule(now + sample(meanArrivalGap), ARRIVAL, -1);
+                        arrive();
+                    }
+                }
+                case ORDER_TAKEN -> this.orderTaken(party);
+                case FOOD_READY -> this.needWaiter(party, FOOD_SERVED);
+                case FOOD_SERVED -> this.foodServed(party);
+                case DONE_EATING -> this.needWaiter(party, BILL_BROUGHT);
+                case BILL_BROUGHT -> this.billBrought(party);
+                case PAID -> this.paid(party);
+                case RESERVATION_CALL -> {
+                    if(now < duration){
+                        events.schedule(now + sample(meanCallGap), RESERVATION_CALL, -1);
+                        reserve(duration);
+                    }
+                }
+                case RESERVED_ARRIVAL -> this.arriveBooked(party);
+                default -> throw new IllegalStateException("Unknown event type " + events.type());
+            }
+            if(checkpoint != null && now>=nextCheckpoint){
+                this.takeCheckpoint();
+            }
+        }
+        // The end is checkpointed as well, so resuming a finished run only reports it
+        if(checkpoint != null){
+            this.takeCheckpoint();
+        }
+    }
+
+    /**
+     * Method which encodes the state between two events and hands it to the checkpoint writer
+     */
+    private void takeCheckpoint(){
+        long start = System.nanoTime();
+        long seed = random.nextLong();
+        random = new SplittableRandom(seed);
+        nextCheckpoint = (now/checkpointEvery + 1)*checkpointEvery;
+        while(true) {
+            try {
+                image.clear();
+                write(image, seed);
+                break;
+            } catch (BufferOverflowException e) {
+                image = ByteBuffer.allocate(image.capacity()*2);
+            }
+        }
+        checkpoint.offer(Arrays.copyOf(image.array(), image.position()));
+        checkpointPauses.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Method which writes the whole state of the run, the parties inside, the events waiting and the bookings ahead
+     * @param seed: The seed the random generator has just been given
+     */
+    private void write(ByteBuffer out, long seed){
+        out.putInt(IMAGE_VERSION);
+        out.putInt(waiters).putDouble(meanArrivalGap).putDouble(meanCallGap).putDouble(memberShare);
+        out.putLong(duration).putLong(now).putLong(seed).putLong(checkpointEvery).putLong(nextCheckpoint);
+        out.putInt(freeWaiters).putInt(busyTables).putInt(busySeats);
+
+        out.putInt(partyCount).putInt(freePartyCount);
+        for(int party=0; party<partyCount; party++){
+            out.putLong(arrivedAt[party]).putLong(waitingSince[party]).putInt(pendingTask[party])
+                    .putLong(bill[party]).putInt(partySize[party]).putInt(partyBooking[party]);
+            // Dishes are written by name, so the run can be resumed on a menu which lists them in another order
+            Order order = orders[party];
+            out.putInt(order.size());
+            for(int line=0; line<order.size(); line++){
+                Checkpoint.putString(out, pricing.getMenu().name(order.item(line)));
+                out.putInt(order.quantity(line));
+            }
+        }
+        for(int i=0; i<freePartyCount; i++){
+            out.putInt(freeParties[i]);
+        }
+        writeQueue(out, tableQueue);
+        writeQueue(out, waiterQueue);
+        events.write(out);
+        seating.write(out, now/MINUTE);
+
+        out.putLong(eventCount).putLong(arrived).putLong(served).putLong(tableWaits).putLong(tableWaitSum)
+                .putLong(tableWaitMax).putLong(waiterWaits).putLong(waiterWaitSum).putLong(waiterWaitMax)
+                .putLong(revenue).putLong(discountGiven).putLong(promotionsGiven).putLong(reservationsMade)
+                .putLong(reservationsRefused).putLong(reservationsMoved);
+        out.putDouble(tableQueueArea).putDouble(waiterQueueArea).putDouble(busyTableArea).putDouble(busySeatArea)
+                .putDouble(busyWaiterArea);
+        out.putInt(tableQueueMax).putInt(waiterQueueMax);
+    }
+
+    /**
+     * Method which writes a queue's parties in order, leaving the queue as it was
+     */
+    private static void writeQueue(ByteBuffer out, IntQueue queue){
+        out.putInt(queue.size());
+        for(int i=queue.size(); i>0; i--){
+            int party = queue.poll();
+            out.putInt(party);
+            queue.add(party);
+        }
+    }
+
+    private static void readQueue(ByteBuffer in, IntQueue queue){
+        queue.clear();
+        for(int i=in.getInt(); i>0; i--){
+            queue.add(in.getInt());
+        }
+    }
+
+    /**
+     * Method which lets a new party in, who either sits down or waits for a table
+     */
+    private void arrive(){
+        int party = newParty();
+        arrived++;
+        arrivedAt[party]=now;
+        partySize[party]=Math.min(PARTY_SIZES[random.nextInt(PARTY_SIZES.length)], seating.largestTable());
+        partyBooking[party]=-1;
+        if(!trySeat(party)){
+            waitForTable(party);
+        }
+    }
+
+    /**
+     * Handler for a phone call booking a table for later, the party turns up at the time booked if one is free
+     * @param duration: When the doors close, bookings after that are not taken
+     */
+    private void reserve(long duration){
+        long minute = now/MINUTE + MIN_LEAD + random.nextInt(MAX_LEAD - MIN_LEAD);
+        minute -= minute % Seating.SLOT_MINUTES;
+        if(minute*MINUTE >= duration){
+            return;
+        }
+        int size = Math.min(PARTY_SIZES[random.nextInt(PARTY_SIZES.length)], seating.largestTable());
+        int booking = seating.book("Party of " + size, size, minute, STAY_MINUTES);
+        if(booking<0){
+            reservationsRefused++;
+        } else {
+            reservationsMade++;
+            events.schedule(minute*MINUTE, RESERVED_ARRIVAL, booking);
+        }
+    }
+
+    /**
+     * Handler for a party arriving for their booking
+     */
+    private void arriveBooked(int booking){
+        int party = newParty();
+        arrived++;
+        arrivedAt[party]=now;
+        partySize[party]=seating.partySize(booking);
+        partyBooking[party]=booking;
+        if(!trySeat(party)){
+            waitForTable(party);
+        }
+    }
+
+    /**
+     * Method which seats a party at the table booked for them, another one if it is still taken, or for a walk-in the
+     * smallest table free for as long as they are expected to stay
+     * @return whether the party was seated
+     */
+    private boolean trySeat(int party){
+        long minute = now/MINUTE;
+        int booking = partyBooking[party];
+        if(booking>=0){
+            int bookedTable = seating.table(booking);
+            int table = seating.arrive(booking, minute);
+            if(table<0){
+                return false;
+            }
+            if(table!=bookedTable){
+                reservationsMoved++;
+            }
+        } else {
+            booking = seating.walkIn(partySize[party], minute, STAY_MINUTES);
+            if(booking<0){
+                return false;
+            }
+            partyBooking[party]=booking;
+        }
+        busyTables++;
+        busySeats+=partySize[party];
+        seat(party);
+        return true;
+    }
+
+    private void waitForTable(int party){
+        tableQueue.add(party);
+        tableQueueMax=Math.max(tableQueueMax, tableQueue.size());
+    }
+
+    private void seat(int party){
+        long wait = now - arrivedAt[party];
+        tableWaits++;
+        tableWaitSum+=wait;
+        tableWaitMax=Math.max(tableWaitMax, wait);
+        needWaiter(party, ORDER_TAKEN);
+    }
+
+    /**
+     * Handler for the end of the ordering step, the dishes are chosen and sent to the kitchen
+     */
+    private void orderTaken(int party){
+        releaseWaiter();
+        Order order = orders[party];
+        order.clear();
+        int dishes = 1 + random.nextInt(4);
+        for(int i=0; i<dishes; i++){
+            order.add(random.nextInt(pricing.getMenu().size()));
+        }
+        events.schedule(now + sample(MEAN_MINUTES[FOOD_READY]), FOOD_READY, party);
+    }
+
+    /**
+     * Handler for the food being served, after which the party eats
+     */
+    private void foodServed(int party){
+        releaseWaiter();
+        events.schedule(now + sample(MEAN_MINUTES[DONE_EATING]), DONE_EATING, party);
+    }
+
+    /**
+     * Handler for the bill being brought, priced as at that time of day, when members get the discount of their tier
+     * and the party asks to pay
+     */
+    private void billBrought(int party){
+        releaseWaiter();
+        Order order = orders[party];
+        int minute = (int) (now/MINUTE % MINUTES_PER_DAY);
+        long total = pricing.total(order, pricing.table(0, minute));
+        promotionsGiven += order.total(pricing.getMenu()) - total;
+        if(random.nextDouble() < memberShare){
+            int visits = 1 + random.nextInt(MEMBER_VISITS);
+            if(pricing.discounts(visits)){
+                long discounted = pricing.total(order, pricing.table(visits, minute));
+                discountGiven+=total-discounted;
+                total=discounted;
+            }
+        }
+        bill[party]=total;
+        needWaiter(party, PAID);
+    }
+
+    /**
+     * Handler for the bill being paid, the party leaves and every party in line who now fits at a table is seated in
+     * turn, so a large party waiting does not hold up the smaller ones behind it
+     */
+    private void paid(int party){
+        releaseWaiter();
+        revenue+=bill[party];
+        served++;
+        seating.leave(partyBooking[party], now/MINUTE);
+        busyTables--;
+        busySeats-=partySize[party];
+        freeParties[freePartyCount++]=party;
+
+        for(int waiting=tableQueue.size(); waiting>0; waiting--){
+            int next = tableQueue.poll();
+            if(!trySeat(next)){
+                tableQueue.add(next);
+            }
+        }
+    }
+
+    /**
+     * Method which gives a party a waiter for the next step, or puts them in line for one
+     * @param task: The event which ends the step
+     */
+    private void needWaiter(int party, int task){
+        pendingTask[party]=task;
+        waitingSince[party]=now;
+        if(freeWaiters>0){
+            freeWaiters--;
+            startTask(party);
+        } else {
+            waiterQueue.add(party);
+            waiterQueueMax=Math.max(waiterQueueMax, waiterQueue.size());
+        }
+    }
+
+    private void startTask(int party){
+        long wait = now - waitingSince[party];
+        waiterWaits++;
+        waiterWaitSum+=wait;
+        waiterWaitMax=Math.max(waiterWaitMax, wait);
+        int task = pendingTask[party];
+        events.schedule(now + sample(MEAN_MINUTES[task]), task, party);
+    }
+
+    private void releaseWaiter(){
+        if(waiterQueue.isEmpty()){
+            freeWaiters++;
+        } else {
+            startTask(waiterQueue.poll());
+        }
+    }
+
+    private int newParty(){
+        if(freePartyCount>0){
+            return freeParties[--freePartyCount];
+        }
+        if(partyCount==arrivedAt.length){
+            int capacity = partyCount*2;
+            arrivedAt = Arrays.copyOf(arrivedAt, capacity);
+            waitingSince = Arrays.copyOf(waitingSince, capacity);
+            pendingTask = Arrays.copyOf(pendingTask, capacity);
+            orders = Arrays.copyOf(orders, capacity);
+            bill = Arrays.copyOf(bill, capacity);
+            partySize = Arrays.copyOf(partySize, capacity);
+            partyBooking = Arrays.copyOf(partyBooking, capacity);
+            freeParties = Arrays.copyOf(freeParties, capacity);
+        }
+        orders[partyCount] = Order.obtain();
+        return partyCount++;
+    }
+
+    /**
+     * Method which moves the clock forward, adding up the queue lengths and busy resources over the time passed
+     */
+    private void advanceClock(long time){
+        long passed = time - now;
+        tableQueueArea+=(double) tableQueue.size()*passed;
+        waiterQueueArea+=(double) waiterQueue.size()*passed;
+        busyTableArea+=(double) busyTables*passed;
+        busySeatArea+=(double) busySeats*passed;
+        busyWaiterArea+=(double) (waiters-freeWaiters)*passed;
+        now=time;
+    }
+
+    /**
+     * Method which draws an exponentially distributed length of time
+     * @param meanMinutes: The average length in minutes
+     * @return the length in milliseconds
+     */
+    private long sample(double meanMinutes){
+        return (long) (-meanMinutes * MINUTE * Math.log(1.0 - random.nextDouble()));
+    }
+
+    /**
+     * Method which prints the queue lengths, waiting times and takings of the run
+     */
+    public void printReport(PrintStream out){
+        double minutes = (double) now / MINUTE;
+        out.println("-----------------------------------------------------------");
+        out.println("|                   SIMULATION REPORT                     |");
+        out.println("-----------------------------------------------------------");
+        out.println(String.format("Simulated time:        %,.1f hours", minutes/60));
+        out.println(String.format("Events processed:      %,d", eventCount));
+        out.println(String.format("Parties arrived/paid:  %,d / %,d", arrived, served));
+        out.println(String.format("Table wait:            avg %.2f min, max %.2f min",
+                average(tableWaitSum, tableWaits), (double) tableWaitMax/MINUTE));
+        out.println(String.format("Waiter wait:           avg %.2f min, max %.2f min",
+                average(waiterWaitSum, waiterWaits), (double) waiterWaitMax/MINUTE));
+        out.println(String.format("Table queue length:    avg %.2f, max %d", tableQueueArea/Math.max(1, now),
+                tableQueueMax));
+        out.println(String.format("Waiter queue length:   avg %.2f, max %d", waiterQueueArea/Math.max(1, now),
+                waiterQueueMax));
+        out.println(String.format("Reservations:          %,d made, %,d refused, %,d moved to another table",
+                reservationsMade, reservationsRefused, reservationsMoved));
+        out.println(String.format("Table utilisation:     %.1f%%",
+                100*busyTableArea/Math.max(1, now)/seating.tables()));
+        out.println(String.format("Seat utilisation:      %.1f%%", 100*busySeatArea/Math.max(1, now)/seats));
+        out.println(String.format("Waiter utilisation:    %.1f%%", 100*busyWaiterArea/Math.max(1, now)/waiters));
+        out.println("Revenue:               $" + Money.formatGrouped(revenue) +
+                " (membership discounts $" + Money.formatGrouped(discountGiven) + ", happy hours and combos $" +
+                Money.formatGrouped(promotionsGiven) + ")");
+        out.println("-----------------------------------------------------------");
+    }
+
+    private static double average(long sumMillis, long count){
+        return count==0 ? 0 : (double) sumMillis/count/MINUTE;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getNow() {
+        return now;
+    }
+
+    public LatencyHistogram.Snapshot checkpointPauses(){
+        return checkpointPauses.snapshot();
+    }
+
+    /**
+     * Runs a simulation on the restaurant's menu and promotions and prints the report.
+     * Arguments: [days] [tables] [waiters] [arrivals per hour] [seed] [reservations per hour] [checkpoint file]
+     * The tables are either a .csv file of tables, res/Tables.csv by default, or a number of tables of 4. With a
+     * checkpoint file the run is checkpointed every simulated hour, and a run whose checkpoint is already there is
+     * resumed from it, the other arguments then being ignored.
+     */
+    public static void main(String[] args){
+        double days = args.length > 0 ? Double.parseDouble(args[0]) : 7;
+        String tables = args.length > 1 ? args[1] : "res/Tables.csv";
+        int waiters = args.length > 2 ? Integer.parseInt(args[2]) : 6;
+        double arrivalsPerHour = args.length > 3 ? Double.parseDouble(args[3]) : 20;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        double reservationsPerHour = args.length > 5 ? Double.parseDouble(args[5]) : 5;
+        String checkpointFile = args.length > 6 ? args[6] : null;
+
+        PricingEngine pricing = new Restaurant("res/Menu.csv", "res/Members.csv", null).getPricing();
+        Simulation simulation = checkpointFile == null ? null : resume(checkpointFile, pricing);
+        long duration;
+        if(simulation != null){
+            duration = simulation.getDuration();
+            System.out.println(String.format("Resuming from the checkpoint at %,.1f of %,.1f hours",
+                    (double) simulation.getNow()/MINUTE/60, (double) duration/MINUTE/60));
+        } else {
+            Seating seating = tables.endsWith(".csv") ? Seating.load(tables) :
+                    Seating.uniform(Integer.parseInt(tables), 4);
+            simulation = new Simulation(pricing, seating, waiters, arrivalsPerHour, reservationsPerHour, 0.3, seed);
+            duration = (long) (days*24*60*MINUTE);
+        }
+        Checkpoint checkpoint = null;
+        if(checkpointFile != null){
+            checkpoint = new Checkpoint(checkpointFile);
+            simulation.checkpointTo(checkpoint, 60*MINUTE);
+        }
+
+        long startEvents = simulation.getEventCount();
+        long start = System.nanoTime();
+        simulation.run(duration);
+        long elapsed = System.nanoTime() - start;
+
+        simulation.printReport(System.out);
+        System.out.println(String.format("Ran in %.3f s (%,.0f events/s)", elapsed/1e9,
+                (simulation.getEventCount()-startEvents)/(elapsed/1e9)));
+        if(checkpoint != null){
+            checkpoint.close();
+            LatencyHistogram.Snapshot pauses = simulation.checkpointPauses();
+            LatencyHistogram.Snapshot writes = checkpoint.writeLatency();
+            System.out.println(String.format("Checkpoints: %,d taken, %,d written (%,d bytes), pause p50 %.1f us, " +
+                    "max %.1f us, write p50 %.2f ms", pauses.getCount(), checkpoint.getWritten(),
+                    checkpoint.getLastBytes(), pauses.percentile(50)/1e3, pauses.getMax()/1e3,
+                    writes.percentile(50)/1e6));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recorded customer transcripts: the lines typed during each visit, one per line, with a line of "---" after each
+ * visit. Lines starting with "#" are comments.
+ */
+public final class Transcripts {
+
+    public static final String SEPARATOR = "---";
+
+    private Transcripts(){
+    }
+
+    /**
+     * Method which reads every visit of a transcript file
+     * @return the visits, each as the list of lines typed
+     */
+    public static List<List<String>> read(String filename){
+        try {
+            List<List<String>> visits = new ArrayList<>();
+            List<String> visit = new ArrayList<>();
+            for(String line:Files.readAllLines(Path.of(filename), StandardCharsets.UTF_8)){
+                if(line.startsWith("#")){
+                    continue;
+                }
+                if(line.equals(SEPARATOR)){
+                    if(!visit.isEmpty()){
+                        visits.add(visit);
+                    }
+                    visit = new ArrayList<>();
+                } else {
+                    visit.add(line);
+                }
+            }
+            if(!visit.isEmpty()){
+                visits.add(visit);
+            }
+            return visits;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Method which adds one visit to the end of a transcript file
+     * @param lines: The lines typed during the visit
+     */
+    public static synchronized void append(String filename, List<String> lines){
+        List<String> record = new ArrayList<>(lines);
+        record.add(SEPARATOR);
+        try {
+            Files.write(Path.of(filename), record, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Input source which remembers every line it passes on, so a console visit can be saved as a transcript
+     */
+    public static class Recorder implements InputSource {
+        private final InputSource source;
+        private final List<String> lines = new ArrayList<>();
+
+        public Recorder(InputSource source){
+            this.source=source;
+        }
+
+        @Override
+        public String nextLine() {
+            String line = source.nextLine();
+            lines.add(line);
+            return line;
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+    }
+}